@@ -1,6 +1,7 @@
 package sadilek.abstractcomponents;
 
 import java.time.Duration;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -16,12 +17,20 @@ import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
+import sadilek.exceptions.SiteBlockedException;
+import sadilek.helpers.ConcurrencyController;
+import sadilek.helpers.SiteGuard;
+import sadilek.metrics.PerformanceMonitor;
+import sadilek.metrics.TestCaseState;
+import sadilek.metrics.WaitEvent;
+
 /**
  * Contains all common components that can be reused in page objects.
  */
 public class AbstractComponent {
     private WebDriver driver;
     private int timeoutInSeconds = 10;
+    private TestCaseState testCase;
     private Logger log = LogManager.getLogger("AbstractComponent.class");
 
     /**
@@ -36,16 +45,53 @@ public class AbstractComponent {
         this.timeoutInSeconds = timeoutInSeconds;
     }
 
+    /**
+     * Sets the state of the test the page object works for, so that its waits,
+     * steps and page timings are recorded for that test. Page objects opened from
+     * this one are handed the same state.
+     * 
+     * @param testCase the state of the test, null outside of a test
+     */
+    public void setTestCase(TestCaseState testCase) {
+        this.testCase = testCase;
+    }
+
+    /**
+     * @return the state of the test the page object works for, null outside of a
+     *         test
+     */
+    public TestCaseState getTestCase() {
+        return testCase;
+    }
+
+    /**
+     * @return the id of the test case the page object works for, null outside of
+     *         a test
+     */
+    protected String getCaseId() {
+        return testCase != null ? testCase.getCaseId() : null;
+    }
+
+    /**
+     * @return the amount of time WebDriverWaits wait in seconds
+     */
+    protected int getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
     /**
      * Wrapper that waits for presenceOfElementLocated.
      * 
      * @param locator the By locator used to identify an element on a page.
      */
     protected void waitForElementLocated(By locator) {
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForElementLocated", locator.toString());
         try {
             WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
             wait.until(ExpectedConditions.presenceOfElementLocated(locator));
+            recordWait(event, false);
         } catch (TimeoutException e) {
+            recordWait(event, true);
             log.error("TIMEOUT waitForElementLocatedBy: " + locator.toString() + e);
         }
     }
@@ -74,6 +120,7 @@ public class AbstractComponent {
          * add logic to loop .selected-facets to check wait before continuing until
          * selected facet is enabled
          */
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForFilterToBeEnabled", facet);
         WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(20));
         ExpectedCondition<Boolean> elementTextContainsFacet = new ExpectedCondition<Boolean>() {
             public Boolean apply(WebDriver driver) {
@@ -82,7 +129,39 @@ public class AbstractComponent {
                         .anyMatch(filter -> filter.getText().equalsIgnoreCase(facet));
             }
         };
-        wait.until(elementTextContainsFacet);
+        try {
+            wait.until(elementTextContainsFacet);
+            recordWait(event, false);
+        } catch (TimeoutException ex) {
+            recordWait(event, true);
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until a facet tag disappears from the list of selected facets
+     * underneath the filter area, i.e. the filter was removed.
+     * 
+     * @param facet the facet to wait for
+     */
+    protected void waitForFilterToBeDisabled(String facet) {
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForFilterToBeDisabled", facet);
+        WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
+        ExpectedCondition<Boolean> facetRemoved = new ExpectedCondition<Boolean>() {
+            public Boolean apply(WebDriver driver) {
+                return driver.findElements(By.cssSelector(".selected-facets a"))
+                        .stream()
+                        .noneMatch(filter -> filter.getText().equalsIgnoreCase(facet));
+            }
+        };
+        try {
+            wait.until(facetRemoved);
+            recordWait(event, false);
+        } catch (TimeoutException ex) {
+            recordWait(event, true);
+            log.error("TIMEOUT waitForFilterToBeDisabled: " + facet + ex);
+            throw ex;
+        }
     }
 
     public void scrollIntoView(WebElement element) {
@@ -101,10 +180,13 @@ public class AbstractComponent {
      * @param element the WebElement to wait for.
      */
     public void waitForVisibilityOf(WebElement element) {
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForVisibilityOf", null);
         try {
             WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
             wait.until(ExpectedConditions.visibilityOf(element));
+            recordWait(event, false);
         } catch (TimeoutException ex) {
+            recordWait(event, true);
             log.error("TIMEOUT waitForVisibilityOf element: " + element.getText() + ex);
             throw ex;
         }
@@ -116,10 +198,13 @@ public class AbstractComponent {
      * @param element the WebElement to wait for.
      */
     protected void waitForElementToBeClickable(WebElement element) {
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForElementToBeClickable", null);
         try {
             WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
             wait.until(ExpectedConditions.elementToBeClickable(element));
+            recordWait(event, false);
         } catch (TimeoutException ex) {
+            recordWait(event, true);
             log.error("TIMEOUT waitForElementToBeClickable: " + element.getText() + ex);
             throw ex;
         } catch (Exception e) {
@@ -133,20 +218,26 @@ public class AbstractComponent {
      */
     protected void waitForNumberOfFiltersToNotBeZero() {
         By locator = By.cssSelector(".facet");
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForNumberOfFiltersToNotBeZero", null);
         try {
             WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
             wait.until(ExpectedConditions.numberOfElementsToBeMoreThan(locator, 0));
+            recordWait(event, false);
         } catch (TimeoutException ex) {
+            recordWait(event, true);
             log.error("TIMEMOUT Number of elements is 0");
             throw ex;
         }
     }
 
     protected void waitForTextToBe(WebElement element, String expectedText) {
+        WaitEvent event = WaitEvent.start(getCaseId(), "waitForTextToBe", expectedText);
         try {
             WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(timeoutInSeconds));
             wait.until(ExpectedConditions.textToBePresentInElement(element, expectedText));
+            recordWait(event, false);
         } catch (TimeoutException ex) {
+            recordWait(event, true);
             log.error("TIMEOUT waitForTextToBe: " + element.getText() + ex);
             throw ex;
         }
@@ -156,8 +247,8 @@ public class AbstractComponent {
     /**
      * Refreshes the current page.
      */
-    protected void refreshPage() {
-        driver.navigate().refresh();
+    public void refreshPage() {
+        navigate("refreshPage", () -> driver.navigate().refresh());
     }
 
     /**
@@ -171,7 +262,71 @@ public class AbstractComponent {
             return;
         }
 
-        driver.get(url);
+        navigate("gotoPage", () -> driver.get(url));
+    }
+
+    /**
+     * Runs a navigation through the SiteGuard: waits for the rate limiter, fails
+     * fast while access is denied and reports whether the browser landed on a
+     * block page.
+     * 
+     * @param operation  the name of the navigation for the messages
+     * @param navigation the navigation, e.g. a driver.get or a click on a link
+     * @throws SiteBlockedException if the circuit breaker is open
+     */
+    protected void navigate(String operation, Runnable navigation) throws SiteBlockedException {
+        navigate(operation, () -> {
+            navigation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a navigation through the SiteGuard like navigate(String, Runnable),
+     * for a navigation that already reads the title of the page it landed on.
+     * The title is only read again if the navigation returns none, and only
+     * while the SiteGuard is enabled.
+     * 
+     * @param operation  the name of the navigation for the messages
+     * @param navigation the navigation, returning the title of the page or null
+     * @throws SiteBlockedException if the circuit breaker is open
+     */
+    protected void navigate(String operation, Supplier<String> navigation) throws SiteBlockedException {
+        SiteGuard guard = SiteGuard.getInstance();
+        guard.acquire(operation);
+        String title = navigation.get();
+        if (guard.isEnabled()) {
+            guard.recordResponse(operation, SiteGuard.isDeniedTitle(title != null ? title : driver.getTitle()));
+        }
+    }
+
+    /**
+     * Captures the performance of the page that was just loaded for the current
+     * test. Does nothing unless performance capturing is enabled.
+     * 
+     * @param pageType the page type the budgets are defined for, e.g. "landing"
+     */
+    protected void capturePerformance(String pageType) {
+        PerformanceMonitor.getInstance().capture(testCase, driver, pageType);
+    }
+
+    /**
+     * Captures the performance of an interaction that updates the page without
+     * loading a new one, e.g. applying a filter.
+     * 
+     * @param pageType the page type the budgets are defined for, e.g. "filter"
+     * @param since    the mark taken with markPerformance before the interaction
+     */
+    protected void capturePerformance(String pageType, double since) {
+        PerformanceMonitor.getInstance().capture(testCase, driver, pageType, since);
+    }
+
+    /**
+     * @return the mark to pass to capturePerformance after an interaction, -1 if
+     *         performance capturing is off
+     */
+    protected double markPerformance() {
+        return PerformanceMonitor.getInstance().mark(testCase, driver);
     }
 
     /**
@@ -205,6 +360,18 @@ public class AbstractComponent {
         }
     }
 
+    /**
+     * Reports the latency and outcome of a wait to the ConcurrencyController so
+     * it can adjust the number of parallel browser sessions, and to the flight
+     * recording if one is running.
+     * 
+     * @param event    the event started when the wait started
+     * @param timedOut whether the wait ended with a TimeoutException
+     */
+    private void recordWait(WaitEvent event, boolean timedOut) {
+        ConcurrencyController.getInstance().recordWait(event.finish(timedOut), timedOut);
+    }
+
     /**
      * HELPER FUNCTIONS
      * 
@@ -0,0 +1,73 @@
+package sadilek.abstractcomponents;
+
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.pagefactory.ElementLocator;
+
+/**
+ * Locates the element of a page-object field and, if caching is enabled, keeps
+ * it until the element goes stale.
+ *
+ * Staleness is not probed with an extra WebDriver call. The element handle of
+ * PageElements invalidates the cache when a command on the cached element
+ * fails with a StaleElementReferenceException and repeats the command on the
+ * re-located element, so the element is only located again after the DOM
+ * actually replaced it. Lists are always located again.
+ */
+public class CachingElementLocator implements ElementLocator {
+    private final SearchContext searchContext;
+    private final By by;
+    private final boolean caching;
+    private WebElement cached;
+
+    /**
+     * Constructs a CachingElementLocator.
+     *
+     * @param searchContext the driver the element is located with
+     * @param by            the locator of the field
+     * @param caching       whether the located element is kept until it goes
+     *                      stale
+     */
+    public CachingElementLocator(SearchContext searchContext, By by, boolean caching) {
+        this.searchContext = searchContext;
+        this.by = by;
+        this.caching = caching;
+    }
+
+    @Override
+    public WebElement findElement() {
+        if (cached != null) {
+            return cached;
+        }
+
+        WebElement element = searchContext.findElement(by);
+        if (caching) {
+            cached = element;
+        }
+        return element;
+    }
+
+    @Override
+    public List<WebElement> findElements() {
+        return searchContext.findElements(by);
+    }
+
+    public boolean isCaching() {
+        return caching;
+    }
+
+    /**
+     * Drops the cached element, e.g. after it went stale.
+     */
+    public void invalidate() {
+        cached = null;
+    }
+
+    @Override
+    public String toString() {
+        return by.toString();
+    }
+}
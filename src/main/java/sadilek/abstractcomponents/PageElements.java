@@ -0,0 +1,166 @@
+package sadilek.abstractcomponents;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.openqa.selenium.interactions.Locatable;
+import org.openqa.selenium.support.FindAll;
+import org.openqa.selenium.support.FindBy;
+import org.openqa.selenium.support.FindBys;
+import org.openqa.selenium.support.pagefactory.Annotations;
+import org.openqa.selenium.support.pagefactory.internal.LocatingElementListHandler;
+
+/**
+ * Initializes the @FindBy fields of page objects, a replacement for
+ * PageFactory.initElements.
+ *
+ * The annotations of a page-object class are read and turned into locators
+ * once per class and JVM. Initializing a page object then only binds a
+ * lightweight handle per field to the driver, so creating page objects, e.g.
+ * a new ParfumPage on every navigation or retry, costs no reflection.
+ *
+ * Like with the PageFactory every access to a field locates its element again.
+ * With the element cache enabled the element is kept until a command on it
+ * fails as stale, see CachingElementLocator. Fields annotated with
+ * {@code @CacheLookup} are always cached that way.
+ */
+public class PageElements {
+    private static final Class<?>[] ELEMENT_INTERFACES = { WebElement.class, WrapsElement.class, Locatable.class };
+
+    private static Map<Class<?>, List<ElementField>> metadata = new ConcurrentHashMap<>();
+    private static volatile boolean elementCache = false;
+
+    private PageElements() {
+    }
+
+    /**
+     * Enables or disables the element cache for the page objects created after
+     * the call.
+     *
+     * @param enabled whether the located elements are kept until they go stale
+     */
+    public static void setElementCache(boolean enabled) {
+        elementCache = enabled;
+    }
+
+    public static boolean isElementCache() {
+        return elementCache;
+    }
+
+    /**
+     * Binds the @FindBy, @FindBys and @FindAll fields of a page object to a
+     * driver.
+     *
+     * @param searchContext the driver the elements are located with
+     * @param page          the page object
+     */
+    public static void initElements(SearchContext searchContext, Object page) {
+        for (ElementField field : metadata.computeIfAbsent(page.getClass(), PageElements::scan)) {
+            field.bind(searchContext, page);
+        }
+    }
+
+    /* read the locator fields of a page-object class and its superclasses */
+    private static List<ElementField> scan(Class<?> type) {
+        List<ElementField> fields = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current
+                .getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!field.isAnnotationPresent(FindBy.class) && !field.isAnnotationPresent(FindBys.class)
+                        && !field.isAnnotationPresent(FindAll.class)) {
+                    continue;
+                }
+
+                boolean list = List.class.isAssignableFrom(field.getType());
+                if (!list && !WebElement.class.isAssignableFrom(field.getType())) {
+                    throw new IllegalStateException("@FindBy field " + type.getSimpleName() + "." + field.getName()
+                            + " must be a WebElement or a List<WebElement>");
+                }
+
+                Annotations annotations = new Annotations(field);
+                field.setAccessible(true);
+                fields.add(new ElementField(field, annotations.buildBy(), list, annotations.isLookupCached()));
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    /* the locator metadata of one page-object field */
+    private static class ElementField {
+        private final Field field;
+        private final By by;
+        private final boolean list;
+        private final boolean lookupCached;
+
+        private ElementField(Field field, By by, boolean list, boolean lookupCached) {
+            this.field = field;
+            this.by = by;
+            this.list = list;
+            this.lookupCached = lookupCached;
+        }
+
+        private void bind(SearchContext searchContext, Object page) {
+            CachingElementLocator locator = new CachingElementLocator(searchContext, by, lookupCached || elementCache);
+            ClassLoader loader = page.getClass().getClassLoader();
+            Object handle = list
+                    ? Proxy.newProxyInstance(loader, new Class<?>[] { List.class },
+                            new LocatingElementListHandler(locator))
+                    : Proxy.newProxyInstance(loader, ELEMENT_INTERFACES, new ElementHandle(locator));
+
+            try {
+                field.set(page, handle);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("could not set the @FindBy field " + field.getName(), e);
+            }
+        }
+    }
+
+    /* forwards the calls to the located element and locates it again once if a cached element went stale */
+    private static class ElementHandle implements InvocationHandler {
+        private final CachingElementLocator locator;
+
+        private ElementHandle(CachingElementLocator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("toString".equals(method.getName()) && method.getParameterCount() == 0) {
+                return "Proxy element for: " + locator;
+            }
+
+            WebElement element = locator.findElement();
+            if ("getWrappedElement".equals(method.getName())) {
+                return element;
+            }
+
+            try {
+                return method.invoke(element, args);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof StaleElementReferenceException) || !locator.isCaching()) {
+                    throw e.getCause();
+                }
+            }
+
+            locator.invalidate();
+            try {
+                return method.invoke(locator.findElement(), args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
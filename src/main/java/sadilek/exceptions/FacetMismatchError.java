@@ -0,0 +1,60 @@
+package sadilek.exceptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import sadilek.verification.ProductMismatch;
+
+/**
+ * Thrown after a soft verification pass when one or more products did not
+ * match the expected facets. It carries every mismatch found on the page so
+ * the report shows all failing products at once.
+ *
+ * Extends AssertionError so that TestNG reports the test as failed like any
+ * other assert.
+ */
+public class FacetMismatchError extends AssertionError {
+    private static final long serialVersionUID = 1L;
+
+    private final List<ProductMismatch> mismatches;
+
+    /**
+     * Constructs a new FacetMismatchError
+     *
+     * @param mismatches the mismatches collected during verification
+     */
+    public FacetMismatchError(List<ProductMismatch> mismatches) {
+        super(buildMessage(mismatches));
+        this.mismatches = Collections.unmodifiableList(new ArrayList<>(mismatches));
+    }
+
+    public List<ProductMismatch> getMismatches() {
+        return mismatches;
+    }
+
+    /**
+     * The mismatches are deterministic when the product data was read and simply
+     * holds different values. Rerunning the browser flow would fail on the same
+     * products again.
+     *
+     * @return true if rerunning the test would not change the outcome
+     */
+    public boolean isDeterministic() {
+        for (ProductMismatch mismatch : mismatches) {
+            if (!mismatch.isDeterministic()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String buildMessage(List<ProductMismatch> mismatches) {
+        StringBuilder message = new StringBuilder();
+        message.append(mismatches.size()).append(" product mismatch(es)");
+        for (ProductMismatch mismatch : mismatches) {
+            message.append("\n").append(mismatch);
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package sadilek.exceptions;
+
+/**
+ * Thrown when the SiteGuard fast-fails a navigation or fetch because the
+ * system under test is denying access and the circuit breaker is open.
+ * Retrying the test right away would only prolong the block.
+ */
+public class SiteBlockedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new SiteBlockedException
+     * 
+     * @param message the reason and the time until the next probe
+     */
+    public SiteBlockedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,309 @@
+package sadilek.helpers;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sadilek.exceptions.ElementInteractionException;
+
+/**
+ * Adaptive concurrency controller for the data-provider threads.
+ *
+ * TestNG starts as many data-provider threads as the suite's
+ * data-provider-thread-count allows. This controller sits in front of the
+ * browser launch and only lets a limited number of browser sessions be open at
+ * the same time. A session holds its slot from its launch until it quits, so
+ * sessions kept idle for reuse and sessions warmed in the background count
+ * towards the limit as well as the ones running a test. The limit is adjusted with AIMD (additive increase,
+ * multiplicative decrease):
+ *
+ * - every healthy window raises the limit by one session
+ * - a window with slow waits, many wait timeouts, an ElementInteractionException
+ * spike or an overloaded host halves the limit
+ *
+ * Signals are fed in from the AbstractComponent waits and from the Listeners
+ * class. The controller is a singleton because all data-provider threads of a
+ * suite share the same budget.
+ */
+public class ConcurrencyController {
+    private static final ConcurrencyController INSTANCE = new ConcurrencyController();
+
+    /* number of samples (waits + finished tests) evaluated per window */
+    private static final int WINDOW_SIZE = 20;
+    private static final double BACKOFF_FACTOR = 0.5;
+    private static final double MAX_TIMEOUT_RATE = 0.1;
+    private static final double MAX_ERROR_RATE = 0.2;
+    private static final double MAX_CPU_LOAD = 0.85;
+    private static final double MIN_FREE_MEMORY_RATIO = 0.1;
+    /* on Linux the memory available without swapping, including reclaimable page cache */
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+
+    private Logger log = LogManager.getLogger(ConcurrencyController.class);
+    private final Object lock = new Object();
+
+    /* read without the lock by the wait and outcome recorders */
+    private volatile boolean enabled = false;
+    private int minSessions = 1;
+    private int maxSessions = Integer.MAX_VALUE;
+    private long targetWaitMillis = 5000;
+    private double limit = Integer.MAX_VALUE;
+    private int activeSessions = 0;
+
+    /* counters of the current window */
+    private int waits = 0;
+    private int waitTimeouts = 0;
+    private long waitMillis = 0;
+    private int outcomes = 0;
+    private int interactionErrors = 0;
+
+    private ConcurrencyController() {
+    }
+
+    /**
+     * Returns the controller shared by all threads of the suite.
+     *
+     * @return the ConcurrencyController singleton
+     */
+    public static ConcurrencyController getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enables the controller. The limit starts halfway between the minimum and
+     * maximum number of sessions and is adjusted from there.
+     *
+     * @param minSessions      the lowest number of concurrent browser sessions
+     * @param maxSessions      the highest number of concurrent browser sessions,
+     *                         usually the data-provider-thread-count
+     * @param targetWaitMillis average wait latency above which the controller
+     *                         backs off
+     */
+    public void configure(int minSessions, int maxSessions, long targetWaitMillis) {
+        synchronized (lock) {
+            this.enabled = true;
+            this.minSessions = Math.max(1, minSessions);
+            this.maxSessions = Math.max(this.minSessions, maxSessions);
+            this.targetWaitMillis = targetWaitMillis;
+            this.limit = Math.max(this.minSessions, this.maxSessions / 2);
+            resetWindow();
+            log.info("CONCURRENCY: adaptive limit enabled (min " + this.minSessions + ", max " + this.maxSessions
+                    + ", start " + (int) limit + ")");
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks the calling thread until a browser session slot is free. Without
+     * configuration every thread gets a slot immediately. The slot is held until
+     * the session quits.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        synchronized (lock) {
+            while (enabled && activeSessions >= (int) limit) {
+                lock.wait();
+            }
+            activeSessions++;
+        }
+    }
+
+    /**
+     * Takes a browser session slot if one is free, without waiting.
+     *
+     * @return true if the slot was taken
+     */
+    public boolean tryAcquire() {
+        synchronized (lock) {
+            if (enabled && activeSessions >= (int) limit) {
+                return false;
+            }
+            activeSessions++;
+            return true;
+        }
+    }
+
+    /**
+     * @return true if more sessions are open than the limit allows, e.g. after a
+     *         back-off, so that a session should be closed instead of kept
+     */
+    public boolean isOverLimit() {
+        synchronized (lock) {
+            return enabled && activeSessions > (int) limit;
+        }
+    }
+
+    /**
+     * Frees the browser session slot of a session that quit.
+     */
+    public void release() {
+        synchronized (lock) {
+            if (activeSessions > 0) {
+                activeSessions--;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Records how long a WebDriverWait took and whether it timed out.
+     *
+     * @param millis   the duration of the wait in milliseconds
+     * @param timedOut true if the wait ended with a TimeoutException
+     */
+    public void recordWait(long millis, boolean timedOut) {
+        if (!enabled) {
+            return;
+        }
+
+        synchronized (lock) {
+            waits++;
+            waitMillis += millis;
+            if (timedOut) {
+                waitTimeouts++;
+            }
+            adjustIfWindowComplete();
+        }
+    }
+
+    /**
+     * Records the outcome of a finished test. Failures caused by an
+     * ElementInteractionException count as interaction errors.
+     *
+     * @param failure the throwable of the test or null if it passed
+     */
+    public void recordOutcome(Throwable failure) {
+        if (!enabled) {
+            return;
+        }
+
+        synchronized (lock) {
+            outcomes++;
+            if (isInteractionError(failure)) {
+                interactionErrors++;
+            }
+            adjustIfWindowComplete();
+        }
+    }
+
+    /**
+     * @return the number of browser sessions currently allowed to run
+     */
+    public int getLimit() {
+        synchronized (lock) {
+            return (int) Math.min(limit, maxSessions);
+        }
+    }
+
+    /**
+     * @return the number of browser sessions currently open
+     */
+    public int getActiveSessions() {
+        synchronized (lock) {
+            return activeSessions;
+        }
+    }
+
+    /* evaluate the window once enough samples have been collected */
+    private void adjustIfWindowComplete() {
+        if (waits + outcomes < WINDOW_SIZE) {
+            return;
+        }
+
+        double timeoutRate = waits == 0 ? 0 : (double) waitTimeouts / waits;
+        double errorRate = outcomes == 0 ? 0 : (double) interactionErrors / outcomes;
+        long averageWait = waits == 0 ? 0 : waitMillis / waits;
+        String hostPressure = getHostPressure();
+
+        int previous = (int) limit;
+        if (timeoutRate > MAX_TIMEOUT_RATE || errorRate > MAX_ERROR_RATE || averageWait > targetWaitMillis
+                || hostPressure != null) {
+            /* multiplicative decrease */
+            limit = Math.max(minSessions, limit * BACKOFF_FACTOR);
+            log.warn("CONCURRENCY: backing off to " + (int) limit + " sessions (timeout rate " + timeoutRate
+                    + ", interaction error rate " + errorRate + ", average wait " + averageWait + "ms"
+                    + (hostPressure != null ? ", " + hostPressure : "") + ")");
+        } else {
+            /* additive increase */
+            limit = Math.min(maxSessions, limit + 1);
+            if ((int) limit != previous) {
+                log.info("CONCURRENCY: raising limit to " + (int) limit + " sessions");
+            }
+        }
+
+        resetWindow();
+        lock.notifyAll();
+    }
+
+    /*
+     * check CPU and memory of the host. Returns a short description when the host
+     * is overloaded and null otherwise.
+     */
+    @SuppressWarnings("deprecation")
+    private String getHostPressure() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean sunOs = (com.sun.management.OperatingSystemMXBean) os;
+            double cpuLoad = sunOs.getSystemCpuLoad();
+            if (cpuLoad > MAX_CPU_LOAD) {
+                return "host cpu load " + cpuLoad;
+            }
+
+            long totalMemory = sunOs.getTotalPhysicalMemorySize();
+            if (totalMemory > 0 && (double) getAvailableMemory(sunOs) / totalMemory < MIN_FREE_MEMORY_RATIO) {
+                return "host available memory below " + (int) (MIN_FREE_MEMORY_RATIO * 100) + "%";
+            }
+        } else if (os.getSystemLoadAverage() > os.getAvailableProcessors() * MAX_CPU_LOAD) {
+            return "host load average " + os.getSystemLoadAverage();
+        }
+
+        return null;
+    }
+
+    /*
+     * the memory available to new processes. The free memory of the MXBean is
+     * MemFree on Linux, which leaves out the page cache and is low on most busy
+     * hosts, so MemAvailable is read where there is one.
+     */
+    @SuppressWarnings("deprecation")
+    private long getAvailableMemory(com.sun.management.OperatingSystemMXBean os) {
+        if (Files.isReadable(MEMINFO)) {
+            try {
+                for (String line : Files.readAllLines(MEMINFO)) {
+                    if (line.startsWith("MemAvailable:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.debug("CONCURRENCY: could not read " + MEMINFO + ": " + e.getMessage());
+            }
+        }
+        return os.getFreePhysicalMemorySize();
+    }
+
+    /* walk the cause chain looking for an ElementInteractionException */
+    private boolean isInteractionError(Throwable failure) {
+        Throwable cause = failure;
+        while (cause != null) {
+            if (cause instanceof ElementInteractionException) {
+                return true;
+            }
+            cause = cause.getCause() == cause ? null : cause.getCause();
+        }
+        return false;
+    }
+
+    private void resetWindow() {
+        waits = 0;
+        waitTimeouts = 0;
+        waitMillis = 0;
+        outcomes = 0;
+        interactionErrors = 0;
+    }
+}
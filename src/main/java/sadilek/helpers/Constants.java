@@ -8,5 +8,8 @@ public class Constants {
         public static final String GESCHENKFUR = "geschenkFur";
         public static final String FURWEN = "furWen";
 
+        /* set on the rows of a browser matrix run, see BrowserMatrix */
+        public static final String BROWSER = "browser";
+
     }
 }
@@ -0,0 +1,238 @@
+package sadilek.helpers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sadilek.exceptions.SiteBlockedException;
+
+/**
+ * Host-wide rate limiter and circuit breaker for the navigations and fetches
+ * sent to the system under test.
+ *
+ * All threads of the suite share one token bucket, so bursts of parallel page
+ * loads and product fetches are spread out to the configured rate. Responses
+ * that signal a block (an "Access Denied" page, HTTP 403 or 429) are counted;
+ * after a number of them in a row the breaker opens and every navigation fails
+ * fast with a SiteBlockedException instead of being retried. Once the cool-down
+ * has passed a single navigation is let through as a probe: if it is not
+ * denied the breaker closes, otherwise it stays open for another, doubled,
+ * cool-down.
+ *
+ * Like the ConcurrencyController the guard is a singleton and does nothing
+ * until it is configured.
+ */
+public class SiteGuard {
+    private static final SiteGuard INSTANCE = new SiteGuard();
+
+    /* page titles of the block pages of the CDN and the shop */
+    private static final Pattern DENIED_TITLE = Pattern.compile("(?i)access denied|zugriff verweigert|forbidden");
+    private static final Pattern TITLE_ELEMENT = Pattern.compile("(?is)<title[^>]*>(.*?)</title>");
+    private static final long MAX_COOLDOWN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private Logger log = LogManager.getLogger(SiteGuard.class);
+    private final Object lock = new Object();
+
+    private volatile boolean enabled = false;
+
+    /* token bucket as a virtual schedule: the earliest time the next request may start */
+    private long intervalNanos = 0;
+    private long burstNanos = 0;
+    private long nextFreeNanos = 0;
+
+    private int threshold = 3;
+    private long baseCooldownMillis = 60000;
+    private long cooldownMillis = 60000;
+    private State state = State.CLOSED;
+    private int consecutiveDenied = 0;
+    private long openedAt = 0;
+    private long probeStartedAt = 0;
+    private Thread probe;
+
+    private SiteGuard() {
+    }
+
+    /**
+     * Returns the guard shared by all threads of the suite.
+     *
+     * @return the SiteGuard singleton
+     */
+    public static SiteGuard getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enables the guard.
+     *
+     * @param requestsPerSecond the rate of navigations and fetches of all threads
+     *                          together, 0 for no rate limit
+     * @param burst             how many requests may start at once after an idle
+     *                          period
+     * @param threshold         the number of denied responses in a row that open
+     *                          the breaker
+     * @param cooldownMillis    how long the breaker stays open before the first
+     *                          probe
+     */
+    public void configure(double requestsPerSecond, int burst, int threshold, long cooldownMillis) {
+        synchronized (lock) {
+            this.intervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+            this.burstNanos = intervalNanos * Math.max(0, burst - 1);
+            this.nextFreeNanos = System.nanoTime();
+            this.threshold = Math.max(1, threshold);
+            this.baseCooldownMillis = cooldownMillis;
+            this.cooldownMillis = cooldownMillis;
+            this.enabled = true;
+        }
+        log.info("SITE GUARD: " + (requestsPerSecond > 0 ? requestsPerSecond + " requests/s, burst " + burst
+                : "no rate limit") + ", breaker opens after " + threshold + " denied responses for " + cooldownMillis
+                + "ms");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public State getState() {
+        synchronized (lock) {
+            return state;
+        }
+    }
+
+    /**
+     * Waits for a token before a navigation or fetch.
+     *
+     * @param operation the navigation, e.g. "gotoPage", for the messages
+     * @throws SiteBlockedException if the breaker is open or another thread is
+     *                              probing
+     */
+    public void acquire(String operation) throws SiteBlockedException {
+        if (!enabled) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (lock) {
+            checkBreaker(operation);
+
+            long now = System.nanoTime();
+            long start = Math.max(nextFreeNanos - burstNanos, now);
+            nextFreeNanos = Math.max(nextFreeNanos, now) + intervalNanos;
+            waitNanos = start - now;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a navigation or fetch.
+     *
+     * @param operation the navigation, e.g. "gotoPage", for the messages
+     * @param denied    whether the response signals that access is denied
+     */
+    public void recordResponse(String operation, boolean denied) {
+        if (!enabled) {
+            return;
+        }
+
+        synchronized (lock) {
+            if (state == State.HALF_OPEN && probe == Thread.currentThread()) {
+                probe = null;
+                if (denied) {
+                    cooldownMillis = Math.min(cooldownMillis * 2, MAX_COOLDOWN_MILLIS);
+                    open("probe " + operation + " was denied again");
+                } else {
+                    state = State.CLOSED;
+                    consecutiveDenied = 0;
+                    cooldownMillis = baseCooldownMillis;
+                    log.info("SITE GUARD: probe " + operation + " succeeded, circuit closed");
+                }
+                return;
+            }
+
+            if (!denied) {
+                consecutiveDenied = 0;
+                return;
+            }
+
+            consecutiveDenied++;
+            log.warn("SITE GUARD: " + operation + " was denied (" + consecutiveDenied + " in a row)");
+            if (state == State.CLOSED && consecutiveDenied >= threshold) {
+                open(consecutiveDenied + " denied responses in a row");
+            }
+        }
+    }
+
+    /**
+     * @param title the title of the page the browser landed on
+     * @return true if it is a block page
+     */
+    public static boolean isDeniedTitle(String title) {
+        return title != null && DENIED_TITLE.matcher(title).find();
+    }
+
+    /**
+     * Reads the title out of a page source that was fetched anyway, saving the
+     * round trip of a separate title command.
+     *
+     * @param pageSource the HTML of the page
+     * @return the title, null if the page has none
+     */
+    public static String getTitle(String pageSource) {
+        if (pageSource == null) {
+            return null;
+        }
+        Matcher matcher = TITLE_ELEMENT.matcher(pageSource);
+        return matcher.find() ? matcher.group(1).trim() : null;
+    }
+
+    /**
+     * @param statusCode the HTTP status of a response
+     * @return true if the status signals that access is denied or throttled
+     */
+    public static boolean isDeniedStatus(int statusCode) {
+        return statusCode == 403 || statusCode == 429;
+    }
+
+    /* called with the lock held: fail fast while open, let a single probe through after the cool-down */
+    private void checkBreaker(String operation) {
+        if (state == State.CLOSED) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (state == State.HALF_OPEN) {
+            /* a probe that never reported back, e.g. because its test failed otherwise, is replaced */
+            if (probe != null && now - probeStartedAt < cooldownMillis) {
+                throw new SiteBlockedException("SITE GUARD: " + operation + " blocked while the circuit is probed");
+            }
+        } else if (now - openedAt < cooldownMillis) {
+            throw new SiteBlockedException("SITE GUARD: " + operation + " blocked, access denied by the site. Next "
+                    + "probe in " + (cooldownMillis - (now - openedAt)) / 1000 + "s");
+        }
+
+        state = State.HALF_OPEN;
+        probe = Thread.currentThread();
+        probeStartedAt = now;
+        log.info("SITE GUARD: probing with " + operation);
+    }
+
+    private void open(String reason) {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        log.error("SITE GUARD: circuit open after " + reason + ", failing navigations fast for " + cooldownMillis
+                + "ms");
+    }
+}
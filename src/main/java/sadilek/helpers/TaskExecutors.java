@@ -0,0 +1,106 @@
+package sadilek.helpers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Creates the executors of the framework's background tasks: fetching result
+ * and product pages, reading collected product tabs, warming browser sessions,
+ * writing screenshots and flushing reports. The tests themselves run on the
+ * data-provider pool of TestNG, which stays on platform threads.
+ *
+ * These tasks spend nearly all their time blocked on WebDriver calls, HTTP
+ * fetches and file writes. On a JDK with virtual threads (21 or later) every
+ * task runs on a virtual thread of its own, so any number of them can be in
+ * flight without the cost of platform threads. On older JDKs, or with virtual
+ * threads disabled, the tasks run on a cached pool of daemon threads.
+ *
+ * The framework has to build and run on JDKs before 21 (the Flight Recorder
+ * events need 11 or later), where Thread.ofVirtual does not exist, so the
+ * virtual-thread API is looked up by reflection.
+ */
+public class TaskExecutors {
+    private static Logger log = LogManager.getLogger(TaskExecutors.class);
+
+    /* Thread.ofVirtual() and Executors.newThreadPerTaskExecutor, null before JDK 21 */
+    private static final Method OF_VIRTUAL;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            /* no virtual threads on this JDK */
+        }
+        OF_VIRTUAL = ofVirtual;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private static volatile boolean virtualThreads = false;
+
+    private TaskExecutors() {
+    }
+
+    /**
+     * Enables or disables virtual threads for the executors created after the
+     * call.
+     *
+     * @param enabled whether to use virtual threads where the JDK supports them
+     */
+    public static void setVirtualThreads(boolean enabled) {
+        virtualThreads = enabled;
+        log.info("EXECUTOR: background tasks run on " + (isVirtual() ? "virtual threads" : "platform threads"));
+    }
+
+    /**
+     * @return true if new executors run their tasks on virtual threads
+     */
+    public static boolean isVirtual() {
+        return virtualThreads && OF_VIRTUAL != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts every task right away, on a virtual thread
+     * if enabled and supported and otherwise on a pooled daemon thread. Callers
+     * limit the number of tasks they submit where it matters.
+     *
+     * @param name the prefix of the thread names, e.g. "session-warmup"
+     * @return the executor, to be shut down by the caller
+     */
+    public static ExecutorService newTaskExecutor(String name) {
+        if (isVirtual()) {
+            try {
+                return newVirtualThreadExecutor(name);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                /* e.g. virtual threads are a preview feature that is not enabled */
+                log.warn("EXECUTOR: virtual threads are not available, using platform threads: " + e);
+                virtualThreads = false;
+            }
+        }
+
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /* Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory()) */
+    private static ExecutorService newVirtualThreadExecutor(String name) throws ReflectiveOperationException {
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = OF_VIRTUAL.invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+        ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+    }
+}
@@ -0,0 +1,120 @@
+package sadilek.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The WebDriver commands of one test case (or of the whole suite) by command
+ * and by the page-object method that issued them.
+ *
+ * Recording is synchronized since the suite totals are merged from the
+ * data-provider threads.
+ */
+public class CommandMetrics {
+    /* the ITestResult attribute holding the metrics of a test */
+    public static final String ATTRIBUTE = "wireMetrics";
+
+    private final LatencyStats total = new LatencyStats();
+    private final Map<String, LatencyStats> byCommand = new TreeMap<>();
+    private final Map<String, LatencyStats> byCaller = new TreeMap<>();
+
+    /**
+     * Adds a single WebDriver command.
+     *
+     * @param command the command, e.g. "driver.findElement"
+     * @param caller  the page-object method that issued it, e.g.
+     *                "ParfumPage.setFilter", null if the caller was not sampled
+     * @param nanos   the duration of the command in nanoseconds
+     */
+    public synchronized void record(String command, String caller, long nanos) {
+        total.record(nanos);
+        byCommand.computeIfAbsent(command, key -> new LatencyStats()).record(nanos);
+        if (caller != null) {
+            byCaller.computeIfAbsent(caller, key -> new LatencyStats()).record(nanos);
+        }
+    }
+
+    /**
+     * Adds all commands of another metrics object, e.g. of a finished test to
+     * the suite totals.
+     *
+     * @param other the metrics to add
+     */
+    public synchronized void merge(CommandMetrics other) {
+        synchronized (other) {
+            total.merge(other.total);
+            merge(byCommand, other.byCommand);
+            merge(byCaller, other.byCaller);
+        }
+    }
+
+    public synchronized LatencyStats getTotal() {
+        LatencyStats copy = new LatencyStats();
+        copy.merge(total);
+        return copy;
+    }
+
+    /**
+     * @return a copy of the stats by command
+     */
+    public synchronized Map<String, LatencyStats> getByCommand() {
+        return copy(byCommand);
+    }
+
+    /**
+     * @return a copy of the stats by calling page-object method
+     */
+    public synchronized Map<String, LatencyStats> getByCaller() {
+        return copy(byCaller);
+    }
+
+    /**
+     * @return the metrics as a JSON object with the total, the commands and the
+     *         callers
+     */
+    public synchronized String toJson() {
+        return "{\"total\":" + total.toJson() + ",\"commands\":" + toJson(byCommand) + ",\"callers\":"
+                + toJson(byCaller) + "}";
+    }
+
+    /**
+     * Quotes a string for use in JSON.
+     *
+     * @param value the string
+     * @return the quoted and escaped string
+     */
+    public static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static void merge(Map<String, LatencyStats> target, Map<String, LatencyStats> source) {
+        for (Map.Entry<String, LatencyStats> entry : source.entrySet()) {
+            target.computeIfAbsent(entry.getKey(), key -> new LatencyStats()).merge(entry.getValue());
+        }
+    }
+
+    private static Map<String, LatencyStats> copy(Map<String, LatencyStats> source) {
+        Map<String, LatencyStats> copy = new TreeMap<>();
+        merge(copy, source);
+        return copy;
+    }
+
+    private static String toJson(Map<String, LatencyStats> stats) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, LatencyStats> entry : stats.entrySet()) {
+            json.append(json.length() == 1 ? "" : ",").append(quote(entry.getKey())).append(":")
+                    .append(entry.getValue().toJson());
+        }
+        return json.append("}").toString();
+    }
+}
@@ -0,0 +1,62 @@
+package sadilek.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Runs a Java Flight Recorder recording for the whole suite. The JDK default
+ * settings (GC, threads, I/O) are recorded together with the framework events,
+ * so the file can be opened in JDK Mission Control to see the framework
+ * overhead next to the JVM activity.
+ */
+public class FlightRecording {
+    private static Logger log = LogManager.getLogger(FlightRecording.class);
+    private static Recording recording;
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Starts the recording unless one is already running.
+     *
+     * @param destination the file the recording is written to when it stops
+     * @throws IOException    if the destination cannot be used
+     * @throws ParseException if the JDK default settings cannot be read
+     */
+    public static synchronized void start(File destination) throws IOException, ParseException {
+        if (recording != null) {
+            return;
+        }
+
+        destination.getParentFile().mkdirs();
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("suite");
+        recording.enable(WaitEvent.class).withoutThreshold();
+        recording.enable(StepEvent.class).withoutThreshold();
+        recording.enable(ListenerEvent.class).withoutThreshold();
+        recording.setDestination(destination.toPath());
+        recording.start();
+        log.info("JFR: recording to " + destination);
+    }
+
+    /**
+     * Stops the recording and writes it to its destination.
+     */
+    public static synchronized void stop() {
+        if (recording == null) {
+            return;
+        }
+
+        recording.stop();
+        log.info("JFR: wrote " + recording.getDestination());
+        recording.close();
+        recording = null;
+    }
+}
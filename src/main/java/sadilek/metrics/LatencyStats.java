@@ -0,0 +1,117 @@
+package sadilek.metrics;
+
+import java.util.Locale;
+
+/**
+ * Count, total, maximum and a fixed-bucket latency histogram of a series of
+ * calls. The buckets are fixed so that stats of different tests and shards
+ * can be added up.
+ */
+public class LatencyStats {
+    /* upper bounds of the histogram buckets in millis, the last bucket is unbounded */
+    public static final long[] BUCKET_BOUNDS_MILLIS = { 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+    private final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+
+    /**
+     * Adds a single call.
+     *
+     * @param nanos the duration of the call in nanoseconds
+     */
+    public void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+        buckets[bucketOf(nanos / 1_000_000)]++;
+    }
+
+    /**
+     * Adds all calls of another stats object.
+     *
+     * @param other the stats to add
+     */
+    public void merge(LatencyStats other) {
+        count += other.count;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalMillis() {
+        return totalNanos / 1_000_000;
+    }
+
+    public double getTotalSeconds() {
+        return totalNanos / 1_000_000_000.0;
+    }
+
+    public long getMaxMillis() {
+        return maxNanos / 1_000_000;
+    }
+
+    public double getMeanMillis() {
+        return count == 0 ? 0 : totalNanos / 1_000_000.0 / count;
+    }
+
+    /**
+     * Estimates a percentile from the histogram as the upper bound of the bucket
+     * it falls into. The unbounded bucket reports the maximum instead.
+     *
+     * @param percentile the percentile between 0 and 1, e.g. 0.95
+     * @return the estimated latency in millis
+     */
+    public long getPercentileMillis(double percentile) {
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(BUCKET_BOUNDS_MILLIS[i], getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * @return a copy of the bucket counts, see BUCKET_BOUNDS_MILLIS
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * @return the stats as a JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"count\":").append(count)
+                .append(",\"totalMillis\":").append(getTotalMillis())
+                .append(",\"meanMillis\":").append(String.format(Locale.ROOT, "%.2f", getMeanMillis()))
+                .append(",\"p50Millis\":").append(getPercentileMillis(0.5))
+                .append(",\"p95Millis\":").append(getPercentileMillis(0.95))
+                .append(",\"maxMillis\":").append(getMaxMillis())
+                .append(",\"histogram\":[");
+        for (int i = 0; i < buckets.length; i++) {
+            json.append(i == 0 ? "" : ",").append(buckets[i]);
+        }
+        return json.append("]}").toString();
+    }
+
+    private static int bucketOf(long millis) {
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            if (millis < BUCKET_BOUNDS_MILLIS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+}
@@ -0,0 +1,58 @@
+package sadilek.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a TestNG listener callback, so that the reporting
+ * overhead shows up next to the test steps.
+ */
+@Name("sadilek.Listener")
+@Label("Listener Callback")
+@Category("Selenium Framework")
+@Description("A TestNG listener callback")
+@StackTrace(false)
+public class ListenerEvent extends Event {
+    @Label("Test Case")
+    String testCase;
+
+    @Label("Callback")
+    String callback;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Starts timing a listener callback.
+     *
+     * @param callback the callback, e.g. "onTestFailure"
+     * @param testCase the id of the test case
+     * @return the started event
+     */
+    public static ListenerEvent start(String callback, String testCase) {
+        ListenerEvent event = new ListenerEvent();
+        if (event.isEnabled()) {
+            event.callback = callback;
+            event.testCase = testCase;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the callback and commits the event if a recording is running.
+     *
+     * @param outcome the test outcome, e.g. PASS
+     */
+    public void finish(String outcome) {
+        end();
+        if (shouldCommit()) {
+            this.outcome = outcome;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package sadilek.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Live counters, gauges and latency histograms of a running suite, rendered in
+ * the OpenMetrics text format by the MetricsServer.
+ *
+ * Recording is a no-op until the registry is enabled, so the page objects can
+ * report to it unconditionally.
+ */
+public class MetricsRegistry {
+    public static final String TESTS = "suite_tests";
+    public static final String RETRIES = "retries";
+    public static final String WAIT_TIMEOUTS = "wait_timeouts";
+    public static final String STEP_DURATION = "step_duration_seconds";
+    public static final String WAIT_DURATION = "wait_duration_seconds";
+
+    private static final MetricsRegistry instance = new MetricsRegistry();
+
+    private volatile boolean enabled = false;
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+        describe(TESTS, "counter", "status", "Test cases by status.");
+        describe(RETRIES, "counter", "site", "Retries by the method that retried.");
+        describe(WAIT_TIMEOUTS, "counter", "condition", "Waits that timed out by wait method.");
+        describe(STEP_DURATION, "histogram", "step", "Duration of the framework steps.");
+        describe(WAIT_DURATION, "histogram", "condition", "Duration of the waits by wait method.");
+    }
+
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts recording. Called when the metrics endpoint is started.
+     */
+    public void enable() {
+        this.enabled = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registers a gauge that is read on every scrape.
+     *
+     * @param name     the metric name
+     * @param help     the description of the metric
+     * @param supplier supplies the current value
+     */
+    public void registerGauge(String name, String help, LongSupplier supplier) {
+        Family family = new Family("gauge", null, help);
+        family.gauge = supplier;
+        families.put(name, family);
+    }
+
+    /**
+     * Counts a test case event.
+     *
+     * @param status started, passed, failed, skipped or retried
+     */
+    public void countTest(String status) {
+        increment(TESTS, status);
+    }
+
+    /**
+     * Counts a retry.
+     *
+     * @param site the method that retried, e.g. "setFilter"
+     */
+    public void countRetry(String site) {
+        increment(RETRIES, site);
+    }
+
+    /**
+     * Records a finished wait.
+     *
+     * @param condition the wait method
+     * @param nanos     the duration of the wait
+     * @param timedOut  whether the wait timed out
+     */
+    public void observeWait(String condition, long nanos, boolean timedOut) {
+        observe(WAIT_DURATION, condition, nanos);
+        if (timedOut) {
+            increment(WAIT_TIMEOUTS, condition);
+        }
+    }
+
+    /**
+     * Records a finished framework step.
+     *
+     * @param step  the step, e.g. "ParfumPage.setFilter"
+     * @param nanos the duration of the step
+     */
+    public void observeStep(String step, long nanos) {
+        observe(STEP_DURATION, step, nanos);
+    }
+
+    /**
+     * Renders all metrics in the OpenMetrics text format.
+     *
+     * @return the exposition, terminated by "# EOF"
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            entry.getValue().render(entry.getKey(), text);
+        }
+        return text.append("# EOF\n").toString();
+    }
+
+    private void increment(String name, String labelValue) {
+        if (enabled) {
+            families.get(name).counters.computeIfAbsent(labelValue, key -> new LongAdder()).increment();
+        }
+    }
+
+    private void observe(String name, String labelValue, long nanos) {
+        if (enabled) {
+            LatencyStats stats = families.get(name).histograms.computeIfAbsent(labelValue, key -> new LatencyStats());
+            synchronized (stats) {
+                stats.record(nanos);
+            }
+        }
+    }
+
+    private void describe(String name, String type, String label, String help) {
+        families.put(name, new Family(type, label, help));
+    }
+
+    /* escape a label value as required by the exposition format */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    /* the samples of one metric name */
+    private static class Family {
+        private final String type;
+        private final String label;
+        private final String help;
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+        private final Map<String, LatencyStats> histograms = new ConcurrentHashMap<>();
+        private LongSupplier gauge;
+
+        private Family(String type, String label, String help) {
+            this.type = type;
+            this.label = label;
+            this.help = help;
+        }
+
+        private void render(String name, StringBuilder text) {
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+
+            if (gauge != null) {
+                text.append(name).append(' ').append(gauge.getAsLong()).append('\n');
+            }
+
+            for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+                text.append(name).append("_total{").append(label).append("=\"").append(escape(counter.getKey()))
+                        .append("\"} ").append(counter.getValue().sum()).append('\n');
+            }
+
+            for (Map.Entry<String, LatencyStats> histogram : new TreeMap<>(histograms).entrySet()) {
+                LatencyStats stats = new LatencyStats();
+                synchronized (histogram.getValue()) {
+                    stats.merge(histogram.getValue());
+                }
+                String labels = label + "=\"" + escape(histogram.getKey()) + "\"";
+
+                long[] buckets = stats.getBuckets();
+                long cumulative = 0;
+                for (int i = 0; i < LatencyStats.BUCKET_BOUNDS_MILLIS.length; i++) {
+                    cumulative += buckets[i];
+                    text.append(name).append("_bucket{").append(labels).append(",le=\"")
+                            .append(Double.toString(LatencyStats.BUCKET_BOUNDS_MILLIS[i] / 1000.0)).append("\"} ")
+                            .append(cumulative).append('\n');
+                }
+                text.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                        .append(stats.getCount()).append('\n');
+                text.append(name).append("_count{").append(labels).append("} ").append(stats.getCount())
+                        .append('\n');
+                text.append(name).append("_sum{").append(labels).append("} ").append(seconds(stats.getTotalSeconds()))
+                        .append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package sadilek.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A plain local HTTP server exposing the MetricsRegistry on /metrics in the
+ * OpenMetrics text format, so that a long run can be scraped while it is still
+ * going. Binds to the loopback address only.
+ */
+public class MetricsServer {
+    private static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static Logger log = LogManager.getLogger(MetricsServer.class);
+    private static HttpServer server;
+
+    private MetricsServer() {
+    }
+
+    /**
+     * Starts the endpoint and enables the MetricsRegistry. Does nothing if it is
+     * already running.
+     *
+     * @param port the local port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public static synchronized void start(int port) throws IOException {
+        if (server != null) {
+            return;
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = MetricsRegistry.getInstance().scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        MetricsRegistry.getInstance().enable();
+        log.info("METRICS: serving http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    /**
+     * Stops the endpoint. The registry keeps its values.
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package sadilek.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The performance of one page load or filter application, captured in the
+ * browser by the PerformanceMonitor.
+ *
+ * A full page load has the Navigation Timing milestones (ttfb,
+ * domContentLoaded, load), the largest contentful paint (lcp) where the browser
+ * reports it and the transfer size and count of the document and its
+ * resources. A filter application that does not reload the page has its
+ * duration and the resources it loaded. Chromium browsers add the CDP
+ * Performance.getMetrics values prefixed with "cdp.". Times are in
+ * milliseconds, sizes in bytes.
+ */
+public class PageTiming {
+    private final String pageType;
+    private final String url;
+    private final Map<String, Double> metrics;
+
+    /**
+     * Constructs a PageTiming.
+     *
+     * @param pageType the page type the budgets are defined for, e.g. "parfum"
+     * @param url      the URL of the page
+     * @param metrics  the metric values by name
+     */
+    public PageTiming(String pageType, String url, Map<String, Double> metrics) {
+        this.pageType = pageType;
+        this.url = url;
+        this.metrics = Collections.unmodifiableMap(new LinkedHashMap<>(metrics));
+    }
+
+    public String getPageType() {
+        return pageType;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the metric values by name, in capture order
+     */
+    public Map<String, Double> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param name the metric name, e.g. "lcp"
+     * @return the value or null if it was not captured
+     */
+    public Double get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * Formats a metric value without fractions of milliseconds or bytes.
+     *
+     * @param value the value
+     * @return the formatted value
+     */
+    public static String format(double value) {
+        return value == Math.rint(value) || Math.abs(value) >= 100 ? String.valueOf(Math.round(value))
+                : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(pageType).append(" ").append(url).append(":");
+        for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+            text.append(" ").append(metric.getKey()).append("=").append(format(metric.getValue()));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,262 @@
+package sadilek.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chromium.HasCdp;
+
+/**
+ * Captures the web performance of the pages the tests open and checks it
+ * against budgets.
+ *
+ * The page objects report every page load and filter application. Each capture
+ * reads the Navigation and Resource Timing of the page, the largest contentful
+ * paint and, in Chromium browsers, the CDP Performance.getMetrics values (see
+ * PageTiming). The captures are recorded into the TestCaseState of the test
+ * until the test checks them against the budgets, and every capture is
+ * appended to a trend file so that the values can be compared across builds.
+ *
+ * Budgets are maximum values keyed by page type and metric, e.g.
+ * "parfum.lcp=4000" or "product.transferSize=3000000"; the page type "all"
+ * applies to every page.
+ *
+ * Capturing is a no-op until the monitor is configured, and outside of a test
+ * (e.g. while a session is warmed up), so the page objects can report to it
+ * unconditionally. The monitor is a singleton because all threads of a suite
+ * share the trend file.
+ */
+public class PerformanceMonitor {
+    public static final String TREND_HEADER = "build,timestamp,caseId,pageType,url,metric,value";
+
+    private static final PerformanceMonitor INSTANCE = new PerformanceMonitor();
+
+    /*
+     * a full page load waits for the load event, reports its navigation timing and
+     * waits briefly for the buffered largest contentful paint entries; a filter
+     * application (since >= 0 and no reload in between) reports the time and the
+     * resources since it started
+     */
+    private static final String CAPTURE_SCRIPT = "var since = arguments[0], done = arguments[arguments.length - 1];"
+            + "var soft = since >= 0 && since <= performance.now();"
+            + "function collect() { var now = performance.now(), result = {}, transfer = 0;"
+            + "  var resources = performance.getEntriesByType('resource').filter(function (r) {"
+            + "    return !soft || r.startTime >= since; });"
+            + "  resources.forEach(function (r) { transfer += r.transferSize || 0; });"
+            + "  if (soft) { result.duration = now - since; } else {"
+            + "    var nav = performance.getEntriesByType('navigation')[0];"
+            + "    if (nav) { result.ttfb = nav.responseStart; result.domContentLoaded = nav.domContentLoadedEventEnd;"
+            + "      result.load = nav.loadEventEnd; transfer += nav.transferSize || 0; } }"
+            + "  result.transferSize = transfer; result.resourceCount = resources.length;"
+            + "  if (soft) { done(result); return; }"
+            + "  try { new PerformanceObserver(function (list) { var entries = list.getEntries();"
+            + "    result.lcp = entries[entries.length - 1].startTime;"
+            + "  }).observe({type: 'largest-contentful-paint', buffered: true}); } catch (e) {}"
+            + "  setTimeout(function () { done(result); }, 50); }"
+            + "if (soft || document.readyState === 'complete') { collect(); } else {"
+            + "  window.addEventListener('load', function () { setTimeout(collect, 0); }); }";
+
+    private Logger log = LogManager.getLogger(PerformanceMonitor.class);
+
+    private volatile boolean enabled = false;
+    private Properties budgets = new Properties();
+    private File trendFile;
+    private String buildNumber;
+
+    private PerformanceMonitor() {
+    }
+
+    /**
+     * Returns the monitor shared by all threads of the suite.
+     *
+     * @return the PerformanceMonitor singleton
+     */
+    public static PerformanceMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Enables capturing.
+     *
+     * @param budgets     the maximum values by "pageType.metric"
+     * @param trendFile   the CSV file every capture is appended to, null for no
+     *                    trend data
+     * @param buildNumber the build the captures belong to
+     */
+    public synchronized void configure(Properties budgets, File trendFile, String buildNumber) {
+        this.budgets = budgets;
+        this.trendFile = trendFile;
+        this.buildNumber = buildNumber;
+        this.enabled = true;
+        log.info("PERFORMANCE: capturing page timings with " + budgets.size() + " budgets");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Marks the start of a filter application, so that its capture covers only
+     * what happened after it.
+     *
+     * @param testCase the state of the test, null outside of a test
+     * @param driver   the driver of the test
+     * @return the mark to pass to capture, -1 if capturing is off
+     */
+    public double mark(TestCaseState testCase, WebDriver driver) {
+        if (!enabled || testCase == null) {
+            return -1;
+        }
+        try {
+            Object now = ((JavascriptExecutor) driver).executeScript("return performance.now();");
+            return now instanceof Number ? ((Number) now).doubleValue() : -1;
+        } catch (WebDriverException e) {
+            log.warn("PERFORMANCE: could not mark the page: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Captures the performance of the page that was just loaded.
+     *
+     * @param testCase the state of the test to record the timing into, null
+     *                 outside of a test
+     * @param driver   the driver of the test
+     * @param pageType the page type the budgets are defined for, e.g. "landing"
+     */
+    public void capture(TestCaseState testCase, WebDriver driver, String pageType) {
+        capture(testCase, driver, pageType, -1);
+    }
+
+    /**
+     * Captures the performance of the current page. Errors are logged and never
+     * fail the test.
+     *
+     * @param testCase the state of the test to record the timing into, null
+     *                 outside of a test
+     * @param driver   the driver of the test
+     * @param pageType the page type the budgets are defined for
+     * @param since    the mark of a filter application, -1 for a page load
+     */
+    public void capture(TestCaseState testCase, WebDriver driver, String pageType, double since) {
+        if (!enabled || testCase == null) {
+            return;
+        }
+
+        String caseId = testCase.getCaseId();
+        StepEvent step = StepEvent.start(caseId, "PerformanceMonitor.capture", pageType);
+        Throwable error = null;
+        try {
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            Object result = ((JavascriptExecutor) driver).executeAsyncScript(CAPTURE_SCRIPT, since);
+            if (result instanceof Map) {
+                addNumbers(metrics, "", (Map<?, ?>) result);
+            }
+            addCdpMetrics(driver, metrics);
+
+            PageTiming timing = new PageTiming(pageType, driver.getCurrentUrl(), metrics);
+            testCase.addTiming(timing);
+            appendTrend(caseId, timing);
+            log.info("PERFORMANCE: " + timing);
+        } catch (WebDriverException e) {
+            error = e;
+            log.warn("PERFORMANCE: could not capture the " + pageType + " page: " + e.getMessage());
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /**
+     * Checks timings against the budgets.
+     *
+     * @param checked the timings to check
+     * @return one message per exceeded budget, empty if all are met
+     */
+    public List<String> checkBudgets(List<PageTiming> checked) {
+        List<String> violations = new ArrayList<>();
+        for (PageTiming timing : checked) {
+            for (Map.Entry<String, Double> metric : timing.getMetrics().entrySet()) {
+                String budget = budgets.getProperty(timing.getPageType() + "." + metric.getKey(),
+                        budgets.getProperty("all." + metric.getKey()));
+                if (budget != null && metric.getValue() > Double.parseDouble(budget.trim())) {
+                    violations.add(timing.getPageType() + " " + metric.getKey() + " "
+                            + PageTiming.format(metric.getValue()) + " exceeds the budget of " + budget.trim() + " ("
+                            + timing.getUrl() + ")");
+                }
+            }
+        }
+        return violations;
+    }
+
+    /* Chromium only: the CDP metrics of the page, e.g. the JS heap size and the layout count */
+    private void addCdpMetrics(WebDriver driver, Map<String, Double> metrics) {
+        if (!(driver instanceof HasCdp)) {
+            return;
+        }
+        HasCdp cdp = (HasCdp) driver;
+        cdp.executeCdpCommand("Performance.enable", Collections.emptyMap());
+        Object list = cdp.executeCdpCommand("Performance.getMetrics", Collections.emptyMap()).get("metrics");
+        if (!(list instanceof List)) {
+            return;
+        }
+        for (Object entry : (List<?>) list) {
+            if (entry instanceof Map && ((Map<?, ?>) entry).get("value") instanceof Number) {
+                Map<?, ?> metric = (Map<?, ?>) entry;
+                metrics.put("cdp." + metric.get("name"), ((Number) metric.get("value")).doubleValue());
+            }
+        }
+    }
+
+    private static void addNumbers(Map<String, Double> metrics, String prefix, Map<?, ?> values) {
+        for (Map.Entry<?, ?> value : values.entrySet()) {
+            if (value.getValue() instanceof Number) {
+                metrics.put(prefix + value.getKey(), ((Number) value.getValue()).doubleValue());
+            }
+        }
+    }
+
+    /* one line per metric, so that a metric can be followed across builds with any CSV tool */
+    private synchronized void appendTrend(String caseId, PageTiming timing) {
+        if (trendFile == null) {
+            return;
+        }
+
+        boolean writeHeader = !trendFile.exists();
+        if (trendFile.getParentFile() != null) {
+            trendFile.getParentFile().mkdirs();
+        }
+        long timestamp = System.currentTimeMillis();
+        try (PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(new FileOutputStream(trendFile, true), StandardCharsets.UTF_8))) {
+            if (writeHeader) {
+                writer.println(TREND_HEADER);
+            }
+            for (Map.Entry<String, Double> metric : timing.getMetrics().entrySet()) {
+                writer.println(quote(buildNumber) + "," + timestamp + "," + quote(caseId) + ","
+                        + quote(timing.getPageType()) + "," + quote(timing.getUrl()) + "," + quote(metric.getKey())
+                        + "," + PageTiming.format(metric.getValue()));
+            }
+        } catch (IOException e) {
+            log.error("PERFORMANCE: could not write to " + trendFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /* quote a field since case ids and URLs can contain commas */
+    private static String quote(String value) {
+        return "\"" + (value == null ? "" : value.replace("\"", "\"\"")) + "\"";
+    }
+}
@@ -0,0 +1,73 @@
+package sadilek.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a framework step, e.g. setting a filter, fetching
+ * a product page or taking a screenshot. Only costs a timestamp when no
+ * recording is running. The duration is also reported to the MetricsRegistry.
+ */
+@Name("sadilek.Step")
+@Label("Framework Step")
+@Category("Selenium Framework")
+@Description("A page object or report step")
+@StackTrace(false)
+public class StepEvent extends Event {
+    @Label("Test Case")
+    String testCase;
+
+    @Label("Step")
+    String step;
+
+    @Label("Detail")
+    String detail;
+
+    @Label("Outcome")
+    String outcome;
+
+    /* not recorded, used to report the step to the MetricsRegistry */
+    transient String name;
+    transient long startNanos;
+
+    /**
+     * Starts timing a step.
+     *
+     * @param testCase the id of the test case the step works for, null outside
+     *                 of a test
+     * @param step     the step, e.g. "ParfumPage.setFilter"
+     * @param detail   what the step works on, e.g. the facet, may be null
+     * @return the started event
+     */
+    public static StepEvent start(String testCase, String step, String detail) {
+        StepEvent event = new StepEvent();
+        event.name = step;
+        event.startNanos = System.nanoTime();
+        if (event.isEnabled()) {
+            event.step = step;
+            event.detail = detail;
+            event.testCase = testCase;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the step, reports it to the MetricsRegistry and commits the event if a
+     * recording is running.
+     *
+     * @param error the error the step failed with, null if it succeeded
+     */
+    public void finish(Throwable error) {
+        end();
+        if (shouldCommit()) {
+            this.outcome = error == null ? "ok" : error.getClass().getSimpleName();
+            commit();
+        }
+        MetricsRegistry.getInstance().observeStep(name, System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,50 @@
+package sadilek.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of a test case that page objects and monitors record into: the id
+ * of the case the test is working on and the page timings captured for it.
+ *
+ * The state is handed to the page objects by the test, so a page object or a
+ * background task reports to the test it works for no matter which thread it
+ * runs on.
+ */
+public class TestCaseState {
+    private volatile String caseId;
+    private final List<PageTiming> timings = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @return the id of the test case the test is working on, null before the
+     *         test started
+     */
+    public String getCaseId() {
+        return caseId;
+    }
+
+    /**
+     * @param caseId the id of the test case the test starts working on, e.g. the
+     *               next case of a trie group
+     */
+    public void setCaseId(String caseId) {
+        this.caseId = caseId;
+    }
+
+    /**
+     * @param timing a page timing captured for the test
+     */
+    public void addTiming(PageTiming timing) {
+        timings.add(timing);
+    }
+
+    /**
+     * @return the page timings captured for the test so far
+     */
+    public List<PageTiming> getTimings() {
+        synchronized (timings) {
+            return Collections.unmodifiableList(new ArrayList<>(timings));
+        }
+    }
+}
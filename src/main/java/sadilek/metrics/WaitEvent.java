@@ -0,0 +1,75 @@
+package sadilek.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for a WebDriverWait of a page object. Only costs a
+ * timestamp when no recording is running.
+ */
+@Name("sadilek.Wait")
+@Label("Wait")
+@Category("Selenium Framework")
+@Description("A WebDriverWait issued by a page object")
+@StackTrace(false)
+public class WaitEvent extends Event {
+    @Label("Test Case")
+    String testCase;
+
+    @Label("Condition")
+    String condition;
+
+    @Label("Target")
+    String target;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    /* not recorded, used to report the wait to the ConcurrencyController and MetricsRegistry */
+    transient String name;
+    transient long startNanos;
+
+    /**
+     * Starts timing a wait.
+     *
+     * @param testCase  the id of the test case the wait works for, null outside
+     *                  of a test
+     * @param condition the wait method, e.g. "waitForElementLocated"
+     * @param target    the locator or facet waited for, may be null
+     * @return the started event
+     */
+    public static WaitEvent start(String testCase, String condition, String target) {
+        WaitEvent event = new WaitEvent();
+        event.name = condition;
+        event.startNanos = System.nanoTime();
+        if (event.isEnabled()) {
+            event.condition = condition;
+            event.target = target;
+            event.testCase = testCase;
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the wait, reports it to the MetricsRegistry and commits the event if a
+     * recording is running.
+     *
+     * @param timedOut whether the wait timed out
+     * @return the duration of the wait in millis
+     */
+    public long finish(boolean timedOut) {
+        end();
+        if (shouldCommit()) {
+            this.timedOut = timedOut;
+            commit();
+        }
+        long nanos = System.nanoTime() - startNanos;
+        MetricsRegistry.getInstance().observeWait(name, nanos, timedOut);
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,157 @@
+package sadilek.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.events.WebDriverListener;
+
+/**
+ * Times every WebDriver command of a browser session and attributes it to the
+ * page-object method that issued it.
+ *
+ * Registered with an EventFiringDecorator around the raw driver. A session is
+ * only used by one thread at a time, so the listener keeps no locks; the
+ * metrics of the current test are swapped in with setMetrics.
+ *
+ * Every command is timed, but finding the calling page-object method walks
+ * the stack, so it is only done for every n-th command. The stats by caller
+ * are a sample, the stats by command and the totals are complete.
+ */
+public class WireCallListener implements WebDriverListener {
+    /* calls that are answered locally and do not cause a round trip */
+    private static final Set<String> LOCAL_CALLS = new HashSet<>(Arrays.asList("equals", "hashCode", "toString",
+            "getWrappedDriver", "getWrappedElement", "manage", "navigate", "switchTo", "timeouts", "window",
+            "getCapabilities", "getSessionId"));
+
+    private volatile CommandMetrics metrics;
+    private final Deque<Call> calls = new ArrayDeque<>();
+    private final int callerSample;
+    private long commands = 0;
+
+    /**
+     * Constructs a WireCallListener that finds the caller of every command.
+     */
+    public WireCallListener() {
+        this(1);
+    }
+
+    /**
+     * Constructs a WireCallListener that finds the caller of every n-th command.
+     *
+     * @param callerSample n, 1 to find the caller of every command
+     */
+    public WireCallListener(int callerSample) {
+        this.callerSample = Math.max(1, callerSample);
+    }
+
+    /**
+     * Sets the metrics the following commands are recorded in, e.g. a new one
+     * per test case. Commands still in flight are dropped.
+     *
+     * @param metrics the metrics to record in, null to stop recording
+     */
+    public void setMetrics(CommandMetrics metrics) {
+        this.metrics = metrics;
+        calls.clear();
+    }
+
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void beforeAnyCall(Object target, Method method, Object[] args) {
+        if (metrics == null || LOCAL_CALLS.contains(method.getName())) {
+            return;
+        }
+        String caller = commands++ % callerSample == 0 ? getCaller() : null;
+        calls.push(new Call(method, getCommand(target, method), caller, System.nanoTime()));
+    }
+
+    @Override
+    public void afterAnyCall(Object target, Method method, Object[] args, Object result) {
+        finish(method);
+    }
+
+    @Override
+    public void onError(Object target, Method method, Object[] args, InvocationTargetException e) {
+        /* failed commands, e.g. a findElement that found nothing, cost a round trip as well */
+        finish(method);
+    }
+
+    private void finish(Method method) {
+        CommandMetrics current = metrics;
+        if (current == null || LOCAL_CALLS.contains(method.getName())) {
+            return;
+        }
+        /* a command that started before the metrics were set has no call to finish */
+        Call call = calls.peek();
+        if (call == null || !call.method.equals(method)) {
+            return;
+        }
+        calls.pop();
+        current.record(call.command, call.caller, System.nanoTime() - call.start);
+    }
+
+    /* name a command after its receiver, e.g. driver.findElement or element.getText */
+    private static String getCommand(Object target, Method method) {
+        String receiver;
+        if (target instanceof WebElement) {
+            receiver = "element";
+        } else if (target instanceof WebDriver) {
+            receiver = "driver";
+        } else {
+            receiver = method.getDeclaringClass().getSimpleName().toLowerCase();
+        }
+        return receiver + "." + method.getName();
+    }
+
+    /*
+     * find the page-object method that issued the command. Waits and helpers of
+     * the AbstractComponent are attributed to the page object calling them, calls
+     * made directly by a test to the test method.
+     */
+    private static String getCaller() {
+        StackTraceElement fallback = null;
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            String className = frame.getClassName();
+            if (!className.startsWith("sadilek.") || className.startsWith("sadilek.metrics.")) {
+                continue;
+            }
+            if (className.startsWith("sadilek.pageobjects.")) {
+                return toCaller(frame);
+            }
+            if (fallback == null && !className.startsWith("sadilek.abstractcomponents.")) {
+                fallback = frame;
+            }
+        }
+        return fallback != null ? toCaller(fallback) : "unknown";
+    }
+
+    private static String toCaller(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+    }
+
+    /* a command in flight */
+    private static class Call {
+        private final Method method;
+        private final String command;
+        private final String caller;
+        private final long start;
+
+        private Call(Method method, String command, String caller, long start) {
+            this.method = method;
+            this.command = command;
+            this.caller = caller;
+            this.start = start;
+        }
+    }
+}
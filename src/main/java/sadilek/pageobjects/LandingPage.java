@@ -9,10 +9,12 @@ import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.FindBy;
-import org.openqa.selenium.support.PageFactory;
 
 import sadilek.abstractcomponents.AbstractComponent;
+import sadilek.abstractcomponents.PageElements;
 import sadilek.exceptions.ElementInteractionException;
+import sadilek.metrics.MetricsRegistry;
+import sadilek.metrics.StepEvent;
 
 /**
  * LandingPage represents the landing page of Douglas.de using Page Object
@@ -44,8 +46,8 @@ public class LandingPage extends AbstractComponent {
         this.timeoutInSeconds = timeoutInSeconds;
         this.retries = retries;
 
-        /* init the Page Factory WebElements */
-        PageFactory.initElements(driver, this);
+        /* bind the @FindBy WebElements, the locators are read once per class */
+        PageElements.initElements(driver, this);
     }
 
     @FindBy(css = ".modal-overlay__display")
@@ -73,7 +75,16 @@ public class LandingPage extends AbstractComponent {
      *                                     and the modal is still not found.
      */
     public void handleModalPopup() {
-        handleModalPopup(this.retries);
+        StepEvent step = StepEvent.start(getCaseId(), "LandingPage.handleModalPopup", null);
+        Throwable error = null;
+        try {
+            handleModalPopup(this.retries);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            step.finish(error);
+        }
     }
 
     /**
@@ -105,6 +116,7 @@ public class LandingPage extends AbstractComponent {
                     "HANDLEMODALPOPUP: known exception thrown (likely ACCESS DENIED by Douglas) retrying method recursively. Retries left: #"
                             + retries);
             refreshPage();
+            MetricsRegistry.getInstance().countRetry("handleModalPopup");
             handleModalPopup(localRetries - 1);
         }
 
@@ -143,17 +155,19 @@ public class LandingPage extends AbstractComponent {
              * simulate a mouse moving to the link to click the button. Otherwise we might
              * see an overlay blocking the test
              */
-            actionMoveToElementAndClick(parfumLink);
+            navigate("gotoParfumPage", () -> actionMoveToElementAndClick(parfumLink));
 
             /*
              * move to another element to prevent the main nav Parfum dropdown remaining
              * visible and blocking interaction with the facets underneath
              */
             actionMoveToElement(douglasHeader);
+            capturePerformance("parfum");
         } catch (TimeoutException | ElementInteractionException | NoSuchElementException
                 | StaleElementReferenceException | ElementNotInteractableException e) {
             log.warn("GOTO PARFUMAGE: known exception caught, retrying method recursively. Retries left: #" + retries);
             refreshPage();
+            MetricsRegistry.getInstance().countRetry("gotoParfumPage");
             gotoParfumPage(localRetries - 1);
 
             if (localRetries <= 0) {
@@ -162,7 +176,9 @@ public class LandingPage extends AbstractComponent {
             }
         }
 
-        return new ParfumPage(driver, timeoutInSeconds, retries);
+        ParfumPage parfumPage = new ParfumPage(driver, timeoutInSeconds, retries);
+        parfumPage.setTestCase(getTestCase());
+        return parfumPage;
     }
 
     /**
@@ -171,6 +187,7 @@ public class LandingPage extends AbstractComponent {
      * @param url the URL of the landing page
      */
     public void gotoPage(String url) {
-        driver.get(url);
+        navigate("gotoPage", () -> driver.get(url));
+        capturePerformance("landing");
     }
 }
@@ -1,16 +1,25 @@
 package sadilek.pageobjects;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
+import org.jsoup.Connection;
 import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.openqa.selenium.By;
+import org.openqa.selenium.Cookie;
 import org.openqa.selenium.ElementNotInteractableException;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchElementException;
@@ -18,12 +27,24 @@ import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WindowType;
 import org.openqa.selenium.support.FindBy;
-import org.openqa.selenium.support.PageFactory;
 import org.testng.Assert;
 
 import sadilek.abstractcomponents.AbstractComponent;
+import sadilek.abstractcomponents.PageElements;
 import sadilek.exceptions.ElementInteractionException;
+import sadilek.exceptions.FacetMismatchError;
+import sadilek.exceptions.SiteBlockedException;
+import sadilek.helpers.Constants.TestData;
+import sadilek.helpers.SiteGuard;
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.MetricsRegistry;
+import sadilek.metrics.StepEvent;
+import sadilek.verification.FacetRuleEngine;
+import sadilek.verification.ProductDetails;
+import sadilek.verification.ProductMismatch;
+import sadilek.verification.VerificationLedger;
 
 /**
  * ParfumPage represents the parfum page of Douglas.de using Page Object
@@ -43,6 +64,24 @@ public class ParfumPage extends AbstractComponent {
     private Logger log = LogManager.getLogger(ParfumPage.class);
     private int retries;
 
+    /* in soft verification mode mismatches are collected instead of asserted */
+    private boolean softVerification = false;
+    private List<ProductMismatch> mismatches = new ArrayList<>();
+
+    /* with a ledger the product pages are fetched over HTTP with conditional requests */
+    private VerificationLedger ledger;
+    private Map<String, String> httpCookies;
+    private String userAgent;
+
+    /* with product tabs the product pages load in background tabs ahead of the verification */
+    private int productTabs = 0;
+    private ProductTabPool<ProductDetails> tabPool;
+
+    /* with a ledger and product tabs the requests of the scheduled product pages run ahead as background tasks */
+    private ExecutorService ledgerFetcher;
+    private final Deque<String> ledgerScheduled = new ArrayDeque<>();
+    private final Map<String, Future<Connection.Response>> ledgerFetches = new HashMap<>();
+
     /**
      * ParfumPage constructor
      * 
@@ -55,7 +94,7 @@ public class ParfumPage extends AbstractComponent {
         this.driver = driver;
         this.retries = retries;
 
-        PageFactory.initElements(driver, this);
+        PageElements.initElements(driver, this);
     }
 
     @FindBy(css = ".facet-option__checkbox")
@@ -137,144 +176,145 @@ public class ParfumPage extends AbstractComponent {
     }
 
     /**
-     * Asserts that the 'Produktart' attribute of a given product WebElement matches
-     * the expected facet.
-     *
-     * @param product        The WebElement representing the product whose
-     *                       'Produktart' attribute is to be checked.
-     * @param expected       The expected 'Produktart' value for the product.
-     * @param productPageUrl The URL of the product page, included in the assertion
-     *                       message for debugging purposes.
+     * Sets the filter for a facet identified by its test data key. Used when the
+     * facets are applied one by one in a generic order, e.g. when walking the
+     * test cases as a prefix tree.
+     * 
+     * @param testDataKey one of the TestData constants, e.g. TestData.MARKE
+     * @param facet       the entry to set in the filter
+     * @throws ElementInteractionException the exception to be propagated
      */
-    public void assertEqualsProduktart(WebElement product, String expected, String productPageUrl) {
-        if (!isEmptyString(expected)) {
-            String normalizedActual = getProduktart(product).toLowerCase();
-            String normalizedExpected = expected.toLowerCase();
-
-            Assert.assertEquals(normalizedActual, normalizedExpected, "produktart mismatch- " + productPageUrl);
+    public void setFilter(String testDataKey, String facet) throws ElementInteractionException {
+        switch (testDataKey) {
+            case TestData.PRODUKTART:
+                setFilterProdukart(facet);
+                break;
+            case TestData.MARKE:
+                setFilterMarke(facet);
+                break;
+            case TestData.HIGHLIGHT:
+                setFilterHighlight(facet);
+                break;
+            case TestData.GESCHENKFUR:
+                setFilterGeschenkFur(facet);
+                break;
+            case TestData.FURWEN:
+                setFilterFurWen(facet);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown facet: " + testDataKey);
         }
     }
 
     /**
-     * Asserts that the 'Marke' attribute of a given product WebElement matches the
-     * expected facet.
+     * Removes a selected facet by clicking its tag underneath the filter area.
+     * Retries recursively after a page refresh in case of flaky interactions.
      * 
-     * @param product        The WebElement representing the product whose
-     *                       'Produktart' attribute is to be checked.
-     * @param facet          The expected 'Produktart' value for the product.
-     * @param productPageUrl The URL of the product page, included in the assertion
-     *                       message for debugging purposes.
+     * @param facet the facet to remove
+     * @throws ElementInteractionException if the facet could not be removed
      */
-    public void assertEqualsMarke(WebElement product, String facet, String productPageUrl) {
-        String normalizedActual = getMarke(product).toLowerCase();
-        String normalizedExpected = facet.toLowerCase();
+    public void removeFilter(String facet) throws ElementInteractionException {
+        removeFilter(facet, retries);
+    }
+
+    private void removeFilter(String facet, int localRetries) throws ElementInteractionException {
+        if (isEmptyString(facet)) {
+            return;
+        }
+
+        log.info("removing filter " + facet);
+        try {
+            driver.findElements(By.cssSelector(".selected-facets a"))
+                    .stream()
+                    .filter(tag -> tag.getText().equalsIgnoreCase(facet))
+                    .findFirst()
+                    .ifPresent(WebElement::click);
 
-        if (!isEmptyString(facet)) {
-            Assert.assertEquals(normalizedActual, normalizedExpected,
-                    "marke mismatch - " + productPageUrl);
+            waitForFilterToBeDisabled(facet);
+        } catch (TimeoutException | NoSuchElementException | StaleElementReferenceException
+                | ElementNotInteractableException e) {
+            if (localRetries <= 0) {
+                throw new ElementInteractionException("REMOVE FILTER ERROR! " + facet + " " + e.getMessage(), e);
+            }
+
+            log.warn("REMOVE FILTER: exception caught, retrying to remove filter " + facet
+                    + " (recursively) Retries left: #" + localRetries);
+            refreshPage();
+            MetricsRegistry.getInstance().countRetry("removeFilter");
+            removeFilter(facet, localRetries - 1);
         }
     }
 
     /**
-     * Asserts that the 'Geschenk Für' attribute of a product on the given webpage
-     * matches the expected value.
-     *
-     * @param document       The Jsoup Document object containing the parsed HTML of
-     *                       the product page.
-     * @param expected       The expected 'Geschenk Für' value to be compared with.
-     * @param productPageUrl The URL of the product page, included in the assertion
-     *                       message for debugging.
+     * Verifies a product against all facets of a test case using the details
+     * read from its product page, see getProductDetails.
+     * 
+     * @param engine         the engine holding the facet rules
+     * @param facetNames     the facet map of the test case
+     * @param tile           the snapshot of the product tile, see getTileSnapshot
+     * @param details        the product page details, may be null if the engine
+     *                       does not need them
+     * @param productPageUrl the URL of the product page
      */
-    public void assertEqualsGeschenkFur(Document document, String expected, String productPageUrl) {
-        if (!isEmptyString(expected)) {
-
-            String normalizedActual = getGeschenkFur(document).toLowerCase();
-            String normalizedExpected = expected.toLowerCase();
-
-            if (!normalizedActual.contains(normalizedExpected)) {
-                Assert.assertEquals(normalizedActual, normalizedExpected, "geschenk fur mismatch - " + productPageUrl);
-            }
+    public void verifyProduct(FacetRuleEngine engine, Map<String, String> facetNames, Element tile,
+            ProductDetails details, String productPageUrl) {
+        for (ProductMismatch mismatch : engine.verify(facetNames, tile, details, productPageUrl)) {
+            reportMismatch(mismatch.getFacet(), mismatch.getExpected(), mismatch.getActual(), productPageUrl,
+                    mismatch.getFacet() + " mismatch - " + productPageUrl, mismatch.isDeterministic());
         }
     }
 
     /**
-     * Asserts that the "highlight" attribute of a product matches the expected
-     * value. We handle the NEU, SALE, and LIMITIERT highlight values.
-     *
-     * @param product        The WebElement representing the product whose
-     *                       "highlight" attribute is to be checked.
-     * @param highlight      The expected highlight value to be compared with the
-     *                       actual value.
-     * @param document       The Jsoup Document object containing the parsed HTML of
-     *                       the product page.
-     *                       Used specifically when the highlight is "Limitiert".
-     * @param productPageUrl The URL of the product page; this will be included in
-     *                       the assertion
-     *                       message to provide context in case of test failure.
-     */
-    public void assertEqualsHighlight(WebElement product, String highlight, Document document, String productPageUrl) {
-        if (!isEmptyString(highlight)) {
-
-            String normalizedExpected = highlight.toLowerCase();
-
-            /* handle the LIMITIERT highlight */
-            if (highlight.equalsIgnoreCase("Limitiert")) {
-                String normalizedActual = document.select(".product-details__flags").text().toLowerCase();
-
-                /* assert the right highlight is being displayed */
-                if (!normalizedActual.contains(normalizedExpected)) {
-                    Assert.assertEquals(normalizedActual, normalizedExpected,
-                            "highlights mismatch - " + productPageUrl);
-                }
-                /* handle the NEU and SALE highlight (which are found in the JSOUP document) */
-            } else {
-                /*
-                 * Get the list of available highlights as a string from our JSoup DOM document
-                 * so that we can check if it contains our expected highlight value.
-                 */
-                String normalizedHighlights = getHighlights(product).toLowerCase();
+     * Switches to soft verification. verifyProduct then collects every
+     * mismatching product instead of failing on the first one, and
+     * assertNoMismatches reports them all at once.
+     */
+    public void enableSoftVerification() {
+        this.softVerification = true;
+        this.mismatches.clear();
+    }
 
-                /*
-                 * SALE can also be replaced by text like
-                 * "-19% ZUM UVP." We are just going to check that the distinct class name is
-                 * available in the DOM.
-                 * 
-                 * if the highlights string does not contain the expected highlight then assert
-                 * equals to report it.
-                 */
-                if (normalizedExpected.equals("sale")) {
-                    if (!isSaleHighlightDisplayed(product)) {
-                        Assert.assertEquals(normalizedHighlights, normalizedExpected,
-                                "highlights mismatch - " + productPageUrl);
-                    }
-                }
+    /**
+     * @return the mismatches collected so far in soft verification mode
+     */
+    public List<ProductMismatch> getMismatches() {
+        return mismatches;
+    }
 
-                /*
-                 * check that the NEU highlight is displayed.
-                 * Uses a classname to verify it is displayed
-                 * 
-                 * if the highlights string does not contain the expected highlight then assert
-                 * equals to report it.
-                 */
-                if (normalizedExpected.equals("neu")) {
-                    if (!isNeuHighlightDisplayed(product)) {
-                        Assert.assertEquals(normalizedHighlights, normalizedExpected,
-                                "highlights mismatch - " + productPageUrl);
-                    }
-                }
+    /**
+     * Fails the test with a single FacetMismatchError listing all mismatches
+     * collected in soft verification mode.
+     * 
+     * @throws FacetMismatchError if at least one product did not match
+     */
+    public void assertNoMismatches() throws FacetMismatchError {
+        if (!mismatches.isEmpty()) {
+            FacetMismatchError error = new FacetMismatchError(mismatches);
+            mismatches = new ArrayList<>();
+            throw error;
+        }
+    }
 
-                /*
-                 * if the highlights string does not contain the expected highlight then assert
-                 * equals to report it.
-                 */
-                /*
-                 * if (!normalizedHighlights.contains(normalizedExpected)) {
-                 * Assert.assertEquals(normalizedHighlights, normalizedExpected,
-                 * "highlights mismatch - " + productPageUrl);
-                 * }
-                 */
-            }
+    /**
+     * Reports a product that does not match the expected facet. Asserts right away
+     * in the default mode and collects the mismatch in soft verification mode.
+     * 
+     * @param facet          the facet that was checked
+     * @param expected       the normalized expected value
+     * @param actual         the normalized actual value
+     * @param productPageUrl the URL of the product page
+     * @param message        the assertion message
+     * @param deterministic  whether a rerun would find the same value
+     */
+    private void reportMismatch(String facet, String expected, String actual, String productPageUrl,
+            String message, boolean deterministic) {
+        if (softVerification) {
+            log.warn(message + " expected [" + expected + "] but found [" + actual + "]");
+            mismatches.add(new ProductMismatch(productPageUrl, facet, expected, actual, deterministic));
+            return;
         }
+
+        Assert.assertEquals(actual, expected, message);
     }
 
     /**
@@ -332,6 +372,22 @@ public class ParfumPage extends AbstractComponent {
      */
     private void setFilter(String filterName, String facet, WebDriver driver, Boolean withKeys, int localRetries)
             throws ElementInteractionException {
+        /* every attempt is a step of its own in the flight recording */
+        StepEvent step = StepEvent.start(getCaseId(), "ParfumPage.setFilter", filterName + "=" + facet);
+        Throwable error = null;
+        try {
+            applyFilter(filterName, facet, driver, withKeys, localRetries);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /* a single attempt of setFilter, retries by calling setFilter again */
+    private void applyFilter(String filterName, String facet, WebDriver driver, Boolean withKeys, int localRetries)
+            throws ElementInteractionException {
         /* check if the payload contains something otherwise return */
         if (isEmptyString(facet)) {
             log.info("\tempty facet, skipping filter");
@@ -346,6 +402,9 @@ public class ParfumPage extends AbstractComponent {
              */
             // waitForVisibilityOf(facets.get(0));
 
+            /* the filter updates the listing in place, so it is measured from here */
+            double filterStart = markPerformance();
+
             /* click to open the dropdown filter in the UI */
             openFilterDropdown(filterName, retries);
 
@@ -367,6 +426,7 @@ public class ParfumPage extends AbstractComponent {
             waitForFilterToBeEnabled(facet);
 
             closeFilter();
+            capturePerformance("filter", filterStart);
 
             /*
              * most of the flaky behavior on the Douglas site is caused by flaky dropdown
@@ -386,8 +446,9 @@ public class ParfumPage extends AbstractComponent {
             log.warn("SET FILTER: exception caught, retrying to set filter " + facet + " (recursively) Retries left: #"
                     + localRetries);
             // refresh page as well
-            driver.navigate().refresh();
+            refreshPage();
             // return the method again until we are out of retries
+            MetricsRegistry.getInstance().countRetry("setFilter");
             setFilter(filterName, facet, driver, withKeys, localRetries - 1);
 
         }
@@ -441,6 +502,7 @@ public class ParfumPage extends AbstractComponent {
                         + ") to be clickable.");
                 log.info("calling set open filter dropdown method recursively to try again. RETRIES LEFT #"
                         + localRetries);
+                MetricsRegistry.getInstance().countRetry("openFilterDropdown");
                 openFilterDropdown(filterName, localRetries - 1);
             }
         } catch (ElementInteractionException e) {
@@ -513,6 +575,7 @@ public class ParfumPage extends AbstractComponent {
             }
 
             log.warn("selectFilterOption: stale element exception caught. Recursively Retries left #" + localRetries);
+            MetricsRegistry.getInstance().countRetry("selectFilterOption");
             selectFilterOption(facet, localRetries - 1);
         }
     }
@@ -561,148 +624,339 @@ public class ParfumPage extends AbstractComponent {
     }
 
     /**
-     * Fetches and parses the HTML document of a given product page URL.
-     * Opens a new tab in the browser and then retrieves the page source (HTML
-     * content).
-     * The HTML is then parsed into a Jsoup Document object which is returned.
-     *
-     * @param productPageUrl The URL of the product page to fetch and parse.
-     * @return A Jsoup Document object containing the parsed HTML
+     * Keeps the product pages verified by getProductDetails in a ledger across
+     * runs, so that unchanged products are confirmed with a conditional request.
+     * 
+     * @param ledger the ledger, null to always open the product pages in the
+     *               browser
+     */
+    public void setVerificationLedger(VerificationLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Loads the product pages in a pool of background tabs instead of one new tab
+     * per product, see ProductTabPool. With a VerificationLedger the product pages
+     * are requested over HTTP by background tasks instead, this many ahead of the
+     * verification.
+     * 
+     * @param productTabs the number of background tabs or requests, 0 to load
+     *                    each product page when it is verified
+     */
+    public void setProductTabs(int productTabs) {
+        this.productTabs = productTabs;
+    }
+
+    /**
+     * Starts loading the product pages that will be fetched next, in the
+     * background tabs or, with a ledger, as background requests. Does nothing
+     * without product tabs.
+     * 
+     * @param engine          the engine the product details are read with
+     * @param productPageUrls the URLs in the order they will be fetched
+     */
+    public void scheduleProductPages(FacetRuleEngine engine, List<String> productPageUrls) {
+        if (productTabs <= 0) {
+            return;
+        }
+        if (ledger != null) {
+            for (String url : productPageUrls) {
+                if (url != null && !ledgerScheduled.contains(url) && !ledgerFetches.containsKey(url)) {
+                    ledgerScheduled.add(url);
+                }
+            }
+            fillLedgerFetches(engine);
+            return;
+        }
+        if (tabPool == null) {
+            long timeoutMillis = driver.manage().timeouts().getPageLoadTimeout().toMillis();
+            tabPool = new ProductTabPool<>(driver, productTabs, timeoutMillis, getTestCase(),
+                    engine::extractProductDetails);
+        }
+        tabPool.schedule(productPageUrls);
+    }
+
+    /**
+     * Closes the background tabs of the product pages, if any were opened, and
+     * cancels the background requests that were not taken.
+     */
+    public void closeProductTabs() {
+        if (tabPool != null) {
+            tabPool.close();
+            tabPool = null;
+        }
+        if (ledgerFetcher != null) {
+            ledgerFetcher.shutdownNow();
+            ledgerFetcher = null;
+        }
+        ledgerScheduled.clear();
+        ledgerFetches.clear();
+    }
+
+    /**
+     * Reads the details the product rules of an engine need from a product page.
+     * 
+     * Only the fragments the rules read are parsed, see
+     * FacetRuleEngine.extractProductDetails. Without a VerificationLedger the page
+     * is opened in a new browser tab or taken from the product tabs. With a ledger
+     * it is fetched over HTTP with the cookies of the browser session, by a
+     * background request if it was scheduled. A product
+     * verified in a previous run is requested with its stored validators; a 304
+     * answer or unchanged rule fragments confirm the stored details without
+     * reading the page again.
+     * 
+     * @param engine         the engine holding the facet rules
+     * @param product        the product tile, only used for messages, may be null
+     * @param productPageUrl the URL of the product page
+     * @return the details of the product page
      */
-    public Document getDocument(WebElement product, String productPageUrl) {
-        Document document = null;
+    public ProductDetails getProductDetails(FacetRuleEngine engine, WebElement product, String productPageUrl) {
+        if (ledger == null && tabPool != null) {
+            return takeProductDetails(product, productPageUrl);
+        }
+        if (ledger == null) {
+            return engine.extractProductDetails(getPageSource(productPageUrl, product));
+        }
+
+        StepEvent step = StepEvent.start(getCaseId(), "ParfumPage.getProductDetails", productPageUrl);
+        Throwable error = null;
+        try {
+            return fetchProductDetails(engine, product, productPageUrl);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /* conditional GET of a product page against the ledger entry */
+    private ProductDetails fetchProductDetails(FacetRuleEngine engine, WebElement product, String productPageUrl) {
+        VerificationLedger.Entry entry = ledger.get(productPageUrl);
+        boolean usable = entry != null && engine.covers(entry.getDetails());
+
+        try {
+            Connection.Response response = takeLedgerResponse(engine, productPageUrl);
+            if (response.statusCode() == 304 && usable) {
+                log.info("LEDGER: " + productPageUrl + " not modified");
+                ledger.confirmNotModified(productPageUrl, entry);
+                return entry.getDetails();
+            }
+            if (response.statusCode() != 200) {
+                Assert.fail("Failed to retrieve product page via HTTP request for " + getProductName(product) + " "
+                        + productPageUrl + ": HTTP " + response.statusCode());
+            }
+
+            ProductDetails details = engine.extractProductDetails(response.body());
+            String etag = response.header("ETag");
+            String lastModified = response.header("Last-Modified");
+            if (usable && details.getFingerprint().equals(entry.getDetails().getFingerprint())) {
+                log.info("LEDGER: " + productPageUrl + " unchanged by fingerprint");
+                ledger.confirmFingerprint(productPageUrl, entry, etag, lastModified);
+                return entry.getDetails();
+            }
+
+            ledger.record(productPageUrl, etag, lastModified, details);
+            return details;
+        } catch (IOException e) {
+            log.error("JSOUP: there was an error fetching the document: " + e.getMessage(), e);
+            Assert.fail("Failed to retrieve product page via HTTP request for " + getProductName(product) + " "
+                    + productPageUrl);
+            return null;
+        }
+    }
+
+    /*
+     * the response of a scheduled request, or of a request made now if the page
+     * was not scheduled. The next scheduled request takes its place.
+     */
+    private Connection.Response takeLedgerResponse(FacetRuleEngine engine, String productPageUrl)
+            throws IOException {
+        ledgerScheduled.remove(productPageUrl);
+        Future<Connection.Response> fetch = ledgerFetches.remove(productPageUrl);
+        Connection.Response response;
+        if (fetch == null) {
+            response = executeLedgerRequest(newLedgerRequest(engine, productPageUrl));
+        } else {
+            try {
+                response = fetch.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (RuntimeException) e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while fetching " + productPageUrl, e);
+            }
+        }
+        fillLedgerFetches(engine);
+        return response;
+    }
+
+    /* start the scheduled requests as background tasks, up to productTabs ahead of the verification */
+    private void fillLedgerFetches(FacetRuleEngine engine) {
+        while (ledgerFetches.size() < productTabs && !ledgerScheduled.isEmpty()) {
+            if (ledgerFetcher == null) {
+                ledgerFetcher = TaskExecutors.newTaskExecutor("ledger-fetch");
+            }
+            String url = ledgerScheduled.poll();
+            /* the request is built here, the cookies and user agent are read with the driver */
+            Connection connection = newLedgerRequest(engine, url);
+            ledgerFetches.put(url, ledgerFetcher.submit(() -> executeLedgerRequest(connection)));
+        }
+    }
+
+    /* the request of a product page, conditional if the ledger entry covers the rules of the engine */
+    private Connection newLedgerRequest(FacetRuleEngine engine, String productPageUrl) {
+        VerificationLedger.Entry entry = ledger.get(productPageUrl);
+        boolean usable = entry != null && engine.covers(entry.getDetails());
+
+        Connection connection = Jsoup.connect(productPageUrl)
+                .cookies(getHttpCookies())
+                .userAgent(getUserAgent())
+                .timeout((int) TimeUnit.SECONDS.toMillis(getTimeoutInSeconds()))
+                .ignoreHttpErrors(true);
+        if (usable && entry.getEtag() != null) {
+            connection.header("If-None-Match", entry.getEtag());
+        }
+        if (usable && entry.getLastModified() != null) {
+            connection.header("If-Modified-Since", entry.getLastModified());
+        }
+        return connection;
+    }
+
+    private static Connection.Response executeLedgerRequest(Connection connection) throws IOException {
+        SiteGuard guard = SiteGuard.getInstance();
+        guard.acquire("getProductDetails");
+        Connection.Response response = connection.execute();
+        guard.recordResponse("getProductDetails", SiteGuard.isDeniedStatus(response.statusCode()));
+        return response;
+    }
+
+    /* the cookies of the browser session for HTTP requests, read once per page object */
+    private Map<String, String> getHttpCookies() {
+        if (httpCookies == null) {
+            Map<String, String> cookies = new HashMap<>();
+            for (Cookie cookie : driver.manage().getCookies()) {
+                cookies.put(cookie.getName(), cookie.getValue());
+            }
+            httpCookies = cookies;
+        }
+        return httpCookies;
+    }
+
+    private String getUserAgent() {
+        if (userAgent == null) {
+            userAgent = (String) ((JavascriptExecutor) driver).executeScript("return navigator.userAgent;");
+        }
+        return userAgent;
+    }
+
+    /* fetch the product page as a framework step, product is only used for messages */
+    private String getPageSource(String productPageUrl, WebElement product) {
+        StepEvent step = StepEvent.start(getCaseId(), "ParfumPage.getPageSource", productPageUrl);
+        Throwable error = null;
+        try {
+            return fetchPageSource(product, productPageUrl);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /* open the product page in a new tab and return its page source */
+    private String fetchPageSource(WebElement product, String productPageUrl) {
+        AtomicReference<String> pageSource = new AtomicReference<>();
 
         try {
             /*
-             * get the Document object of the product page by opening a new tab in the
+             * get the page source of the product page by opening a new tab in the
              * browser instance, switching to it, and then closing it
              */
 
             // Store the original tab's handle
             String originalTab = driver.getWindowHandle();
 
-            // Open a new tab
-            ((JavascriptExecutor) driver).executeScript("window.open()");
-
-            // Switch to the new tab
-            ArrayList<String> tabs = new ArrayList<>(driver.getWindowHandles());
-            driver.switchTo().window(tabs.get(1)); // assumes only one new tab is opened
-
-            // Navigate to the URL in the new tab
-            driver.get(productPageUrl);
+            /* the tab is opened after the rate limiter so a blocked site leaves no tab behind */
+            navigate("getPageSource", () -> {
+                // Open a new tab and switch to it
+                driver.switchTo().newWindow(WindowType.TAB);
 
-            // Get the page source from the new tab
-            String pageSource = driver.getPageSource();
+                // Navigate to the URL in the new tab
+                driver.get(productPageUrl);
 
-            // Parse the page source with Jsoup to create a Document object
-            document = Jsoup.parse(pageSource);
+                // Get the page source from the new tab, the guard reads the title from it
+                pageSource.set(driver.getPageSource());
+                return SiteGuard.getTitle(pageSource.get());
+            });
+            capturePerformance("product");
 
             // Close the new tab and switch back to the original tab
             driver.close();
             driver.switchTo().window(originalTab);
+        } catch (SiteBlockedException e) {
+            throw e;
         } catch (Exception e) {
             log.error("JSOUP: there was an error fetching the document: " + e.getMessage(), e);
             if (productPageUrl != null) {
-                Assert.fail("Failed to retrieve product page via HTTP request for " + getBrand(product) + " "
+                Assert.fail("Failed to retrieve product page via HTTP request for " + getProductName(product) + " "
                         + productPageUrl);
             }
-            Assert.fail("Item" + " does not have a product URL" + getBrand(product));
+            Assert.fail("Item" + " does not have a product URL" + getProductName(product));
         }
 
-        /* Assert fail in case the document is null */
-        if (document == null) {
-            Assert.fail("Document is null for the product: " + getBrand(product) + " " + productPageUrl);
+        /* Assert fail in case the page source is null */
+        if (pageSource.get() == null) {
+            Assert.fail("Document is null for the product: " + getProductName(product) + " " + productPageUrl);
         }
 
-        return document;
+        return pageSource.get();
     }
 
-    /**
-     * Retrieves the highlights associated with a given product WebElement from the
-     * search listings page. This will grab the NEU and SALE elements.
-     * 
-     * Highlights are fetched as a list of text from elements matched by a specific
-     * CSS selector and then joined into a single string.
-     *
-     * @param product The WebElement representing the product whose highlights are
-     *                to be retrieved.
-     * @return A string containing the concatenated highlights, separated by spaces.
-     */
-    public String getHighlights(WebElement product) {
-        // SALE is always .eyecatcher--discount
-        // NEU is .eyecatcher--new
-        List<String> items = product.findElements(By.cssSelector(".eyecatcher span")).stream()
-                .map(WebElement::getText)
-                .collect(Collectors.toList());
-
-        return String.join(" ", items);
-    }
-
-    public boolean isSaleHighlightDisplayed(WebElement product) {
-        waitForVisibilityOf(product);
-        return product.findElement(By.cssSelector(".eyecatcher--discount")).isDisplayed();
-    }
-
-    public boolean isNeuHighlightDisplayed(WebElement product) {
-        waitForVisibilityOf(product);
-        return product.findElement(By.cssSelector(".eyecatcher--new")).isDisplayed();
-    }
+    /* take the product page from the background tabs, loading it there if it was not scheduled */
+    private ProductDetails takeProductDetails(WebElement product, String productPageUrl) {
+        if (productPageUrl == null) {
+            Assert.fail("Item" + " does not have a product URL" + getProductName(product));
+        }
 
-    /**
-     * Retrieves the Produktart associated with a given product
-     * WebElement.
-     *
-     * @param product The WebElement representing the product whose produktart is to
-     *                be retrieved.
-     * @return A string containing the product type, or an empty string if the
-     *         element is not found.
-     */
-    public String getProduktart(WebElement product) {
         try {
-            return product.findElement(By.className("category")).getText();
-        } catch (NoSuchElementException ex) {
-            log.warn("getProkuktart: can a produktart entry from this product element");
-            return "";
+            return tabPool.take(productPageUrl);
+        } catch (SiteBlockedException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("TABS: there was an error loading the product page: " + e.getMessage(), e);
+            Assert.fail("Failed to retrieve product page in a background tab for " + getProductName(product) + " "
+                    + productPageUrl);
+            return null;
         }
     }
 
     /**
-     * Retrieves the marke associated with a given product WebElement.
-     *
-     * @param product The WebElement representing the product whose produktart is to
-     *                be retrieved.
-     * @return A string containing the produktart, or an empty string if the
-     *         element is not found.
+     * Takes a snapshot of a product tile so that all its facets can be read with
+     * a single WebDriver call instead of one findElement per facet.
+     * 
+     * @param product the product tile WebElement
+     * @return the parsed tile HTML
      */
-    public String getMarke(WebElement product) {
-        try {
-            return product.findElement(By.className("top-brand")).getText();
-        } catch (NoSuchElementException ex) {
-            log.warn("getMarke: can a marke entry from this product element");
-            return "";
-        }
+    public Element getTileSnapshot(WebElement product) {
+        return Jsoup.parseBodyFragment(product.getAttribute("outerHTML")).body();
     }
 
     /**
-     * Retrieves the value of Geschenk Für from a parsed HTML document.
-     *
-     * @param document The Jsoup Document object containing the parsed HTML.
-     * @return A string containing the Geschenk Für value, "null" if the span is
-     *         empty, or "Not Found" if no relevant elements are present.
-     */
-    public String getGeschenkFur(Document document) {
-        Elements elements = document.select(".classification");
-        return elements.stream()
-                .filter(element -> {
-                    Element firstSpan = element.selectFirst("span:nth-child(1)");
-                    return firstSpan != null && firstSpan.text().equalsIgnoreCase("Geschenk Für");
-                })
-                .map(element -> {
-                    Element secondSpan = element.selectFirst("span:nth-child(2)");
-                    return secondSpan != null ? secondSpan.text() : "null";
-                })
-                .findFirst()
-                .orElse("Not Found");
+     * Takes a snapshot of the result page displayed in the browser, so that its
+     * tiles can be handled like those of the prefetched pages.
+     * 
+     * @return the displayed page as result page number 1
+     */
+    public ResultPage getResultPageSnapshot() {
+        String url = driver.getCurrentUrl();
+        return new ResultPage(1, url, Jsoup.parse(driver.getPageSource(), url));
     }
 
     /**
@@ -719,6 +973,7 @@ public class ParfumPage extends AbstractComponent {
             return product.findElement(By.cssSelector(".product-tile .link")).getAttribute("href");
         } catch (StaleElementReferenceException e) {
             log.info("getProductLink: caught stale element exception, retrying using generics #" + retries);
+            MetricsRegistry.getInstance().countRetry("getProductLink");
             return getProductLink(product, retries - 1);
         }
 
@@ -738,6 +993,35 @@ public class ParfumPage extends AbstractComponent {
         }
     }
 
+    /**
+     * Starts fetching the result pages after the current one in the background,
+     * so that they are ready when the products of the current page are verified.
+     * Uses the cookies and user agent of the browser session.
+     * 
+     * @param maxPages      the total number of pages to verify, including the
+     *                      current one
+     * @param prefetchPages how many pages may be fetched ahead of the
+     *                      verification
+     * @return the started pipeline, to be closed by the caller
+     */
+    public ResultPagePipeline prefetchResultPages(int maxPages, int prefetchPages) {
+        /* the cookies are read again, the filters may have changed them */
+        httpCookies = null;
+        Map<String, String> cookies = getHttpCookies();
+        String userAgent = getUserAgent();
+
+        List<WebElement> products = getProducts();
+        String firstLink = products.isEmpty() ? null : getProductLink(products.get(0), retries);
+
+        return new ResultPagePipeline(driver.getCurrentUrl(), firstLink, cookies, userAgent, maxPages, prefetchPages,
+                TimeUnit.SECONDS.toMillis(getTimeoutInSeconds()), getCaseId());
+    }
+
+    /* the product name for messages, empty for products that are not displayed */
+    private String getProductName(WebElement product) {
+        return product != null ? getBrand(product) : "";
+    }
+
     /* internal util method to grab the product name */
     private String getBrand(WebElement product) {
         return product.findElement(By.cssSelector(".name")).getText();
@@ -0,0 +1,318 @@
+package sadilek.pageobjects;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import sadilek.helpers.SiteGuard;
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.PerformanceMonitor;
+import sadilek.metrics.StepEvent;
+import sadilek.metrics.TestCaseState;
+
+/**
+ * Loads product pages in a few background tabs of the browser session at the
+ * same time, so that the network wait of the upcoming products overlaps with
+ * the verification of the current one.
+ *
+ * The tabs are opened by the result page with window.open and a tab name, and
+ * later navigations reuse the tab of the same name. Since the script runs in
+ * the result page, a navigation is issued without waiting for it to load. The
+ * page source of a product is collected once its tab finished loading: while
+ * the test waits for one product, every other tab that is done is collected
+ * and given the next scheduled product.
+ *
+ * A collected page source is read, e.g. into the product details, by a task of
+ * TaskExecutors, so that parsing it overlaps with the tabs that are still
+ * loading. The tasks only get the page source, the driver calls stay on the
+ * test thread.
+ *
+ * The pool is used from the test thread only, like the driver it wraps. It
+ * always returns to the result page tab, so the test keeps interacting with the
+ * product tiles between two calls.
+ */
+public class ProductTabPool<T> implements AutoCloseable {
+    private static final String TAB_NAME = "product-tab-";
+
+    /* navigates the named tab without waiting for it to load */
+    private static final String OPEN_SCRIPT = "window.open(arguments[0], arguments[1]);";
+
+    /* a tab is done once a document other than the previous one has loaded */
+    private static final String STATE_SCRIPT = "return document.readyState === 'complete' && location.href !== "
+            + "'about:blank' ? String(performance.timeOrigin) : null;";
+
+    private Logger log = LogManager.getLogger(ProductTabPool.class);
+
+    private final WebDriver driver;
+    private final int size;
+    private final long timeoutMillis;
+    private final String resultTab;
+    private final TestCaseState testCase;
+    private final Function<String, T> reader;
+    private final ExecutorService readers = TaskExecutors.newTaskExecutor("product-tab-reader");
+
+    /* the window handle and the last collected document of every tab opened so far */
+    private final List<String> handles = new ArrayList<>();
+    private final List<String> lastDocuments = new ArrayList<>();
+    /* the URL loading in a tab, null for an idle tab */
+    private final List<String> loading = new ArrayList<>();
+
+    private final Deque<String> scheduled = new ArrayDeque<>();
+    private final Map<String, Future<T>> collected = new HashMap<>();
+
+    /**
+     * Constructs a ProductTabPool for the current tab of a driver.
+     *
+     * @param driver        the driver of the test, showing the result page
+     * @param size          the number of background tabs
+     * @param timeoutMillis the time a product page may take to load
+     * @param testCase      the state of the test the product pages are loaded
+     *                      for, may be null
+     * @param reader        reads a collected page source, run as a background
+     *                      task
+     */
+    public ProductTabPool(WebDriver driver, int size, long timeoutMillis, TestCaseState testCase,
+            Function<String, T> reader) {
+        this.driver = driver;
+        this.size = Math.max(1, size);
+        this.timeoutMillis = timeoutMillis;
+        this.resultTab = driver.getWindowHandle();
+        this.testCase = testCase;
+        this.reader = reader;
+    }
+
+    /**
+     * Adds product pages that will be requested with take, in the order they are
+     * expected, and starts loading as many as there are idle tabs.
+     *
+     * @param productPageUrls the URLs of the product pages
+     */
+    public void schedule(List<String> productPageUrls) {
+        for (String url : productPageUrls) {
+            if (url != null && !scheduled.contains(url) && !loading.contains(url) && !collected.containsKey(url)) {
+                scheduled.add(url);
+            }
+        }
+        fill();
+    }
+
+    /**
+     * Returns what the reader read from a product page, loading the page first if
+     * it was not scheduled. Other tabs that finished loading meanwhile are
+     * collected and reused for the next scheduled pages.
+     *
+     * @param productPageUrl the URL of the product page
+     * @return the result of the reader
+     * @throws TimeoutException if the page did not load in time
+     */
+    public T take(String productPageUrl) {
+        Future<T> read = collected.remove(productPageUrl);
+        if (read != null) {
+            return await(read);
+        }
+
+        StepEvent step = StepEvent.start(getCaseId(), "ProductTabPool.take", productPageUrl);
+        Throwable error = null;
+        try {
+            if (!loading.contains(productPageUrl)) {
+                /* requested out of order, it takes the next free tab */
+                scheduled.remove(productPageUrl);
+                scheduled.addFirst(productPageUrl);
+                if (!loading.contains(null) && handles.size() >= size) {
+                    waitForAny();
+                }
+                fill();
+            }
+
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (!collected.containsKey(productPageUrl)) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException("product page did not load within " + timeoutMillis + "ms: "
+                            + productPageUrl);
+                }
+                waitForAny();
+                fill();
+            }
+            return await(collected.remove(productPageUrl));
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            switchToResultTab();
+            step.finish(error);
+        }
+    }
+
+    /**
+     * Closes the background tabs, drops the page sources that were not taken and
+     * returns to the result page.
+     */
+    @Override
+    public void close() {
+        readers.shutdownNow();
+        for (String handle : handles) {
+            try {
+                driver.switchTo().window(handle);
+                driver.close();
+            } catch (WebDriverException e) {
+                log.warn("TABS: could not close tab " + handle + ": " + e.getMessage());
+            }
+        }
+        handles.clear();
+        switchToResultTab();
+        if (!collected.isEmpty() || !scheduled.isEmpty()) {
+            log.info("TABS: closed with " + collected.size() + " unused and " + scheduled.size()
+                    + " unloaded product pages");
+        }
+    }
+
+    /* issue the next scheduled pages to the idle tabs, opening tabs up to the pool size */
+    private void fill() {
+        /* the tabs are navigated by scripts of the result page */
+        if (!scheduled.isEmpty()) {
+            driver.switchTo().window(resultTab);
+        }
+        while (!scheduled.isEmpty()) {
+            int tab = loading.indexOf(null);
+            if (tab < 0 && handles.size() >= size) {
+                return;
+            }
+            String url = scheduled.poll();
+            SiteGuard.getInstance().acquire("getPageSource");
+            if (tab < 0) {
+                open(url);
+            } else {
+                loading.set(tab, url);
+                ((JavascriptExecutor) driver).executeScript(OPEN_SCRIPT, url, TAB_NAME + tab);
+            }
+        }
+    }
+
+    /* open a new named tab from the result page, its handle is the one that was not there before */
+    private void open(String url) {
+        Set<String> before = new HashSet<>(driver.getWindowHandles());
+        ((JavascriptExecutor) driver).executeScript(OPEN_SCRIPT, url, TAB_NAME + handles.size());
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Set<String> after = new HashSet<>(driver.getWindowHandles());
+        after.removeAll(before);
+        while (after.isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("the browser did not open a tab for " + url);
+            }
+            sleep();
+            after = new HashSet<>(driver.getWindowHandles());
+            after.removeAll(before);
+        }
+
+        handles.add(after.iterator().next());
+        lastDocuments.add(null);
+        loading.add(url);
+        log.info("TABS: opened product tab " + handles.size() + " of " + size);
+    }
+
+    /* poll the loading tabs round robin and collect every one that is done */
+    private void waitForAny() {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            boolean anyLoading = false;
+            for (int tab = 0; tab < handles.size(); tab++) {
+                if (loading.get(tab) == null) {
+                    continue;
+                }
+                anyLoading = true;
+                if (collect(tab)) {
+                    return;
+                }
+            }
+            if (!anyLoading) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("no product page loaded within " + timeoutMillis + "ms: " + loading);
+            }
+            sleep();
+        }
+    }
+
+    /* collect the page source of a tab if its new document has loaded */
+    private boolean collect(int tab) {
+        driver.switchTo().window(handles.get(tab));
+        Object document = ((JavascriptExecutor) driver).executeScript(STATE_SCRIPT);
+        if (document == null || document.equals(lastDocuments.get(tab))) {
+            return false;
+        }
+
+        String url = loading.get(tab);
+        String pageSource = driver.getPageSource();
+        collected.put(url, readers.submit(() -> read(pageSource)));
+        PerformanceMonitor.getInstance().capture(testCase, driver, "product");
+        lastDocuments.set(tab, (String) document);
+        loading.set(tab, null);
+        return true;
+    }
+
+    /* the title check and the reader, run as a background task */
+    private T read(String pageSource) {
+        SiteGuard guard = SiteGuard.getInstance();
+        if (guard.isEnabled()) {
+            guard.recordResponse("getPageSource", SiteGuard.isDeniedTitle(SiteGuard.getTitle(pageSource)));
+        }
+        return reader.apply(pageSource);
+    }
+
+    /* the result of a read task, its exception is rethrown as is */
+    private T await(Future<T> read) {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("could not read a product page", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while reading a product page", e);
+        }
+    }
+
+    private String getCaseId() {
+        return testCase != null ? testCase.getCaseId() : null;
+    }
+
+    private void switchToResultTab() {
+        try {
+            driver.switchTo().window(resultTab);
+        } catch (WebDriverException e) {
+            log.error("TABS: could not return to the result page: " + e.getMessage(), e);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for a product tab", e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package sadilek.pageobjects;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * A snapshot of a result page of the parfum page fetched over HTTP. The
+ * product tiles can be verified with the FacetRuleEngine like the snapshots of
+ * the tiles in the browser.
+ */
+public class ResultPage {
+    private final int number;
+    private final String url;
+    private final Elements tiles;
+
+    /**
+     * Constructs a ResultPage from the parsed page.
+     *
+     * @param number   the page number, 1 for the first page
+     * @param url      the URL of the page
+     * @param document the parsed page, its base URI is used for the product links
+     */
+    public ResultPage(int number, String url, Document document) {
+        this.number = number;
+        this.url = url;
+        this.tiles = document.select(".product-tile");
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the product tiles of the page
+     */
+    public Elements getTiles() {
+        return tiles;
+    }
+
+    /**
+     * @param tile a product tile of the page
+     * @return the absolute URL of the product page, null if the tile has no link
+     */
+    public String getProductLink(Element tile) {
+        Element link = tile.selectFirst(".link");
+        return link != null ? link.absUrl("href") : null;
+    }
+
+    /**
+     * @param tile a product tile of the page
+     * @return true if the tile is marked as out of stock
+     */
+    public boolean isOutOfStock(Element tile) {
+        return tile.selectFirst(".out-of-stock") != null;
+    }
+
+    /**
+     * @return the product link of the first tile, used to detect a page that
+     *         repeats the previous one
+     */
+    String getFirstProductLink() {
+        return tiles.isEmpty() ? null : getProductLink(tiles.first());
+    }
+}
@@ -0,0 +1,206 @@
+package sadilek.pageobjects;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.HttpStatusException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import sadilek.exceptions.SiteBlockedException;
+import sadilek.helpers.SiteGuard;
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.StepEvent;
+
+/**
+ * Fetches the result pages after the first one in the background while the
+ * test verifies the products of the current page.
+ *
+ * A single producer task fetches the pages over HTTP with the cookies of the
+ * browser session and hands them over through a bounded queue, so it is never
+ * more than a few pages ahead of the verification. The pipeline ends at the
+ * page cap, at a page without products or at a page that repeats the previous
+ * one (the shop serves the last page for page numbers past the end).
+ */
+public class ResultPagePipeline implements AutoCloseable {
+    private static final Pattern PAGE_PARAMETER = Pattern.compile("([?&])page=\\d+");
+
+    /* marks the end of the pages in the queue */
+    private static final Object END = new Object();
+
+    private Logger log = LogManager.getLogger(ResultPagePipeline.class);
+    private final BlockingQueue<Object> queue;
+    private final ExecutorService producer;
+    private final long timeoutMillis;
+    private final String caseId;
+    private boolean ended = false;
+
+    /**
+     * Constructs the pipeline and starts fetching the second page.
+     *
+     * @param firstPageUrl  the URL of the first result page with the filters set
+     * @param firstLink     the product link of the first tile on the first page,
+     *                      may be null
+     * @param cookies       the cookies of the browser session
+     * @param userAgent     the user agent of the browser
+     * @param maxPages      the total number of pages to verify, including the
+     *                      first one
+     * @param prefetchPages how many pages may be fetched ahead of the
+     *                      verification
+     * @param timeoutMillis the timeout for fetching a single page
+     * @param caseId        the id of the test case the pages are fetched for,
+     *                      may be null
+     */
+    public ResultPagePipeline(String firstPageUrl, String firstLink, Map<String, String> cookies, String userAgent,
+            int maxPages, int prefetchPages, long timeoutMillis, String caseId) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, prefetchPages));
+        this.timeoutMillis = timeoutMillis;
+        this.caseId = caseId;
+        this.producer = TaskExecutors.newTaskExecutor("result-page-prefetch");
+        producer.execute(() -> produce(firstPageUrl, firstLink, cookies, userAgent, maxPages));
+    }
+
+    /**
+     * Returns the next prefetched page, waiting for it if the producer is still
+     * fetching it.
+     *
+     * @return the next page or null if there are no more pages
+     * @throws UncheckedIOException if fetching the page failed
+     * @throws RuntimeException     the error reading the page failed with
+     */
+    public ResultPage next() {
+        if (ended) {
+            return null;
+        }
+
+        Object next;
+        try {
+            next = queue.poll(timeoutMillis * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ended = true;
+            return null;
+        }
+
+        if (next == null) {
+            ended = true;
+            throw new UncheckedIOException(new IOException("PAGINATION: timed out waiting for the next result page"));
+        }
+        if (next instanceof IOException) {
+            ended = true;
+            throw new UncheckedIOException((IOException) next);
+        }
+        if (next instanceof RuntimeException) {
+            ended = true;
+            throw (RuntimeException) next;
+        }
+        if (next == END) {
+            ended = true;
+            return null;
+        }
+        return (ResultPage) next;
+    }
+
+    /**
+     * Stops the producer, e.g. when the product cap was reached.
+     */
+    @Override
+    public void close() {
+        producer.shutdownNow();
+    }
+
+    /* the producer loop, runs as the only task of the producer executor */
+    private void produce(String firstPageUrl, String firstLink, Map<String, String> cookies, String userAgent,
+            int maxPages) {
+        String previousFirstLink = firstLink;
+        Object last = END;
+        try {
+            for (int number = 2; number <= maxPages; number++) {
+                String url = getPageUrl(firstPageUrl, number);
+                ResultPage page = fetch(number, url, cookies, userAgent);
+
+                if (page.getTiles().isEmpty() || (page.getFirstProductLink() != null
+                        && page.getFirstProductLink().equals(previousFirstLink))) {
+                    log.info("PAGINATION: no more result pages after page " + (number - 1));
+                    break;
+                }
+
+                log.info("PAGINATION: prefetched page " + number + " with " + page.getTiles().size() + " products");
+                previousFirstLink = page.getFirstProductLink();
+                queue.put(page);
+            }
+        } catch (IOException e) {
+            log.error("PAGINATION: could not fetch a result page: " + e.getMessage(), e);
+            last = e;
+        } catch (SiteBlockedException e) {
+            log.error("PAGINATION: " + e.getMessage());
+            last = new IOException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            /* e.g. a page that could not be parsed, the consumer rethrows it */
+            log.error("PAGINATION: could not read a result page: " + e.getMessage(), e);
+            last = e;
+        } catch (InterruptedException e) {
+            /* closed by the consumer */
+            return;
+        }
+
+        try {
+            queue.put(last);
+        } catch (InterruptedException e) {
+            /* closed by the consumer */
+        }
+    }
+
+    private ResultPage fetch(int number, String url, Map<String, String> cookies, String userAgent)
+            throws IOException {
+        StepEvent step = StepEvent.start(caseId, "ResultPagePipeline.fetch", url);
+        Throwable error = null;
+        SiteGuard guard = SiteGuard.getInstance();
+        try {
+            guard.acquire("ResultPagePipeline.fetch");
+            Document document = Jsoup.connect(url)
+                    .cookies(cookies)
+                    .userAgent(userAgent)
+                    .timeout((int) timeoutMillis)
+                    .get();
+            guard.recordResponse("ResultPagePipeline.fetch", false);
+            return new ResultPage(number, url, document);
+        } catch (HttpStatusException e) {
+            guard.recordResponse("ResultPagePipeline.fetch", SiteGuard.isDeniedStatus(e.getStatusCode()));
+            error = e;
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /**
+     * Builds the URL of a result page by setting its page query parameter.
+     *
+     * @param url    the URL of any result page
+     * @param number the page number
+     * @return the URL of the page
+     */
+    static String getPageUrl(String url, int number) {
+        Matcher matcher = PAGE_PARAMETER.matcher(url);
+        if (matcher.find()) {
+            return matcher.replaceFirst(matcher.group(1) + "page=" + number);
+        }
+
+        int fragment = url.indexOf('#');
+        String base = fragment >= 0 ? url.substring(0, fragment) : url;
+        return base + (base.contains("?") ? "&" : "?") + "page=" + number;
+    }
+}
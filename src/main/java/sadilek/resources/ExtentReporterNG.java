@@ -5,14 +5,15 @@ import java.util.Date;
 
 import com.aventstack.extentreports.ExtentReports;
 import com.aventstack.extentreports.reporter.ExtentSparkReporter;
+import com.aventstack.extentreports.reporter.JsonFormatter;
 
 /**
  * ExtentReporterNG class provides utility for generating ExtentReports.
- * 
+ *
  * This class provides a method for initializing and configuring the
  * ExtentReports object. It also generates unique filenames for each report
  * based on the current date and time.
- * 
+ *
  */
 public class ExtentReporterNG {
     /**
@@ -21,6 +22,22 @@ public class ExtentReporterNG {
      * @return ExtentReports object ready for use.
      */
     public static ExtentReports getReportObject(String browserName) {
+        return getReportObject(browserName, null);
+    }
+
+    /**
+     * Returns an ExtentReports object configured with a unique file path.
+     *
+     * Next to the HTML report a JSON archive with the same name is written. The
+     * ReportMerger uses these archives to combine the reports of several shards
+     * into one report.
+     *
+     * @param browserName the browser used for the run
+     * @param label       appended to the file name to tell shards apart, may be
+     *                    null
+     * @return ExtentReports object ready for use.
+     */
+    public static ExtentReports getReportObject(String browserName, String label) {
         /*
          * Get the current date and time using SimpleDateFormat.
          * The date-time pattern "yyyy-MM-dd_HH-mm-ss" ensures that the filenames
@@ -29,30 +46,75 @@ public class ExtentReporterNG {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
         String currentDateAndTime = sdf.format(new Date());
 
-        /*
-         * the JENKINS build number. (Jenkins sets BUILD_NUMBER env var) Will use
-         * 'local' if run without Jenkins
-         */
-        String buildNumber = System.getenv("BUILD_NUMBER") != null ? System.getenv("BUILD_NUMBER") : "local";
-        String directory = browserName.trim().substring(0, 1).toLowerCase();
-
         /*
          * Create a unique filename by appending the current date and time to the
          * base file path.
          */
-        String path = System.getProperty("user.dir") + "/reports/" + directory + "/build_" + buildNumber + "/"
-                + currentDateAndTime
-                + ".html";
+        String path = getReportDirectory(browserName) + currentDateAndTime
+                + (label != null && !label.isEmpty() ? "_" + label : "");
 
         /* set up the Extent Report requirements */
-        ExtentSparkReporter reporter = new ExtentSparkReporter(path);
+        ExtentSparkReporter reporter = new ExtentSparkReporter(path + ".html");
         reporter.config().setReportName("Douglas Automation Results");
         reporter.config().setDocumentTitle("Test Results");
 
         /* set up and return the actual Extent Reports */
         ExtentReports extent = new ExtentReports();
-        extent.attachReporter(reporter);
+        extent.attachReporter(reporter, new JsonFormatter(path + ".json"));
         extent.setSystemInfo("Tester", "Lucas Sadilek");
         return extent;
     }
+
+    /**
+     * Returns the directory the reports, screenshots and timings of the current
+     * build are written to.
+     *
+     * @param browserName the browser used for the run
+     * @return the absolute directory path ending with a slash
+     */
+    public static String getReportDirectory(String browserName) {
+        return getReportDirectory(browserName, getBuildNumber());
+    }
+
+    /**
+     * Returns the report directory of a given build.
+     *
+     * @param browserName the browser used for the run
+     * @param buildNumber the build number
+     * @return the absolute directory path ending with a slash
+     */
+    public static String getReportDirectory(String browserName, String buildNumber) {
+        return System.getProperty("user.dir") + "/reports/" + getDirectoryName(browserName) + "/build_" + buildNumber
+                + "/";
+    }
+
+    /**
+     * Returns the directory the cross-browser report of a browser matrix run is
+     * merged into.
+     *
+     * @param buildNumber the build number
+     * @return the absolute directory path ending with a slash
+     */
+    public static String getMatrixDirectory(String buildNumber) {
+        return System.getProperty("user.dir") + "/reports/matrix/build_" + buildNumber + "/";
+    }
+
+    /**
+     * @return the build number of the current build
+     */
+    public static String getBuildNumber() {
+        /*
+         * the JENKINS build number. (Jenkins sets BUILD_NUMBER env var) Will use
+         * 'local' if run without Jenkins
+         */
+        return System.getenv("BUILD_NUMBER") != null ? System.getenv("BUILD_NUMBER") : "local";
+    }
+
+    /*
+     * the directory of a browser is named after the full browser property value,
+     * e.g. "chrome headless" and "chrome" get chrome-headless and chrome
+     */
+    private static String getDirectoryName(String browserName) {
+        return browserName.trim().toLowerCase().replaceAll("[^a-z0-9]+", "-");
+    }
 }
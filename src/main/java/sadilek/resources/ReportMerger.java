@@ -0,0 +1,139 @@
+package sadilek.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.aventstack.extentreports.ExtentReports;
+import com.aventstack.extentreports.reporter.ExtentSparkReporter;
+
+/**
+ * Combines the Extent reports and timing files of several shards into one
+ * report.
+ *
+ * Every shard writes a JSON archive next to its HTML report (see
+ * ExtentReporterNG) and a timings CSV (see TimingRecorder). The merger loads all
+ * archives of a build directory into a single ExtentReports instance and
+ * concatenates the timing files.
+ *
+ * A browser matrix run writes one build directory per browser; mergeBrowsers
+ * combines them into one cross-browser report in which the tests are
+ * categorized by their browser.
+ *
+ * Usage: ReportMerger &lt;build directory&gt;
+ */
+public class ReportMerger {
+    public static final String MERGED_REPORT = "merged.html";
+    public static final String MERGED_TIMINGS = "timings-merged.csv";
+
+    private static Logger log = LogManager.getLogger(ReportMerger.class);
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: ReportMerger <build directory>");
+            System.exit(1);
+        }
+        merge(new File(args[0]));
+    }
+
+    /**
+     * Merges the reports and timings found in a build directory.
+     *
+     * @param directory the build directory, e.g. reports/chrome-headless/build_42
+     * @throws IOException if an archive or timing file can not be read
+     */
+    public static void merge(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("not a report directory: " + directory);
+        }
+
+        mergeReports(directory, Collections.singletonList(directory));
+        mergeTimings(directory, Collections.singletonList(directory));
+    }
+
+    /**
+     * Merges the reports and timings of the browser directories of a browser
+     * matrix build into one cross-browser report.
+     *
+     * @param target      the directory to write the merged report to, e.g.
+     *                    reports/matrix/build_42
+     * @param directories the build directories of the browsers
+     * @throws IOException if an archive or timing file can not be read
+     */
+    public static void mergeBrowsers(File target, List<File> directories) throws IOException {
+        target.mkdirs();
+        mergeReports(target, directories);
+        mergeTimings(target, directories);
+    }
+
+    /* load every JSON archive into one Spark report, the wire metrics are no archives */
+    private static void mergeReports(File target, List<File> directories) throws IOException {
+        List<File> archives = new ArrayList<>();
+        for (File directory : directories) {
+            File[] found = directory.listFiles((dir, name) -> name.endsWith(".json")
+                    && !name.startsWith("wire-metrics"));
+            if (found != null) {
+                Arrays.sort(found);
+                archives.addAll(Arrays.asList(found));
+            }
+        }
+        if (archives.isEmpty()) {
+            log.warn("MERGE: no Extent JSON archives found in " + directories);
+            return;
+        }
+
+        ExtentSparkReporter reporter = new ExtentSparkReporter(new File(target, MERGED_REPORT));
+        reporter.config().setReportName("Douglas Automation Results (merged)");
+        reporter.config().setDocumentTitle("Test Results");
+
+        ExtentReports extent = new ExtentReports();
+        for (File archive : archives) {
+            log.info("MERGE: adding " + archive.getName());
+            extent.createDomainFromJsonArchive(archive);
+        }
+        extent.attachReporter(reporter);
+        extent.setSystemInfo("Tester", "Lucas Sadilek");
+        extent.setSystemInfo("Merged reports", String.valueOf(archives.size()));
+        extent.flush();
+
+        log.info("MERGE: wrote " + new File(target, MERGED_REPORT));
+    }
+
+    /* concatenate the timing files, keeping a single header line */
+    private static void mergeTimings(File target, List<File> directories) throws IOException {
+        List<File> timings = new ArrayList<>();
+        for (File directory : directories) {
+            File[] found = directory.listFiles((dir, name) -> name.startsWith(TimingRecorder.FILE_PREFIX)
+                    && name.endsWith(".csv") && !name.equals(MERGED_TIMINGS));
+            if (found != null) {
+                Arrays.sort(found);
+                timings.addAll(Arrays.asList(found));
+            }
+        }
+        if (timings.isEmpty()) {
+            return;
+        }
+
+        try (PrintWriter writer = new PrintWriter(new File(target, MERGED_TIMINGS), "UTF-8")) {
+            writer.println(TimingRecorder.HEADER);
+            for (File file : timings) {
+                List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (!line.equals(TimingRecorder.HEADER) && !line.isEmpty()) {
+                        writer.println(line);
+                    }
+                }
+            }
+        }
+        log.info("MERGE: wrote " + new File(target, MERGED_TIMINGS));
+    }
+}
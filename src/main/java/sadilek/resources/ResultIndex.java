@@ -0,0 +1,159 @@
+package sadilek.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A machine-readable index of the final outcome of every test case of a build,
+ * written next to the Extent report. A later run can rerun only the failed and
+ * skipped cases of a build with -DrerunFailedFrom=&lt;build number&gt;.
+ *
+ * Each shard writes its own file when the suite finishes; retried attempts are
+ * not indexed, only the outcome of the last attempt.
+ *
+ * Columns: case id, status (PASS, FAIL or SKIP), duration in millis and the
+ * first line of the failure message.
+ */
+public class ResultIndex {
+    public static final String FILE_PREFIX = "results";
+    public static final String HEADER = "caseId,status,durationMillis,failure";
+
+    private static Logger log = LogManager.getLogger(ResultIndex.class);
+
+    private final File file;
+    private final Map<String, String> lines = new LinkedHashMap<>();
+
+    /**
+     * Constructs a ResultIndex writing to the given report directory.
+     *
+     * @param directory the report directory of the run
+     * @param label     appended to the file name to tell shards apart, may be
+     *                  null
+     */
+    public ResultIndex(String directory, String label) {
+        this.file = new File(directory, FILE_PREFIX + (label != null && !label.isEmpty() ? "_" + label : "") + ".csv");
+    }
+
+    /**
+     * Records the final outcome of a test case, replacing an earlier outcome of
+     * the same case.
+     *
+     * @param caseId         the stable id of the test case
+     * @param status         PASS, FAIL or SKIP
+     * @param durationMillis the duration of the test in millis
+     * @param failure        the reason of a failure or skip, may be null
+     */
+    public synchronized void record(String caseId, String status, long durationMillis, Throwable failure) {
+        String message = "";
+        if (failure != null) {
+            message = failure.getMessage() != null ? failure.getMessage() : failure.getClass().getName();
+            message = message.trim().split("\\R", 2)[0];
+        }
+        lines.put(caseId, quote(caseId) + "," + status + "," + durationMillis + "," + quote(message));
+    }
+
+    /**
+     * Writes the index. The file is replaced at once, so a reader never sees a
+     * partial index.
+     */
+    public synchronized void save() {
+        if (lines.isEmpty()) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (PrintWriter writer = new PrintWriter(temp, "UTF-8")) {
+                writer.println(HEADER);
+                for (String line : lines.values()) {
+                    writer.println(line);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.info("RESULTS: wrote " + lines.size() + " test cases to " + file);
+        } catch (IOException e) {
+            log.error("RESULTS: could not write " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the ids of the test cases that failed or were skipped in a build,
+     * from the indexes of all its shards.
+     *
+     * @param directory the report directory of the build
+     * @return the ids in index order
+     * @throws IOException if the build has no result index
+     */
+    public static Set<String> readFailed(String directory) throws IOException {
+        File[] indexes = new File(directory).listFiles((dir, name) -> name.startsWith(FILE_PREFIX)
+                && name.endsWith(".csv"));
+        if (indexes == null || indexes.length == 0) {
+            throw new IOException("no result index found in " + directory);
+        }
+        Arrays.sort(indexes);
+
+        Set<String> failed = new LinkedHashSet<>();
+        for (File index : indexes) {
+            for (String line : Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)) {
+                List<String> fields = split(line);
+                if (line.equals(HEADER) || fields.size() < 2) {
+                    continue;
+                }
+                if (!"PASS".equals(fields.get(1))) {
+                    failed.add(fields.get(0));
+                }
+            }
+        }
+        return failed;
+    }
+
+    /* quote a field since case ids and messages can contain commas */
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /* split a line into its fields, unquoting the quoted ones */
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,195 @@
+package sadilek.resources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only journal of the test cases a run has completed, so that an
+ * interrupted run can be resumed with -Dresume=&lt;run id&gt; instead of
+ * starting over.
+ *
+ * Every final outcome is appended to reports/journal/&lt;run id&gt;/ and
+ * synced to disk before the next test starts, so a crash loses at most the
+ * test that was running. Retried attempts are not journaled. Each shard writes
+ * its own file; a resumed run reads all of them and appends to its own.
+ *
+ * Columns: case id, status (PASS, FAIL or SKIP), start time (epoch millis) and
+ * duration in millis.
+ */
+public class RunJournal {
+    public static final String FILE_PREFIX = "journal";
+    public static final String HEADER = "caseId,status,startMillis,durationMillis";
+
+    private static final Pattern RUN_ID = Pattern.compile("[\\w.-]+");
+    private static Logger log = LogManager.getLogger(RunJournal.class);
+
+    private final File file;
+
+    /**
+     * Constructs a RunJournal appending to the journal of a run.
+     *
+     * @param runId the id of the run
+     * @param label appended to the file name to tell shards apart, may be null
+     */
+    public RunJournal(String runId, String label) {
+        this.file = new File(getDirectory(runId),
+                FILE_PREFIX + (label != null && !label.isEmpty() ? "_" + label : "") + ".csv");
+    }
+
+    /**
+     * @return a new run id made of the current date and time
+     */
+    public static String newRunId() {
+        return new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+    }
+
+    /**
+     * Returns the journal directory of a run.
+     *
+     * @param runId the id of the run
+     * @return the directory under reports/journal
+     * @throws IllegalArgumentException if the run id is not a plain name
+     */
+    public static File getDirectory(String runId) {
+        if (!RUN_ID.matcher(runId).matches()) {
+            throw new IllegalArgumentException("invalid run id: " + runId);
+        }
+        return new File(System.getProperty("user.dir") + "/reports/journal/" + runId);
+    }
+
+    /**
+     * Appends the final outcome of a test case and syncs it to disk.
+     *
+     * @param caseId         the stable id of the test case
+     * @param status         PASS, FAIL or SKIP
+     * @param startMillis    the start time of the test in epoch millis
+     * @param durationMillis the duration of the test in millis
+     */
+    public synchronized void record(String caseId, String status, long startMillis, long durationMillis) {
+        boolean writeHeader = !file.exists();
+        file.getParentFile().mkdirs();
+
+        String line = (writeHeader ? HEADER + "\n" : "") + quote(caseId) + "," + status + "," + startMillis + ","
+                + durationMillis + "\n";
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(line.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            log.error("JOURNAL: could not write to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the test cases completed by a run from the journals of all its
+     * shards. A line cut off by a crash is ignored.
+     *
+     * @param runId the id of the run
+     * @return the last outcome of every completed case, in journal order
+     */
+    public static Map<String, Entry> readCompleted(String runId) {
+        Map<String, Entry> completed = new LinkedHashMap<>();
+        File[] journals = getDirectory(runId).listFiles((dir, name) -> name.startsWith(FILE_PREFIX)
+                && name.endsWith(".csv"));
+        if (journals == null) {
+            log.warn("JOURNAL: no journal found for run " + runId);
+            return completed;
+        }
+        Arrays.sort(journals);
+
+        for (File journal : journals) {
+            try {
+                for (String line : Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8)) {
+                    Entry entry = Entry.parse(line);
+                    if (entry != null) {
+                        completed.put(entry.getCaseId(), entry);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("JOURNAL: could not read " + journal + ": " + e.getMessage(), e);
+            }
+        }
+        return completed;
+    }
+
+    /* quote the case id since facet values can contain commas */
+    private static String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * A journaled test case outcome.
+     */
+    public static class Entry {
+        private final String caseId;
+        private final String status;
+        private final long startMillis;
+        private final long durationMillis;
+
+        private Entry(String caseId, String status, long startMillis, long durationMillis) {
+            this.caseId = caseId;
+            this.status = status;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getCaseId() {
+            return caseId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /* parse a journal line, null for the header and for incomplete lines */
+        private static Entry parse(String line) {
+            if (!line.startsWith("\"")) {
+                return null;
+            }
+
+            StringBuilder caseId = new StringBuilder();
+            int i = 1;
+            for (; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        caseId.append('"');
+                        i++;
+                        continue;
+                    }
+                    break;
+                }
+                caseId.append(c);
+            }
+
+            String[] fields = i + 2 <= line.length() ? line.substring(i + 2).split(",") : new String[0];
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(caseId.toString(), fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
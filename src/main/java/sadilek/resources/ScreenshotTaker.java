@@ -2,6 +2,12 @@ package sadilek.resources;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
@@ -10,11 +16,23 @@ import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.WebDriver;
 
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.StepEvent;
+
 /**
  * A util class that enables screenshots to be taken. Intended to be used from
  * within the Listeners class when a test case fails.
+ *
+ * The screenshot is taken on the test thread but written to disk in the
+ * background, so a failing test does not wait for the file. The Listeners wait
+ * for the pending writes and shut the writer down before the report is
+ * flushed.
  */
 public class ScreenshotTaker {
+    private static ExecutorService writer;
+    /* screenshots are only taken of failed tests, so the writes are kept until the report waits for them */
+    private static final List<Future<?>> pendingWrites = Collections.synchronizedList(new ArrayList<>());
+
     private WebDriver driver;
     private String browserName;
     private Logger log = LogManager.getLogger(ScreenshotTaker.class);
@@ -35,21 +53,29 @@ public class ScreenshotTaker {
      * @param testCase the name of the testcase to be used in the filename.
      */
     public String getScreenshot(String testCase) throws IOException {
+        StepEvent step = StepEvent.start(testCase, "ScreenshotTaker.getScreenshot", testCase);
+        Throwable error = null;
+        try {
+            return takeScreenshot(testCase);
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            step.finish(error);
+        }
+    }
+
+    /* take the screenshot and copy it into the report directory */
+    private String takeScreenshot(String testCase) throws IOException {
         log.info("DEBUG: getScreenshot called for " + testCase);
         TakesScreenshot ts = (TakesScreenshot) driver;
         if (ts == null)
             return "";
 
-        /*
-         * the JENKINS build number. (Jenkins sets BUILD_NUMBER env var) Will use
-         * 'local' if run without Jenkins
-         */
-        String buildNumber = System.getenv("BUILD_NUMBER") != null ? System.getenv("BUILD_NUMBER") : "local";
         long currentTimeMillis = System.currentTimeMillis();
-        String directory = browserName.substring(0, 1).toLowerCase();
 
         /* we need an absolute path for the file of the screenshot */
-        String screenshotPathForFile = "reports/" + directory + "/build_" + buildNumber + "/screenshots/"
+        String screenshotPathForFile = ExtentReporterNG.getReportDirectory(browserName) + "screenshots/"
                 + testCase
                 + "_"
                 + currentTimeMillis
@@ -62,12 +88,60 @@ public class ScreenshotTaker {
                 + currentTimeMillis
                 + ".png";
 
-        File source = ts.getScreenshotAs(OutputType.FILE);
+        byte[] screenshot = ts.getScreenshotAs(OutputType.BYTES);
         File file = new File(screenshotPathForFile);
-        FileUtils.copyFile(source, file);
+        pendingWrites.add(getWriter().submit(() -> {
+            try {
+                FileUtils.writeByteArrayToFile(file, screenshot);
+            } catch (IOException e) {
+                log.error("SCREENSHOT: could not write " + file + ": " + e.getMessage(), e);
+            }
+        }));
         return relativeScreenshotPath;
     }
 
+    private static synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = TaskExecutors.newTaskExecutor("screenshot-writer");
+        }
+        return writer;
+    }
+
+    /**
+     * Waits until all screenshots taken so far are written to disk.
+     */
+    public static void awaitWrites() {
+        List<Future<?>> writes;
+        synchronized (pendingWrites) {
+            writes = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                /* logged by the write itself */
+            }
+        }
+    }
+
+    /**
+     * Waits for the pending writes and shuts the writer down. A screenshot taken
+     * afterwards, e.g. in the next test of the suite, starts a new writer.
+     */
+    public static void shutdown() {
+        awaitWrites();
+        synchronized (ScreenshotTaker.class) {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
+        }
+    }
+
     public void setBrowser(String browserName) {
         this.browserName = browserName;
     }
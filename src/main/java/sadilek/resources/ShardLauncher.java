@@ -0,0 +1,195 @@
+package sadilek.resources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the regression suite as N local shard processes and merges their
+ * reports afterwards. Useful to test sharding on a single machine before
+ * spreading the shards over several Jenkins agents.
+ *
+ * The project is compiled once with "mvn test-compile" before the shards
+ * start, since shards compiling into the same target/classes would race each
+ * other. Each shard is then a separate "mvn surefire:test -Pregression
+ * -Dshard=i/N" process, which runs the compiled tests without going through the
+ * build lifecycle again. The shards share one build number, so they write into
+ * the same report directory, and every shard writes its surefire reports into
+ * a directory of its own.
+ *
+ * With the duration strategy the duration history is copied into the report
+ * directory before the shards start and the copy is passed to every shard as
+ * shardHistory, so that all shards partition by the same frozen durations.
+ *
+ * Usage: ShardLauncher &lt;shards&gt; [additional maven arguments]
+ * e.g. ShardLauncher 4 -Dbrowser="chrome headless" -DshardStrategy=duration
+ *
+ * With the browsers property set the shards run the browser matrix; the
+ * reports of every browser are merged and then combined into one
+ * cross-browser report.
+ */
+public class ShardLauncher {
+    private static Logger log = LogManager.getLogger(ShardLauncher.class);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: ShardLauncher <shards> [maven arguments]");
+            System.exit(1);
+        }
+
+        int shards = Integer.parseInt(args[0]);
+        List<String> mavenArgs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            mavenArgs.add(args[i]);
+        }
+
+        /* all shards share one build number so they write into one directory */
+        String buildNumber = System.getenv("BUILD_NUMBER") != null ? System.getenv("BUILD_NUMBER")
+                : "shards_" + new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        List<String> browsers = getBrowsers(mavenArgs);
+        String directory = browsers.size() > 1 ? ExtentReporterNG.getMatrixDirectory(buildNumber)
+                : ExtentReporterNG.getReportDirectory(browsers.get(0), buildNumber);
+        new File(directory).mkdirs();
+
+        /* compile once, the shards only run the tests */
+        List<String> compile = new ArrayList<>();
+        compile.add(getMaven());
+        compile.add("test-compile");
+        compile.add("-Pregression");
+        compile.addAll(mavenArgs);
+        ProcessBuilder compileBuilder = new ProcessBuilder(compile);
+        compileBuilder.redirectErrorStream(true);
+        compileBuilder.redirectOutput(new File(directory, "compile.log"));
+        log.info("SHARD LAUNCHER: compiling " + String.join(" ", compile));
+        if (compileBuilder.start().waitFor() != 0) {
+            log.error("SHARD LAUNCHER: the compilation failed, see " + new File(directory, "compile.log"));
+            System.exit(1);
+        }
+
+        /* the shards write to the duration history, so they partition by a frozen copy of it */
+        String shardHistory = null;
+        if ("duration".equalsIgnoreCase(getProperty(mavenArgs, "shardStrategy"))
+                && !hasProperty(mavenArgs, "shardHistory")) {
+            File history = new File(getProperty(mavenArgs, "durationHistory"));
+            if (history.isFile()) {
+                File snapshot = new File(directory, "durations-snapshot.properties");
+                Files.copy(history.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                shardHistory = snapshot.getPath();
+            } else {
+                log.warn("SHARD LAUNCHER: no duration history at " + history + ", the shards fall back to hash");
+            }
+        }
+
+        List<Process> processes = new ArrayList<>();
+        for (int shard = 1; shard <= shards; shard++) {
+            List<String> command = new ArrayList<>();
+            command.add(getMaven());
+            command.add("surefire:test");
+            command.add("-Pregression");
+            command.add("-Dshard=" + shard + "/" + shards);
+            command.add("-Dsurefire.reportsDirectory=target/surefire-reports/shard-" + shard + "-of-" + shards);
+            command.addAll(mavenArgs);
+            if (shardHistory != null) {
+                command.add("-DshardHistory=" + shardHistory);
+            }
+            /* the shards journal into one run so that it can be resumed as a whole */
+            if (!hasProperty(mavenArgs, "resume") && !hasProperty(mavenArgs, "runId")) {
+                command.add("-DrunId=" + buildNumber);
+            }
+
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.environment().put("BUILD_NUMBER", buildNumber);
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(new File(directory, "shard-" + shard + "-of-" + shards + ".log"));
+
+            log.info("SHARD LAUNCHER: starting " + String.join(" ", command));
+            processes.add(builder.start());
+        }
+
+        /* wait for every shard, failing shards do not stop the merge */
+        int failed = 0;
+        for (Process process : processes) {
+            if (process.waitFor() != 0) {
+                failed++;
+            }
+        }
+        log.info("SHARD LAUNCHER: " + shards + " shards finished, " + failed + " with failures");
+
+        if (browsers.size() > 1) {
+            List<File> directories = new ArrayList<>();
+            for (String browser : browsers) {
+                File browserDirectory = new File(ExtentReporterNG.getReportDirectory(browser, buildNumber));
+                if (browserDirectory.isDirectory()) {
+                    ReportMerger.merge(browserDirectory);
+                    directories.add(browserDirectory);
+                }
+            }
+            ReportMerger.mergeBrowsers(new File(directory), directories);
+        } else {
+            ReportMerger.merge(new File(directory));
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static String getMaven() {
+        return System.getProperty("os.name").toLowerCase().contains("win") ? "mvn.cmd" : "mvn";
+    }
+
+    private static boolean hasProperty(List<String> mavenArgs, String name) {
+        for (String arg : mavenArgs) {
+            if (arg.startsWith("-D" + name + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * the browsers decide the report directories. Take them from the browsers
+     * property and otherwise from the browser property like BaseTest does.
+     */
+    private static List<String> getBrowsers(List<String> mavenArgs) throws IOException {
+        List<String> browsers = new ArrayList<>();
+        String matrix = getProperty(mavenArgs, "browsers");
+        if (matrix != null) {
+            for (String browser : matrix.split(",")) {
+                if (!browser.trim().isEmpty() && !browsers.contains(browser.trim())) {
+                    browsers.add(browser.trim());
+                }
+            }
+        }
+        if (browsers.isEmpty()) {
+            browsers.add(getProperty(mavenArgs, "browser"));
+        }
+        return browsers;
+    }
+
+    /*
+     * take a property from the maven arguments and otherwise from the
+     * settings.properties file
+     */
+    private static String getProperty(List<String> mavenArgs, String name) throws IOException {
+        for (String arg : mavenArgs) {
+            if (arg.startsWith("-D" + name + "=")) {
+                return arg.substring(("-D" + name + "=").length()).replace("\"", "");
+            }
+        }
+
+        Properties properties = new Properties();
+        try (FileInputStream fis = new FileInputStream(
+                System.getProperty("user.dir") + "/src/main/java/sadilek/resources/settings.properties")) {
+            properties.load(fis);
+        }
+        return properties.getProperty(name);
+    }
+}
@@ -0,0 +1,67 @@
+package sadilek.resources;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes the duration and outcome of every test case to a CSV file in the
+ * report directory. Each shard writes its own file; the ReportMerger combines
+ * them.
+ *
+ * Columns: case id, status, start time (epoch millis), duration in millis and
+ * the browser startup time in millis (driver resolution and browser launch,
+ * which is not part of the test duration and 0 for reused sessions).
+ */
+public class TimingRecorder {
+    public static final String FILE_PREFIX = "timings";
+    public static final String HEADER = "caseId,status,startMillis,durationMillis,startupMillis";
+
+    private Logger log = LogManager.getLogger(TimingRecorder.class);
+    private final File file;
+
+    /**
+     * Constructs a TimingRecorder writing to the given report directory.
+     *
+     * @param directory the report directory of the run
+     * @param label     appended to the file name to tell shards apart, may be
+     *                  null
+     */
+    public TimingRecorder(String directory, String label) {
+        this.file = new File(directory, FILE_PREFIX + (label != null && !label.isEmpty() ? "_" + label : "") + ".csv");
+    }
+
+    /**
+     * Appends a finished test case.
+     *
+     * @param caseId         the stable id of the test case
+     * @param status         PASS, FAIL, SKIP or RETRY
+     * @param startMillis    the start time of the test in epoch millis
+     * @param durationMillis the duration of the test in millis
+     * @param startupMillis  the browser startup time before the test in millis
+     */
+    public synchronized void record(String caseId, String status, long startMillis, long durationMillis,
+            long startupMillis) {
+        boolean writeHeader = !file.exists();
+        file.getParentFile().mkdirs();
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file, true))) {
+            if (writeHeader) {
+                writer.println(HEADER);
+            }
+            writer.println(quote(caseId) + "," + status + "," + startMillis + "," + durationMillis + ","
+                    + startupMillis);
+        } catch (IOException e) {
+            log.error("TIMINGS: could not write to " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /* quote the case id since facet values can contain commas */
+    private String quote(String value) {
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,152 @@
+package sadilek.verification;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+
+/**
+ * Defines where and how a single facet is verified: the source the value is
+ * read from, a precompiled selector, the normalization and the matching
+ * strategy. Rules are loaded from the facet-rules.properties file by the
+ * FacetRuleEngine.
+ */
+public class FacetRule {
+
+    /* where the value of the facet is read from */
+    public enum Source {
+        TILE, PRODUCT
+    }
+
+    /* how the actual value is compared with the expected one */
+    public enum Match {
+        EQUALS, CONTAINS, PRESENT
+    }
+
+    private final String name;
+    private final String facet;
+    private final String when;
+    private final Source source;
+    private final String selector;
+    private final Evaluator evaluator;
+    private final boolean lowercase;
+    private final Match match;
+
+    /**
+     * Constructs a FacetRule and compiles its selector.
+     *
+     * @param name      the name of the rule in the rule file
+     * @param facet     the test data key the rule verifies
+     * @param when      the expected value the rule is limited to, null for any
+     * @param source    where the value is read from
+     * @param selector  the jsoup CSS selector of the element holding the value
+     * @param lowercase whether values are lowercased before matching
+     * @param match     the matching strategy
+     * @throws IllegalArgumentException if the selector cannot be parsed
+     */
+    public FacetRule(String name, String facet, String when, Source source, String selector, boolean lowercase,
+            Match match) {
+        this.name = name;
+        this.facet = facet;
+        this.when = when;
+        this.source = source;
+        this.selector = selector;
+        this.lowercase = lowercase;
+        this.match = match;
+
+        try {
+            this.evaluator = QueryParser.parse(selector);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("invalid selector for facet rule " + name + ": " + selector, e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getFacet() {
+        return facet;
+    }
+
+    public String getWhen() {
+        return when;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public String getSelector() {
+        return selector;
+    }
+
+    public Match getMatch() {
+        return match;
+    }
+
+    /**
+     * Reads the normalized value of the facet from a tile or product snapshot.
+     * Equals rules read the first matching element, the other rules the text of
+     * all matching elements.
+     *
+     * @param root the tile or product snapshot
+     * @return the normalized value, an empty string if no element matches
+     */
+    public String extract(Element root) {
+        String text;
+        if (match == Match.EQUALS) {
+            Element element = root.selectFirst(evaluator);
+            text = element == null ? "" : element.text();
+        } else {
+            Elements elements = root.select(evaluator);
+            text = elements.isEmpty() ? "" : elements.text();
+        }
+        return normalize(text);
+    }
+
+    /**
+     * @param root the tile or product snapshot
+     * @return all elements matching the selector
+     */
+    public Elements select(Element root) {
+        return root.select(evaluator);
+    }
+
+    /**
+     * Checks whether the element the rule points to exists in a snapshot.
+     *
+     * @param root the tile or product snapshot
+     * @return true if at least one element matches the selector
+     */
+    public boolean isPresent(Element root) {
+        return root.selectFirst(evaluator) != null;
+    }
+
+    /**
+     * Compares an extracted value with the expected value. Not used for present
+     * rules, which only check isPresent.
+     *
+     * @param actual   the normalized value read by extract
+     * @param expected the normalized expected value
+     * @return true if the values match
+     */
+    public boolean matches(String actual, String expected) {
+        return match == Match.CONTAINS ? actual.contains(expected) : actual.equals(expected);
+    }
+
+    /**
+     * @param value the raw value
+     * @return the value normalized the way this rule compares values
+     */
+    public String normalize(String value) {
+        String trimmed = value.trim();
+        return lowercase ? trimmed.toLowerCase() : trimmed;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + facet + (when != null ? "=" + when : "") + ", " + source.name().toLowerCase() + " "
+                + selector + ", " + match.name().toLowerCase() + ")";
+    }
+}
@@ -0,0 +1,377 @@
+package sadilek.verification;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import sadilek.verification.FacetRule.Match;
+import sadilek.verification.FacetRule.Source;
+
+/**
+ * Verifies products against the expected facets of a test case using the rules
+ * of a facet rule file.
+ *
+ * The rules are parsed and their selectors compiled once per file and JVM, so
+ * adding a facet or changing where it is read from only needs a new rule and
+ * no code. A product is verified in one pass over a snapshot of its tile and,
+ * only if a rule needs it, of the ProductDetails read from its product page.
+ */
+public class FacetRuleEngine {
+    /* the class a selector starts with, e.g. "classification" for ".classification > span" */
+    private static final Pattern ANCHOR_CLASS = Pattern.compile("^(?:[a-zA-Z][\\w-]*)?\\.([\\w-]+)");
+
+    private static Logger log = LogManager.getLogger(FacetRuleEngine.class);
+    private static Map<String, FacetRuleEngine> engines = new ConcurrentHashMap<>();
+
+    /* the rules of each facet, rules with a "when" value first */
+    private final Map<String, List<FacetRule>> rulesByFacet = new TreeMap<>();
+
+    /* the rules reading from the product page, in the order of their names */
+    private final List<FacetRule> productRules = new ArrayList<>();
+
+    /* the classes the product rules start at, null if a rule needs the whole page */
+    private Set<String> productAnchors = new HashSet<>();
+
+    /**
+     * Constructs a FacetRuleEngine from the rule properties.
+     *
+     * @param rules the rule.<name>.<key> properties
+     * @throws IllegalArgumentException if a rule is incomplete or invalid
+     */
+    public FacetRuleEngine(Properties rules) {
+        for (String key : new TreeSet<>(rules.stringPropertyNames())) {
+            if (key.startsWith("rule.") && key.endsWith(".facet")) {
+                add(parseRule(rules, key.substring("rule.".length(), key.length() - ".facet".length())));
+            }
+        }
+    }
+
+    /**
+     * Returns the engine for a rule file. The file is only read and compiled on
+     * the first call per path.
+     *
+     * @param path the path of the rule file
+     * @return the engine holding the compiled rules
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    public static FacetRuleEngine load(String path) {
+        return engines.computeIfAbsent(path, FacetRuleEngine::read);
+    }
+
+    /**
+     * Returns the rule that verifies a facet for an expected value. A rule whose
+     * "when" value equals the expected value takes precedence over a general one.
+     *
+     * @param facet    the test data key
+     * @param expected the expected value of the test case
+     * @return the rule or null if the facet is not verified for this value
+     */
+    public FacetRule getRule(String facet, String expected) {
+        List<FacetRule> rules = rulesByFacet.get(facet);
+        if (rules == null) {
+            return null;
+        }
+
+        for (FacetRule rule : rules) {
+            if (rule.getWhen() == null || rule.getWhen().equalsIgnoreCase(expected.trim())) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether verifying a test case needs the product page, so that it is
+     * only fetched when a rule reads from it.
+     *
+     * @param expected the facet map of the test case
+     * @return true if at least one applicable rule reads from the product page
+     */
+    public boolean needsProduct(Map<String, String> expected) {
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            if (isEmpty(entry.getValue())) {
+                continue;
+            }
+            FacetRule rule = getRule(entry.getKey(), entry.getValue());
+            if (rule != null && rule.getSource() == Source.PRODUCT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the values of all product rules from a product page, whatever the
+     * test case, so that the details can be verified against other cases and
+     * kept across runs.
+     *
+     * @param product the product page document
+     * @return the values by rule name and the fingerprint of their fragments
+     */
+    public ProductDetails extractProductDetails(Element product) {
+        Map<String, String> values = new HashMap<>();
+        for (FacetRule rule : productRules) {
+            if (rule.getMatch() == Match.PRESENT) {
+                values.put(rule.getName(), rule.isPresent(product) ? ProductDetails.PRESENT : "");
+            } else {
+                values.put(rule.getName(), rule.extract(product));
+            }
+        }
+        return new ProductDetails(values, getFingerprint(product));
+    }
+
+    /**
+     * Reads the values of all product rules from the HTML of a product page
+     * without building the tree of the whole page.
+     * 
+     * When every product rule starts at a class, e.g. ".classification > span",
+     * only the elements with these classes are cut out of the HTML by the
+     * FragmentScanner and parsed. Otherwise, or if the scanner cannot find the
+     * end of an element, the whole page is parsed.
+     *
+     * @param html the HTML of the product page
+     * @return the values by rule name and the fingerprint of their fragments
+     */
+    public ProductDetails extractProductDetails(String html) {
+        String fragments = productAnchors != null ? FragmentScanner.extract(html, productAnchors) : null;
+        if (fragments == null) {
+            return extractProductDetails(Jsoup.parse(html));
+        }
+        return extractProductDetails(Jsoup.parseBodyFragment(fragments).body());
+    }
+
+    /**
+     * Computes the fingerprint of the fragments the product rules read from. Two
+     * pages with the same fingerprint yield the same ProductDetails, whatever
+     * else changed on the page.
+     *
+     * @param product the product page document
+     * @return the SHA-256 of the rule names and the HTML of their elements, hex
+     *         encoded
+     */
+    public String getFingerprint(Element product) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        for (FacetRule rule : productRules) {
+            digest.update(rule.getName().getBytes(StandardCharsets.UTF_8));
+            for (Element element : rule.select(product)) {
+                digest.update((byte) 0);
+                digest.update(element.outerHtml().getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) '\n');
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Checks whether ProductDetails hold a value for every product rule, e.g.
+     * details stored before a rule was added do not.
+     *
+     * @param details the product details
+     * @return true if the details can be verified with the current rules
+     */
+    public boolean covers(ProductDetails details) {
+        for (FacetRule rule : productRules) {
+            if (details.get(rule.getName()) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verifies one product against all facets of a test case using the details
+     * read from its product page.
+     *
+     * @param expected   the facet map of the test case
+     * @param tile       the snapshot of the product tile
+     * @param details    the product page details, may be null if needsProduct
+     *                   is false
+     * @param productUrl the URL of the product page for reporting
+     * @return the mismatches, an empty list if the product matches
+     */
+    public List<ProductMismatch> verify(Map<String, String> expected, Element tile, ProductDetails details,
+            String productUrl) {
+        List<ProductMismatch> mismatches = Collections.emptyList();
+
+        for (List<FacetRule> rules : rulesByFacet.values()) {
+            String facet = rules.get(0).getFacet();
+            String value = expected.get(facet);
+            if (isEmpty(value)) {
+                continue;
+            }
+
+            FacetRule rule = getRule(facet, value);
+            if (rule == null) {
+                continue;
+            }
+
+            if (rule.getSource() == Source.TILE ? tile == null : details == null) {
+                throw new IllegalArgumentException("facet rule " + rule.getName() + " needs the product page of "
+                        + productUrl);
+            }
+
+            String normalizedExpected = rule.normalize(value);
+            String actual;
+            boolean matched;
+            if (rule.getSource() == Source.PRODUCT) {
+                String stored = details.get(rule.getName());
+                if (rule.getMatch() == Match.PRESENT) {
+                    matched = ProductDetails.PRESENT.equals(stored);
+                    actual = matched ? normalizedExpected : "";
+                } else {
+                    actual = stored == null ? "" : stored;
+                    matched = rule.matches(actual, normalizedExpected);
+                }
+            } else if (rule.getMatch() == Match.PRESENT) {
+                matched = rule.isPresent(tile);
+                actual = matched ? normalizedExpected : "";
+            } else {
+                actual = rule.extract(tile);
+                matched = rule.matches(actual, normalizedExpected);
+            }
+
+            if (!matched) {
+                if (mismatches.isEmpty()) {
+                    mismatches = new ArrayList<>();
+                }
+                /* an empty tile value means the tile was not rendered completely */
+                boolean deterministic = rule.getSource() == Source.PRODUCT || rule.getMatch() == Match.PRESENT
+                        || !actual.isEmpty();
+                mismatches.add(new ProductMismatch(productUrl, facet, normalizedExpected, actual, deterministic));
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * @return the number of rules loaded
+     */
+    public int size() {
+        int size = 0;
+        for (List<FacetRule> rules : rulesByFacet.values()) {
+            size += rules.size();
+        }
+        return size;
+    }
+
+    /* add a rule, keeping the rules with a "when" value before the general one */
+    private void add(FacetRule rule) {
+        List<FacetRule> rules = rulesByFacet.computeIfAbsent(rule.getFacet(), key -> new ArrayList<>());
+        if (rule.getSource() == Source.PRODUCT) {
+            productRules.add(rule);
+            addProductAnchor(rule);
+        }
+        if (rule.getWhen() != null) {
+            rules.add(0, rule);
+        } else {
+            rules.add(rule);
+        }
+    }
+
+    /*
+     * a rule needs the whole page if its selector does not start at a class, lists
+     * several selectors or continues with a sibling of the anchor element
+     */
+    private void addProductAnchor(FacetRule rule) {
+        String selector = rule.getSelector();
+        Matcher matcher = ANCHOR_CLASS.matcher(selector);
+        if (productAnchors == null || selector.contains(",") || !matcher.find()
+                || leavesAnchor(selector, matcher.end())) {
+            productAnchors = null;
+            return;
+        }
+        productAnchors.add(matcher.group(1));
+    }
+
+    /* whether the first combinator after the anchor is a sibling combinator */
+    private static boolean leavesAnchor(String selector, int from) {
+        int depth = 0;
+        int i = from;
+        for (; i < selector.length(); i++) {
+            char c = selector.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (depth == 0 && (Character.isWhitespace(c) || c == '>' || c == '+' || c == '~')) {
+                break;
+            }
+        }
+        String rest = selector.substring(i).trim();
+        return rest.startsWith("+") || rest.startsWith("~");
+    }
+
+    /* read and compile a rule file */
+    private static FacetRuleEngine read(String path) {
+        Properties rules = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8)) {
+            rules.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read the facet rules " + path, e);
+        }
+
+        FacetRuleEngine engine = new FacetRuleEngine(rules);
+        log.info("FACET RULES: loaded " + engine.size() + " rules from " + path);
+        return engine;
+    }
+
+    private static FacetRule parseRule(Properties rules, String name) {
+        String prefix = "rule." + name + ".";
+        String facet = rules.getProperty(prefix + "facet").trim();
+        String when = rules.getProperty(prefix + "when");
+        String source = rules.getProperty(prefix + "source", "tile").trim();
+        String selector = rules.getProperty(prefix + "selector");
+        String normalize = rules.getProperty(prefix + "normalize", "lowercase").trim();
+        String match = rules.getProperty(prefix + "match", "equals").trim();
+
+        if (isEmpty(selector)) {
+            throw new IllegalArgumentException("facet rule " + name + " has no selector");
+        }
+
+        try {
+            return new FacetRule(name, facet, isEmpty(when) ? null : when.trim(),
+                    Source.valueOf(source.toUpperCase()), selector.trim(), !normalize.equalsIgnoreCase("none"),
+                    Match.valueOf(match.toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid facet rule " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
@@ -0,0 +1,274 @@
+package sadilek.verification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cuts the elements with given classes out of a page's HTML without parsing the
+ * page, so that only these fragments have to be parsed into a tree.
+ *
+ * The scanner only looks at the places where a class name occurs in the HTML:
+ * it checks that the occurrence is in the class attribute of a start tag that
+ * is not inside a comment or a script, style or textarea element, and follows
+ * the nesting of the tag name to find the end tag. Elements inside a fragment
+ * that was already cut are not cut again.
+ *
+ * While following the nesting it skips quoted attribute values, comments and
+ * the bodies of script, style and textarea elements, so that a '>' or a tag
+ * name in them does not count. It is made for the server rendered pages of the
+ * shop, not as a general HTML parser: if an element is not closed the scan
+ * gives up and the caller has to parse the whole page.
+ */
+public class FragmentScanner {
+    private static final Pattern START_TAG = Pattern.compile(
+            "<([a-zA-Z][a-zA-Z0-9-]*)((?:\\s+[^\\s\"'>/=]+(?:\\s*=\\s*(?:\"[^\"]*\"|'[^']*'|[^\\s\"'>]+))?)*)\\s*(/?)>");
+    private static final Pattern CLASS_ATTRIBUTE = Pattern.compile(
+            "(?i)(?:^|\\s)class\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String[] RAW_TEXT_TAGS = { "script", "style", "textarea" };
+
+    private FragmentScanner() {
+    }
+
+    /**
+     * Returns the HTML of all elements that have at least one of the classes, in
+     * document order.
+     *
+     * @param html       the HTML of the page
+     * @param classNames the classes to look for
+     * @return the concatenated fragments, an empty string if none matched or
+     *         null if the end of a matched element could not be found
+     */
+    public static String extract(String html, Collection<String> classNames) {
+        /* the start tags that may carry one of the classes */
+        TreeSet<Integer> candidates = new TreeSet<>();
+        for (String className : classNames) {
+            for (int index = html.indexOf(className); index >= 0; index = html.indexOf(className, index + 1)) {
+                int tagStart = html.lastIndexOf('<', index);
+                if (tagStart >= 0) {
+                    candidates.add(tagStart);
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return "";
+        }
+
+        List<int[]> rawText = getRawTextRanges(html, candidates.last());
+        Matcher startTag = START_TAG.matcher(html);
+        StringBuilder fragments = new StringBuilder();
+        int cut = 0;
+        for (int position : candidates) {
+            if (position < cut || isInside(rawText, position)) {
+                continue;
+            }
+
+            startTag.region(position, html.length());
+            if (!startTag.lookingAt() || !hasClass(startTag.group(2), classNames)) {
+                continue;
+            }
+
+            int contentStart = startTag.end();
+            int end = startTag.group(3).isEmpty() ? findEnd(html, startTag.group(1), contentStart) : contentStart;
+            if (end < 0) {
+                return null;
+            }
+            fragments.append(html, position, end).append('\n');
+            cut = end;
+        }
+        return fragments.toString();
+    }
+
+    /* the ranges of the comments and of the script, style and textarea elements up to a position */
+    private static List<int[]> getRawTextRanges(String html, int until) {
+        List<int[]> ranges = new ArrayList<>();
+        int position = 0;
+        while ((position = html.indexOf('<', position)) >= 0 && position <= until) {
+            String end = null;
+            if (html.startsWith("<!--", position)) {
+                end = "-->";
+            } else {
+                String tag = getRawTextTag(html, position + 1);
+                if (tag != null) {
+                    end = "</" + tag;
+                }
+            }
+
+            if (end == null) {
+                position++;
+                continue;
+            }
+            int to = skipPast(html, end, position + 1);
+            ranges.add(new int[] { position, to });
+            position = to;
+        }
+        return ranges;
+    }
+
+    private static boolean isInside(List<int[]> ranges, int position) {
+        for (int[] range : ranges) {
+            if (position >= range[0] && position < range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * the position after the end tag closing an element, following nested
+     * elements of the same name. -1 if the element is not closed.
+     */
+    private static int findEnd(String html, String tag, int from) {
+        if (isVoid(tag)) {
+            return from;
+        }
+
+        int depth = 1;
+        int position = from;
+        while ((position = html.indexOf('<', position)) >= 0) {
+            if (html.startsWith("<!--", position)) {
+                int commentEnd = html.indexOf("-->", position + 4);
+                if (commentEnd < 0) {
+                    return -1;
+                }
+                position = commentEnd + 3;
+                continue;
+            }
+
+            boolean closing = html.startsWith("/", position + 1);
+            int nameStart = position + (closing ? 2 : 1);
+            if (nameStart >= html.length() || !Character.isLetter(html.charAt(nameStart))) {
+                /* a '<' in the text */
+                position++;
+                continue;
+            }
+
+            int tagEnd = findTagEnd(html, nameStart);
+            if (tagEnd < 0) {
+                return -1;
+            }
+            boolean selfClosing = html.charAt(tagEnd - 1) == '/';
+            if (html.regionMatches(true, nameStart, tag, 0, tag.length())
+                    && isNameEnd(html, nameStart + tag.length())) {
+                if (closing) {
+                    depth--;
+                } else if (!selfClosing) {
+                    depth++;
+                }
+                if (depth == 0) {
+                    return tagEnd + 1;
+                }
+            }
+            position = tagEnd + 1;
+
+            /* the body of a raw text element is not markup, continue at its end tag */
+            String rawText = closing || selfClosing ? null : getRawTextTag(html, nameStart);
+            if (rawText != null) {
+                position = indexOfIgnoreCase(html, "</" + rawText, position);
+                if (position < 0) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* the position of the '>' ending a tag, skipping quoted attribute values. -1 if there is none */
+    private static int findTagEnd(String html, int from) {
+        for (int i = from; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (c == '>') {
+                return i;
+            }
+            if (c == '=') {
+                int value = i + 1;
+                while (value < html.length() && Character.isWhitespace(html.charAt(value))) {
+                    value++;
+                }
+                if (value < html.length() && (html.charAt(value) == '"' || html.charAt(value) == '\'')) {
+                    int close = html.indexOf(html.charAt(value), value + 1);
+                    if (close < 0) {
+                        return -1;
+                    }
+                    i = close;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /* the name of the raw text element starting at a position, null for any other tag */
+    private static String getRawTextTag(String html, int nameStart) {
+        for (String tag : RAW_TEXT_TAGS) {
+            if (html.regionMatches(true, nameStart, tag, 0, tag.length())
+                    && isNameEnd(html, nameStart + tag.length())) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasClass(String attributes, Collection<String> classNames) {
+        Matcher matcher = CLASS_ATTRIBUTE.matcher(attributes);
+        if (!matcher.find()) {
+            return false;
+        }
+
+        String value = matcher.group(1) != null ? matcher.group(1)
+                : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+        for (String className : WHITESPACE.split(value.trim())) {
+            if (classNames.contains(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipPast(String html, String marker, int from) {
+        int index = indexOfIgnoreCase(html, marker, from);
+        return index < 0 ? html.length() : index + marker.length();
+    }
+
+    private static int indexOfIgnoreCase(String html, String marker, int from) {
+        for (int i = from; i <= html.length() - marker.length(); i++) {
+            if (html.regionMatches(true, i, marker, 0, marker.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNameEnd(String html, int index) {
+        if (index >= html.length()) {
+            return false;
+        }
+        char c = html.charAt(index);
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static boolean isVoid(String tag) {
+        switch (tag.toLowerCase()) {
+        case "area":
+        case "base":
+        case "br":
+        case "col":
+        case "embed":
+        case "hr":
+        case "img":
+        case "input":
+        case "link":
+        case "meta":
+        case "source":
+        case "track":
+        case "wbr":
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package sadilek.verification;
+
+import java.util.Locale;
+
+/**
+ * The mismatch rate of all products of a test case estimated from a sample,
+ * with a Wilson score interval as confidence bounds.
+ *
+ * The sample is allocated to the result pages in proportion to their sizes, so
+ * it is self-weighting and the plain sample rate is an unbiased estimate. The
+ * interval ignores the finite population correction, which makes it slightly
+ * wider than necessary for large samples of small populations.
+ */
+public class MismatchEstimate {
+    private final int population;
+    private final int sampled;
+    private final int mismatching;
+    private final double confidence;
+    private final long seed;
+    private final double lower;
+    private final double upper;
+
+    /**
+     * Constructs a MismatchEstimate and computes its confidence bounds.
+     *
+     * @param population  the number of products the sample was drawn from
+     * @param sampled     the number of products verified
+     * @param mismatching the number of verified products with a mismatch
+     * @param confidence  the confidence level of the bounds, e.g. 0.95
+     * @param seed        the seed the sample was drawn with
+     */
+    public MismatchEstimate(int population, int sampled, int mismatching, double confidence, long seed) {
+        this.population = population;
+        this.sampled = sampled;
+        this.mismatching = mismatching;
+        this.confidence = confidence;
+        this.seed = seed;
+
+        if (sampled == 0) {
+            this.lower = 0;
+            this.upper = 1;
+        } else {
+            double z = getZScore(confidence);
+            double rate = (double) mismatching / sampled;
+            double denominator = 1 + z * z / sampled;
+            double center = (rate + z * z / (2.0 * sampled)) / denominator;
+            double halfWidth = z * Math.sqrt(rate * (1 - rate) / sampled + z * z / (4.0 * sampled * sampled))
+                    / denominator;
+            this.lower = Math.max(0, center - halfWidth);
+            this.upper = Math.min(1, center + halfWidth);
+        }
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    public int getSampled() {
+        return sampled;
+    }
+
+    public int getMismatching() {
+        return mismatching;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getRate() {
+        return sampled == 0 ? 0 : (double) mismatching / sampled;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    /**
+     * Returns the two-sided z score of a confidence level, using the rational
+     * approximation of the inverse normal distribution by Acklam (relative error
+     * below 1.2e-9).
+     *
+     * @param confidence the confidence level between 0 and 1, e.g. 0.95
+     * @return the z score, e.g. 1.96
+     */
+    public static double getZScore(double confidence) {
+        if (confidence <= 0 || confidence >= 1) {
+            throw new IllegalArgumentException("confidence must be between 0 and 1: " + confidence);
+        }
+        return inverseNormal(1 - (1 - confidence) / 2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "%d of %d sampled products (of %d) mismatched: rate %.1f%% (%.0f%% CI %.1f%% - %.1f%%), seed %d",
+                mismatching, sampled, population, getRate() * 100, confidence * 100, lower * 100, upper * 100,
+                seed);
+    }
+
+    private static double inverseNormal(double p) {
+        double[] a = { -3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+        double[] b = { -5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01 };
+        double[] c = { -7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+        double[] d = { 7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00 };
+        double low = 0.02425;
+
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - low) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+}
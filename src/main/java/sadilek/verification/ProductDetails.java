@@ -0,0 +1,54 @@
+package sadilek.verification;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The values a FacetRuleEngine reads from a product page, by rule name, and
+ * the fingerprint of the page fragments they were read from.
+ *
+ * The values are what the rules extracted, normalized but not yet compared to
+ * a test case, so the details of a product can be verified against any test
+ * case and kept in the VerificationLedger across runs.
+ */
+public class ProductDetails {
+    /* the value of a presence rule whose element was found */
+    public static final String PRESENT = "present";
+
+    private final Map<String, String> values;
+    private final String fingerprint;
+
+    /**
+     * Constructs ProductDetails.
+     *
+     * @param values      the extracted values by rule name, PRESENT or an empty
+     *                    string for presence rules
+     * @param fingerprint the fingerprint of the fragments the rules read from
+     */
+    public ProductDetails(Map<String, String> values, String fingerprint) {
+        this.values = Collections.unmodifiableMap(new TreeMap<>(values));
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @param ruleName the name of a product rule
+     * @return the extracted value or null if the rule was not extracted
+     */
+    public String get(String ruleName) {
+        return values.get(ruleName);
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public String toString() {
+        return values + " #" + fingerprint;
+    }
+}
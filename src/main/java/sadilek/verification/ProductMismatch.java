@@ -0,0 +1,56 @@
+package sadilek.verification;
+
+/**
+ * A single product that does not match an expected facet.
+ */
+public class ProductMismatch {
+    private final String productUrl;
+    private final String facet;
+    private final String expected;
+    private final String actual;
+    private final boolean deterministic;
+
+    /**
+     * Constructs a ProductMismatch.
+     *
+     * @param productUrl    the URL of the product page
+     * @param facet         the facet that was checked, e.g. "marke"
+     * @param expected      the expected (normalized) value
+     * @param actual        the actual (normalized) value found for the product
+     * @param deterministic false if the value may have been read from a page that
+     *                      was not fully rendered, so a rerun could pass
+     */
+    public ProductMismatch(String productUrl, String facet, String expected, String actual,
+            boolean deterministic) {
+        this.productUrl = productUrl;
+        this.facet = facet;
+        this.expected = expected;
+        this.actual = actual;
+        this.deterministic = deterministic;
+    }
+
+    public String getProductUrl() {
+        return productUrl;
+    }
+
+    public String getFacet() {
+        return facet;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public String getActual() {
+        return actual;
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    @Override
+    public String toString() {
+        return facet + " mismatch - " + productUrl + " expected [" + expected + "] but found [" + actual + "]";
+    }
+}
@@ -0,0 +1,102 @@
+package sadilek.verification;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks a stratified random sample of products, one stratum per result page,
+ * so that the sample covers every page in proportion to its size instead of
+ * only the first one.
+ */
+public class ProductSample {
+
+    private ProductSample() {
+    }
+
+    /**
+     * Returns the sample size needed to estimate a mismatch rate within a margin
+     * of error, using the most conservative rate of 50% and the finite population
+     * correction.
+     *
+     * @param population the number of products that could be sampled
+     * @param confidence the confidence level, e.g. 0.95
+     * @param margin     the margin of error, e.g. 0.05 for +/- 5%
+     * @return the sample size, at most the population
+     */
+    public static int getRequiredSize(int population, double confidence, double margin) {
+        if (population <= 0) {
+            return 0;
+        }
+        double z = MismatchEstimate.getZScore(confidence);
+        double infinite = z * z * 0.25 / (margin * margin);
+        double corrected = infinite / (1 + (infinite - 1) / population);
+        return (int) Math.min(population, Math.ceil(corrected));
+    }
+
+    /**
+     * Allocates the sample to the strata in proportion to their sizes (largest
+     * remainder first) and picks the products of each stratum at random.
+     *
+     * @param stratumSizes the number of products per stratum
+     * @param sampleSize   the total number of products to pick
+     * @param random       the random source, seeded for reproducibility
+     * @return the sorted indices of the picked products per stratum
+     */
+    public static int[][] select(int[] stratumSizes, int sampleSize, Random random) {
+        int[] allocation = allocate(stratumSizes, sampleSize);
+        int[][] selected = new int[stratumSizes.length][];
+        for (int h = 0; h < stratumSizes.length; h++) {
+            selected[h] = pick(stratumSizes[h], allocation[h], random);
+        }
+        return selected;
+    }
+
+    /* proportional allocation, the remainders go to the strata with the largest fractions */
+    private static int[] allocate(int[] stratumSizes, int sampleSize) {
+        int population = 0;
+        for (int size : stratumSizes) {
+            population += size;
+        }
+        int total = Math.min(sampleSize, population);
+
+        int[] allocation = new int[stratumSizes.length];
+        double[] remainders = new double[stratumSizes.length];
+        int allocated = 0;
+        for (int h = 0; h < stratumSizes.length && population > 0; h++) {
+            double share = (double) total * stratumSizes[h] / population;
+            allocation[h] = (int) Math.floor(share);
+            remainders[h] = share - allocation[h];
+            allocated += allocation[h];
+        }
+
+        while (allocated < total) {
+            int largest = -1;
+            for (int h = 0; h < stratumSizes.length; h++) {
+                if (allocation[h] < stratumSizes[h] && (largest < 0 || remainders[h] > remainders[largest])) {
+                    largest = h;
+                }
+            }
+            allocation[largest]++;
+            remainders[largest] = -1;
+            allocated++;
+        }
+        return allocation;
+    }
+
+    /* pick count of size indices with a partial Fisher-Yates shuffle */
+    private static int[] pick(int size, int count, Random random) {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(size - i);
+            int swap = indices[i];
+            indices[i] = indices[j];
+            indices[j] = swap;
+        }
+        int[] picked = Arrays.copyOf(indices, count);
+        Arrays.sort(picked);
+        return picked;
+    }
+}
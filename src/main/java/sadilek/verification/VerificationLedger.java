@@ -0,0 +1,270 @@
+package sadilek.verification;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Remembers the product pages verified in previous runs, keyed by product URL,
+ * so that an unchanged product does not have to be downloaded and read again.
+ *
+ * An entry holds the HTTP validators of the page (ETag and Last-Modified) for a
+ * conditional request and the ProductDetails read from it. A 304 answer or a
+ * page whose fragments have the stored fingerprint confirms the stored details,
+ * which are then verified against the test case instead of the page.
+ *
+ * The ledger is a properties file with keys of the form "url|field". Like the
+ * DurationHistory it is locked and re-read on save, so that shards on the same
+ * machine merge their entries.
+ */
+public class VerificationLedger {
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String VERIFIED_AT = "verifiedAt";
+    private static final String VALUE_PREFIX = "value.";
+
+    private static Logger log = LogManager.getLogger(VerificationLedger.class);
+    private static Map<String, VerificationLedger> ledgers = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Entry> currentRun = new ConcurrentHashMap<>();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final AtomicInteger fingerprintMatches = new AtomicInteger();
+    private final AtomicInteger fullReads = new AtomicInteger();
+
+    /**
+     * Constructs a VerificationLedger and loads the entries of previous runs.
+     *
+     * @param path the properties file the entries are stored in
+     */
+    public VerificationLedger(String path) {
+        this.file = new File(path);
+        entries.putAll(read());
+    }
+
+    /**
+     * Returns the ledger for a file, shared by all test threads of the JVM.
+     *
+     * @param path the path of the ledger file
+     * @return the ledger
+     */
+    public static VerificationLedger load(String path) {
+        return ledgers.computeIfAbsent(path, VerificationLedger::new);
+    }
+
+    /**
+     * @param productUrl the URL of the product page
+     * @return the entry of the product or null if it was never verified
+     */
+    public Entry get(String productUrl) {
+        Entry entry = currentRun.get(productUrl);
+        return entry != null ? entry : entries.get(productUrl);
+    }
+
+    /**
+     * Confirms the stored details of a product after the server answered the
+     * conditional request with 304 Not Modified.
+     *
+     * @param productUrl the URL of the product page
+     * @param entry      the stored entry
+     */
+    public void confirmNotModified(String productUrl, Entry entry) {
+        notModified.incrementAndGet();
+        currentRun.put(productUrl, entry);
+    }
+
+    /**
+     * Confirms the stored details of a product whose page changed but whose
+     * relevant fragments have the stored fingerprint.
+     *
+     * @param productUrl   the URL of the product page
+     * @param entry        the stored entry
+     * @param etag         the ETag of the new response, may be null
+     * @param lastModified the Last-Modified of the new response, may be null
+     */
+    public void confirmFingerprint(String productUrl, Entry entry, String etag, String lastModified) {
+        fingerprintMatches.incrementAndGet();
+        currentRun.put(productUrl, new Entry(etag, lastModified, entry.getDetails()));
+    }
+
+    /**
+     * Records the details read from a downloaded product page.
+     *
+     * @param productUrl   the URL of the product page
+     * @param etag         the ETag of the response, may be null
+     * @param lastModified the Last-Modified of the response, may be null
+     * @param details      the details read from the page
+     */
+    public void record(String productUrl, String etag, String lastModified, ProductDetails details) {
+        fullReads.incrementAndGet();
+        currentRun.put(productUrl, new Entry(etag, lastModified, details));
+    }
+
+    /**
+     * Merges the entries of the current run into the ledger file. The file is
+     * locked and re-read first so that parallel shards do not overwrite each
+     * other's entries.
+     */
+    public synchronized void save() {
+        log.info("LEDGER: " + notModified.get() + " products not modified, " + fingerprintMatches.get()
+                + " unchanged by fingerprint, " + fullReads.get() + " read in full");
+        if (currentRun.isEmpty()) {
+            return;
+        }
+
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        File lockFile = new File(file.getPath() + ".lock");
+        try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw")) {
+            FileLock lock = lockAccess.getChannel().lock();
+            try {
+                Map<String, Entry> stored = read();
+                stored.putAll(currentRun);
+
+                Properties properties = new Properties();
+                for (Map.Entry<String, Entry> entry : stored.entrySet()) {
+                    entry.getValue().store(entry.getKey(), properties);
+                }
+                try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                    properties.store(writer, "verified product pages by URL");
+                }
+            } finally {
+                lock.release();
+            }
+
+            log.info("LEDGER: saved " + currentRun.size() + " products to " + file);
+            entries.putAll(currentRun);
+            currentRun.clear();
+        } catch (IOException e) {
+            log.error("LEDGER: could not save the verification ledger: " + e.getMessage(), e);
+        }
+    }
+
+    /* read the stored entries, an unreadable file counts as an empty ledger */
+    private Map<String, Entry> read() {
+        Map<String, Entry> stored = new HashMap<>();
+        if (!file.exists()) {
+            return stored;
+        }
+
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            log.warn("LEDGER: could not read the verification ledger " + file + ": " + e.getMessage());
+            return stored;
+        }
+
+        /* group the url|field keys by URL */
+        Map<String, Map<String, String>> fieldsByUrl = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int separator = key.lastIndexOf('|');
+            if (separator > 0) {
+                fieldsByUrl.computeIfAbsent(key.substring(0, separator), url -> new HashMap<>())
+                        .put(key.substring(separator + 1), properties.getProperty(key));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> url : fieldsByUrl.entrySet()) {
+            Entry entry = Entry.parse(url.getValue());
+            if (entry != null) {
+                stored.put(url.getKey(), entry);
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * The validators and the details of one verified product page.
+     */
+    public static class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final ProductDetails details;
+        private final long verifiedAt;
+
+        private Entry(String etag, String lastModified, ProductDetails details) {
+            this(etag, lastModified, details, System.currentTimeMillis());
+        }
+
+        private Entry(String etag, String lastModified, ProductDetails details, long verifiedAt) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.details = details;
+            this.verifiedAt = verifiedAt;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public ProductDetails getDetails() {
+            return details;
+        }
+
+        public long getVerifiedAt() {
+            return verifiedAt;
+        }
+
+        private void store(String url, Properties properties) {
+            if (etag != null) {
+                properties.setProperty(url + "|" + ETAG, etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty(url + "|" + LAST_MODIFIED, lastModified);
+            }
+            properties.setProperty(url + "|" + FINGERPRINT, details.getFingerprint());
+            properties.setProperty(url + "|" + VERIFIED_AT, String.valueOf(verifiedAt));
+            for (Map.Entry<String, String> value : details.getValues().entrySet()) {
+                properties.setProperty(url + "|" + VALUE_PREFIX + value.getKey(), value.getValue());
+            }
+        }
+
+        /* an entry without fingerprint or with an invalid timestamp is dropped */
+        private static Entry parse(Map<String, String> fields) {
+            String fingerprint = fields.get(FINGERPRINT);
+            if (fingerprint == null) {
+                return null;
+            }
+
+            Map<String, String> values = new HashMap<>();
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                if (field.getKey().startsWith(VALUE_PREFIX)) {
+                    values.put(field.getKey().substring(VALUE_PREFIX.length()), field.getValue());
+                }
+            }
+
+            try {
+                long verifiedAt = Long.parseLong(fields.getOrDefault(VERIFIED_AT, "0").trim());
+                return new Entry(fields.get(ETAG), fields.get(LAST_MODIFIED), new ProductDetails(values, fingerprint),
+                        verifiedAt);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
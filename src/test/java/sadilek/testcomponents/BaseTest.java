@@ -1,49 +1,144 @@
 package sadilek.testcomponents;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.openqa.selenium.Dimension;
+import org.openqa.selenium.MutableCapabilities;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.chromium.ChromiumOptions;
 import org.openqa.selenium.edge.EdgeDriver;
 import org.openqa.selenium.edge.EdgeOptions;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxOptions;
-import org.openqa.selenium.support.ThreadGuard;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.IHookCallBack;
+import org.testng.IHookable;
 import org.testng.ITestContext;
+import org.testng.ITestResult;
 import org.testng.annotations.AfterMethod;
+import org.testng.annotations.AfterSuite;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeSuite;
+import org.testng.xml.XmlSuite;
 
-import io.github.bonigarcia.wdm.WebDriverManager;
+import io.github.bonigarcia.wdm.config.DriverManagerType;
+import sadilek.abstractcomponents.PageElements;
+import sadilek.helpers.ConcurrencyController;
+import sadilek.helpers.SiteGuard;
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.CommandMetrics;
+import sadilek.metrics.FlightRecording;
+import sadilek.metrics.PerformanceMonitor;
+import sadilek.metrics.WireCallListener;
+import sadilek.resources.ExtentReporterNG;
+import sadilek.pageobjects.LandingPage;
+import sadilek.resources.RunJournal;
 
 /**
  * BaseTest class serving as the foundation for all test classes.
  * 
- * This class initializes and manages WebDriver instances in a ThreadLocal
- * storage for thread safety during parallel execution.
+ * This class initializes and manages the WebDriver instances. The session of
+ * a test is kept in its TestCaseContext, which travels with the ITestResult of
+ * the test and is handed to the test method through getContext, and its driver
+ * is bound to the thread running the test with ThreadGuard.
+ * 
+ * Browsers run locally or on a Selenium Grid (gridUrl property). With the
+ * sessionReuse property enabled the browser session of a passed test is kept
+ * warm and taken by the next test of the same browser on any data-provider
+ * thread, instead of starting a new browser each time.
+ *
+ * In a browser matrix run (browsers property, see BrowserMatrix) each row
+ * names its browser and the warm sessions are kept per browser.
+ *
+ * With the profileTemplate property enabled Chrome and Edge start from a clone
+ * of a profile that already accepted the cookie consent, see ProfileTemplate.
+ *
+ * With the sessionWarmup property enabled the SessionWarmer launches sessions
+ * past the landing page and the cookie consent in the background, and a test
+ * that needs a new session leases one of them.
  */
-public class BaseTest {
-    protected ThreadLocal<WebDriver> driver = new ThreadLocal<>(); // make the driver instance thread safe.
+public class BaseTest implements IHookable {
+    /* the warm sessions no test is using by browser, one entry unless running a browser matrix */
+    private static Map<String, Deque<BrowserSession>> idleSessions = new ConcurrentHashMap<>();
     protected Properties properties;
     protected static Logger log = LogManager.getLogger(BaseTest.class);
 
+    /* every open session so that reused sessions can be closed when the suite ends */
+    private static Set<BrowserSession> openSessions = ConcurrentHashMap.newKeySet();
+
+    /* the contexts of the running tests by the identity of their data-provider row */
+    private static Map<Object, TestCaseContext> contexts = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /* the profile template shared by all sessions of the run, null if disabled */
+    private static ProfileTemplate profileTemplate;
+
+    /**
+     * Retrieves the context of a running test method from the data-provider row
+     * it was invoked with. TestNG does not hand a test method its ITestResult, so
+     * run registers the context under the row, i.e. the first argument of the
+     * test method, while the method runs.
+     * 
+     * @param row the first parameter the test method was invoked with
+     * @return The TestCaseContext of the test or null if none is registered.
+     */
+    protected TestCaseContext getContext(Object row) {
+        return contexts.get(row);
+    }
+
     /**
-     * Retrieves the WebDriver instance associated with the current thread.
+     * Retrieves the browser session of a test, e.g. from a listener.
      * 
-     * Uses ThreadLocal storage to ensure that each thread
-     * has its own isolated WebDriver instance.
-     *
-     * @return The WebDriver instance associated with the current thread.
+     * @param result the result of the test
+     * @return The BrowserSession of the test or null if none is open.
      */
-    public WebDriver getDriver() {
-        return driver.get();
+    public BrowserSession getSession(ITestResult result) {
+        return TestCaseContext.of(result).getSession();
+    }
+
+    /**
+     * Registers the context of a test under the arguments the test method is
+     * invoked with, see getContext. The arguments are the ones TestNG passes to
+     * the method, the parameters of the result in a configuration method are
+     * copies of them.
+     * 
+     * @param callBack the invocation of the test method
+     * @param result   the result of the test
+     */
+    @Override
+    public void run(IHookCallBack callBack, ITestResult result) {
+        Object[] parameters = callBack.getParameters();
+        if (parameters.length == 0) {
+            callBack.runTestMethod(result);
+            return;
+        }
+
+        contexts.put(parameters[0], TestCaseContext.of(result));
+        try {
+            callBack.runTestMethod(result);
+        } finally {
+            contexts.remove(parameters[0]);
+        }
     }
 
     /**
@@ -74,12 +169,20 @@ public class BaseTest {
     }
 
     /**
-     * Closes the browser and removes the driver instance from the ThreadLocal
-     * storage.
+     * Closes the browser of a test and removes the session from its context.
+     * 
+     * @param context the context of the test
      */
-    private void closeBrowser() {
-        getDriver().quit();
-        driver.remove();
+    private void closeBrowser(TestCaseContext context) {
+        BrowserSession current = context.getSession();
+        if (current == null) {
+            return;
+        }
+
+        context.setSession(null);
+        openSessions.remove(current);
+        current.quit();
+        SessionWarmer.getInstance().closed(current.getBrowserName());
     }
 
     /**
@@ -112,96 +215,639 @@ public class BaseTest {
      * execution in the Listerer class for the purpose of taking screenshots during
      * Assert fails.
      */
-    @BeforeMethod
-    public void setContext(ITestContext context) {
-        context.setAttribute("driver", getDriver());
-    }
-
     @BeforeSuite
     public void setContextBeforeSuite(ITestContext context) {
         String browserName;
         try {
             browserName = getProperty("browser");
             context.setAttribute("browserName", browserName);
+
+            /* the Listeners report every browser of a matrix run into its own directory */
+            BrowserMatrix matrix = BrowserMatrix.fromProperty(getProperty("browsers"));
+            if (matrix != null) {
+                context.setAttribute("browserMatrix", matrix.getBrowsers());
+            }
+
+            /* the Listeners class records the test case durations into this file */
+            context.setAttribute("durationHistory", getProperty("durationHistory"));
+
+            /* the Listeners journal the completed test cases of this run, see RunJournal */
+            if (Boolean.parseBoolean(getProperty("runJournal"))) {
+                String resume = getProperty("resume");
+                String runId = getProperty("runId");
+                if (resume != null && !resume.trim().isEmpty()) {
+                    context.setAttribute("resumedRunId", resume.trim());
+                    runId = resume;
+                } else if (runId == null || runId.trim().isEmpty()) {
+                    runId = RunJournal.newRunId();
+                }
+                context.setAttribute("runId", runId.trim());
+            }
+
+            /* the Listeners save the verification ledger at the end of the suite */
+            context.setAttribute("verificationLedger", getProperty("verificationLedger"));
+
+            /* the Listeners start the OpenMetrics endpoint if a port is set */
+            context.setAttribute("metricsPort", getProperty("metricsPort"));
+
+            /* one seed per run so that the samples of the whole run can be drawn again */
+            if ("sample".equalsIgnoreCase(getProperty("verificationMode"))) {
+                String sampleSeed = getProperty("sampleSeed");
+                context.setAttribute("sampleSeed", sampleSeed == null || sampleSeed.trim().isEmpty()
+                        ? String.valueOf(new Random().nextLong())
+                        : sampleSeed.trim());
+            }
+
+            /* the shard label keeps the report files of parallel shards apart */
+            ShardSelector shard = ShardSelector.fromProperty(getProperty("shard"), getProperty("shardStrategy"));
+            if (shard != null) {
+                context.setAttribute("shardLabel", shard.getLabel());
+            }
         } catch (Exception e) {
             log.error("setContext: could not get the browserName");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Enables the adaptive concurrency controller when the adaptiveConcurrency
+     * property is set to true. The maximum number of browser sessions defaults to
+     * the data-provider-thread-count of the suite. If maxSessions is set, the
+     * data-provider-thread-count is raised to match so that the controller has
+     * threads to hand out.
+     */
+    @BeforeSuite
+    public void configureConcurrency(ITestContext context) {
+        try {
+            if (!Boolean.parseBoolean(getProperty("adaptiveConcurrency"))) {
+                return;
+            }
+
+            XmlSuite suite = context.getSuite().getXmlSuite();
+            int maxSessions = suite.getDataProviderThreadCount();
+            if (getProperty("maxSessions") != null) {
+                maxSessions = Integer.parseInt(getProperty("maxSessions"));
+                suite.setDataProviderThreadCount(maxSessions);
+            }
+
+            ConcurrencyController.getInstance().configure(Integer.parseInt(getProperty("minSessions")), maxSessions,
+                    Long.parseLong(getProperty("targetWaitMillis")));
+        } catch (Exception e) {
+            log.error("configureConcurrency: could not configure the adaptive concurrency controller", e);
+        }
+    }
+
+    /**
+     * Enables the SessionWarmer if the sessionWarmup property is true. It warms
+     * sessions for as many tests as run in parallel, at most warmSessions at a
+     * time (0 = the parallelism).
+     */
+    @BeforeSuite
+    public void configureSessionWarmup(ITestContext context) {
+        try {
+            if (!Boolean.parseBoolean(getProperty("sessionWarmup"))) {
+                return;
+            }
+
+            /* configureConcurrency may raise the thread count to maxSessions, which can run after this */
+            int parallelism = context.getSuite().getXmlSuite().getDataProviderThreadCount();
+            if (Boolean.parseBoolean(getProperty("adaptiveConcurrency")) && getProperty("maxSessions") != null) {
+                parallelism = Integer.parseInt(getProperty("maxSessions"));
+            }
+            int warmSessions = Integer.parseInt(getProperty("warmSessions"));
+
+            SessionWarmer.getInstance().configure(parallelism, warmSessions > 0 ? warmSessions : parallelism,
+                    Boolean.parseBoolean(getProperty("sessionReuse")), this::launchWarmSession);
+        } catch (Exception e) {
+            log.error("configureSessionWarmup: could not configure the session warmer", e);
+        }
+    }
+
+    /**
+     * Registers the tests a data provider returns with the SessionWarmer, so that
+     * it warms sessions of the right browsers.
+     * 
+     * @param rows the data provider rows, single cases or trie groups
+     */
+    protected void scheduleWarmup(Object[][] rows) throws Exception {
+        if (!SessionWarmer.getInstance().isEnabled()) {
+            return;
+        }
+
+        List<String> browsers = new ArrayList<>();
+        for (Object[] row : rows) {
+            String browser = BrowserMatrix.getBrowser(row);
+            browsers.add(browser != null ? browser : getProperty("browser"));
+        }
+        SessionWarmer.getInstance().schedule(browsers);
+    }
+
+    /**
+     * Starts a session on a warm-up thread and takes it past the landing page
+     * and the cookie consent.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @return the warm session, still bound to the warm-up thread
+     */
+    private BrowserSession launchWarmSession(String browserName) throws Exception {
+        BrowserSession warm = startSession(browserName, false);
+        try {
+            LandingPage landingPage = new LandingPage(warm.getDriver(), Integer.parseInt(getProperty("timeout")),
+                    Integer.parseInt(getProperty("retries")));
+            landingPage.gotoPage(getProperty("url"));
+            if (!warm.isConsentHandled()) {
+                landingPage.handleModalPopup();
+                warm.setConsentHandled(true);
+            }
+            return warm;
+        } catch (Exception e) {
+            warm.quit();
+            throw e;
+        }
+    }
+
+    /**
+     * Enables the profile template if the profileTemplate property is true. The
+     * template is built on the first launch of each browser. Sessions on a
+     * Selenium Grid always start from a fresh profile since the profile would
+     * have to exist on the node.
+     */
+    @BeforeSuite
+    public void configureProfileTemplate() {
+        try {
+            if (!Boolean.parseBoolean(getProperty("profileTemplate")) || isGrid()) {
+                return;
+            }
+
+            String directory = getProperty("profileDirectory");
+            profileTemplate = new ProfileTemplate(
+                    directory == null || directory.trim().isEmpty() ? null : new File(directory.trim()),
+                    this::buildProfileTemplate);
+        } catch (Exception e) {
+            log.error("configureProfileTemplate: could not configure the profile template", e);
+        }
+    }
+
+    /**
+     * Starts a browser on the template directory, accepts the cookie consent and
+     * opens the parfum page to prime the caches, then quits it so that the
+     * profile is written to disk.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @param profile     the template directory
+     */
+    private void buildProfileTemplate(String browserName, File profile) throws Exception {
+        resolveDriverBinary(browserName);
+        WebDriver templateDriver = launchBrowser(browserName, profile);
+        try {
+            LandingPage landingPage = new LandingPage(templateDriver, Integer.parseInt(getProperty("timeout")),
+                    Integer.parseInt(getProperty("retries")));
+            landingPage.gotoPage(getProperty("url"));
+            landingPage.handleModalPopup();
+            landingPage.gotoParfumPage();
+        } finally {
+            templateDriver.quit();
+        }
+    }
+
+    /**
+     * Enables the SiteGuard if the siteGuard property is true, so that all threads
+     * share one rate limit for navigations and fetches and stop together when the
+     * site denies access.
+     */
+    @BeforeSuite
+    public void configureSiteGuard() {
+        try {
+            if (!Boolean.parseBoolean(getProperty("siteGuard"))) {
+                return;
+            }
+
+            SiteGuard.getInstance().configure(Double.parseDouble(getProperty("siteRequestsPerSecond")),
+                    Integer.parseInt(getProperty("siteBurst")), Integer.parseInt(getProperty("breakerThreshold")),
+                    TimeUnit.SECONDS.toMillis(Long.parseLong(getProperty("breakerCooldown"))));
+        } catch (Exception e) {
+            log.error("configureSiteGuard: could not configure the site guard", e);
+        }
+    }
+
+    /**
+     * Enables the element cache of the page objects if the elementCache property
+     * is true. Cached elements are located again once they went stale.
+     */
+    @BeforeSuite
+    public void configurePageElements() {
+        try {
+            PageElements.setElementCache(Boolean.parseBoolean(getProperty("elementCache")));
+        } catch (Exception e) {
+            log.error("configurePageElements: could not read the elementCache property", e);
+        }
+    }
+
+    /**
+     * Runs the background tasks (result page prefetch, session warm-up,
+     * screenshot writes, report flushes) on virtual threads if the
+     * virtualThreads property is true and the JDK supports them.
+     */
+    @BeforeSuite
+    public void configureTaskExecutors() {
+        try {
+            TaskExecutors.setVirtualThreads(Boolean.parseBoolean(getProperty("virtualThreads")));
+        } catch (Exception e) {
+            log.error("configureTaskExecutors: could not read the virtualThreads property", e);
+        }
+    }
+
+    /**
+     * Starts a Java Flight Recorder recording of the suite if the jfr property is
+     * true. The recording is written next to the Extent report when the suite
+     * ends.
+     */
+    @BeforeSuite
+    public void startFlightRecording() {
+        try {
+            if (!Boolean.parseBoolean(getProperty("jfr"))) {
+                return;
+            }
+
+            ShardSelector shard = ShardSelector.fromProperty(getProperty("shard"), getProperty("shardStrategy"));
+            String fileName = "suite" + (shard != null ? "_" + shard.getLabel() : "") + ".jfr";
+            String directory = BrowserMatrix.fromProperty(getProperty("browsers")) != null
+                    ? ExtentReporterNG.getMatrixDirectory(ExtentReporterNG.getBuildNumber())
+                    : ExtentReporterNG.getReportDirectory(getProperty("browser"));
+            FlightRecording.start(new File(directory, fileName));
+        } catch (Exception e) {
+            log.error("startFlightRecording: could not start the flight recording", e);
+        }
+    }
+
+    /**
+     * Stops the flight recording and writes it to the report directory.
+     */
+    @AfterSuite(alwaysRun = true)
+    public void stopFlightRecording() {
+        FlightRecording.stop();
+    }
+
+    /**
+     * Enables the PerformanceMonitor if the performanceCapture property is true,
+     * so that the page objects capture the timings of every page they open. The
+     * budgets are read from the performanceBudgets file and every capture is
+     * appended to the performanceTrend file.
+     */
+    @BeforeSuite
+    public void configurePerformanceMonitor() {
+        try {
+            if (!Boolean.parseBoolean(getProperty("performanceCapture"))) {
+                return;
+            }
+
+            Properties budgets = new Properties();
+            String budgetsPath = getProperty("performanceBudgets");
+            if (budgetsPath != null && !budgetsPath.trim().isEmpty()) {
+                try (FileInputStream input = new FileInputStream(budgetsPath.trim())) {
+                    budgets.load(input);
+                }
+            }
+            String trendPath = getProperty("performanceTrend");
+            File trendFile = trendPath != null && !trendPath.trim().isEmpty() ? new File(trendPath.trim()) : null;
+            PerformanceMonitor.getInstance().configure(budgets, trendFile, ExtentReporterNG.getBuildNumber());
+        } catch (Exception e) {
+            log.error("configurePerformanceMonitor: could not configure the performance monitor", e);
+        }
+    }
+
+    /**
+     * Checks the page timings captured for a test against the performance budgets
+     * and fails the test with every exceeded budget. The Listeners add the
+     * timings to the report.
+     * 
+     * @param context the context of the test the page objects recorded into
+     */
+    protected void assertPerformanceBudgets(TestCaseContext context) {
+        PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+        if (!monitor.isEnabled()) {
+            return;
+        }
+
+        List<String> violations = monitor.checkBudgets(context.getTimings());
+        if (!violations.isEmpty()) {
+            throw new AssertionError("PERFORMANCE: " + violations.size() + " budgets exceeded:\n"
+                    + String.join("\n", violations));
+        }
+    }
+
     /**
      * This method will run before each @Test method is run in the test folder.
      * setup the WebDriver and return the main landing page for Douglas
      * 
+     * @param result the result of the test method that is about to run
      * @return the WebDriver driver after it has been set up.
      * @throws IOException
      */
     @BeforeMethod
-    public void initDriver() throws IOException, Exception {
+    public void initDriver(ITestResult result) throws IOException, Exception {
         log.info("Before Method Thread Number: " + Thread.currentThread().getId());
 
         /*
-         * if the browser variable is being set using the MVN command, use that.
-         * Otherwise, get the browser value from the settings.properties value
+         * a row of a browser matrix run names its browser. Otherwise, if the browser
+         * variable is being set using the MVN command, use that. Otherwise, get the
+         * browser value from the settings.properties value
          */
-        String browserName = getProperty("browser");
+        String browserName = BrowserMatrix.getBrowser(result.getParameters());
+        if (browserName == null) {
+            browserName = getProperty("browser");
+        }
+
+        /* a retry runs the same row again and must not count as another row */
+        String row = result.getMethod().getMethodName() + Arrays.deepToString(result.getParameters());
 
         /*
-         * select the driver based on the browser variable in the properties file.
+         * an idle or warmed-up session already holds a session slot, only a new
+         * session waits for one in startSession
          */
-        if (browserName.contains("chrome")) {
-            WebDriverManager.chromedriver().setup();
+        Deque<BrowserSession> idle = idleSessions.get(browserName);
+        BrowserSession current = idle != null ? idle.pollLast() : null;
+        if (current != null) {
+            log.info("reusing warm " + browserName + " session (" + current.getTestsRun() + " tests run)");
+            current.bindToCurrentThread();
+            SessionWarmer.getInstance().reused(browserName, row);
+        } else {
+            /* a session warmed in the background is already past the cookie consent */
+            current = SessionWarmer.getInstance().lease(browserName, row);
+            if (current != null) {
+                log.info("leased a warmed-up " + browserName + " session");
+            } else {
+                current = startSession(browserName, true);
+                SessionWarmer.getInstance().opened(browserName);
+            }
+            openSessions.add(current);
+        }
+        TestCaseContext.of(result).setSession(current);
+        current.startTest();
+
+        /* record the commands of this test in its own metrics, read by the Listeners */
+        if (current.getWireCallListener() != null) {
+            CommandMetrics metrics = new CommandMetrics();
+            current.getWireCallListener().setMetrics(metrics);
+            result.setAttribute(CommandMetrics.ATTRIBUTE, metrics);
+        }
+    }
+
+    /**
+     * Starts a browser session bound to the current thread, from a cloned profile
+     * template if enabled. The session takes a ConcurrencyController slot, which
+     * it holds until it quits, so tests, idle sessions and warmed-up sessions
+     * together stay within the limit.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @param forTest     true if a test waits for the session, which then may
+     *                    close warm sessions nobody leased to get a slot
+     * @return the started session
+     */
+    private BrowserSession startSession(String browserName, boolean forTest) throws Exception {
+        acquireSessionSlot(forTest);
+        boolean started = false;
+        try {
+            BrowserSession session = launchSession(browserName);
+            session.holdSessionSlot();
+            started = true;
+            return session;
+        } finally {
+            if (!started) {
+                ConcurrencyController.getInstance().release();
+            }
+        }
+    }
+
+    /*
+     * Waits for a free session slot. Idle sessions kept for reuse and warm
+     * sessions hold slots as well, so one of them is closed instead of waiting for
+     * a slot that only a later test could free. Only a test closes warm sessions,
+     * a warm-up launch waits for a slot.
+     */
+    private void acquireSessionSlot(boolean forTest) throws InterruptedException {
+        ConcurrencyController controller = ConcurrencyController.getInstance();
+        while (!controller.tryAcquire()) {
+            if (!closeIdleSession() && !(forTest && SessionWarmer.getInstance().discardReady())) {
+                controller.acquire();
+                return;
+            }
+        }
+    }
+
+    /* closes the idle session that was returned first, false if there is none */
+    private boolean closeIdleSession() {
+        for (Deque<BrowserSession> idle : idleSessions.values()) {
+            BrowserSession oldest = idle.pollFirst();
+            if (oldest != null) {
+                log.info("closing an idle " + oldest.getBrowserName() + " session to free a session slot");
+                openSessions.remove(oldest);
+                try {
+                    oldest.quit();
+                } catch (Exception e) {
+                    log.warn("could not close browser session: " + e.getMessage());
+                }
+                SessionWarmer.getInstance().closed(oldest.getBrowserName());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BrowserSession launchSession(String browserName) throws Exception {
+        /* time the driver resolution and the browser launch separately from the test */
+        long start = System.currentTimeMillis();
+        resolveDriverBinary(browserName);
+        long resolved = System.currentTimeMillis();
 
-            /*
-             * enable headless browsing if invoke with the 'headless' value
-             * Return the driver to avoid instability due to the driver manage maximize
-             * method being called after setSize.
-             */
+        WireCallListener wireCallListener = Boolean.parseBoolean(getProperty("wireMetrics"))
+                ? new WireCallListener(Integer.parseInt(getProperty("wireCallerSample")))
+                : null;
+        File profile = profileTemplate != null ? profileTemplate.createClone(browserName) : null;
+        WebDriver newDriver;
+        try {
+            newDriver = launchBrowser(browserName, profile);
+        } catch (Exception e) {
+            if (profile != null) {
+                profileTemplate.delete(profile);
+            }
+            throw e;
+        }
+
+        BrowserSession started = new BrowserSession(newDriver, browserName, wireCallListener);
+        started.setStartupMillis(resolved - start, System.currentTimeMillis() - resolved);
+        started.setProfileDirectory(profile);
+        /* the template accepted the cookie consent */
+        started.setConsentHandled(profile != null);
+        return started;
+    }
+
+    private boolean isGrid() throws Exception {
+        String gridUrl = getProperty("gridUrl");
+        return gridUrl != null && !gridUrl.trim().isEmpty();
+    }
+
+    /**
+     * Starts a browser for the current thread. With the gridUrl property set the
+     * browser is started on the Selenium Grid, otherwise locally through
+     * WebDriverManager. Both use the same capabilities.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @param profile     the user data directory to start Chrome or Edge with,
+     *                    null for a fresh profile
+     * @return the started driver, not yet protected by ThreadGuard
+     */
+    private WebDriver launchBrowser(String browserName, File profile) throws Exception {
+        MutableCapabilities options = buildOptions(browserName, profile);
+        String gridUrl = getProperty("gridUrl");
+
+        WebDriver newDriver;
+        if (gridUrl != null && !gridUrl.trim().isEmpty()) {
+            log.info("starting remote " + browserName + " session on " + gridUrl);
+            newDriver = new RemoteWebDriver(new URL(gridUrl.trim()), options);
+        } else {
+            newDriver = launchLocalBrowser(browserName, options);
+        }
+
+        /*
+         * Headless browsers get a fixed window size. Return the driver to avoid
+         * instability due to the driver manage maximize method being called after
+         * setSize.
+         */
+        if (browserName.contains("headless")) {
+            Dimension size = browserName.contains("chrome") ? new Dimension(1800, 1000) : new Dimension(1900, 1200);
+            newDriver.manage().window().setSize(size);
+        } else {
+            /* maximize the window so that elements get maximum visibilty */
+            newDriver.manage().window().maximize();
+        }
+
+        return newDriver;
+    }
+
+    /**
+     * Builds the browser options from the browser property. The options are used
+     * for local drivers and as RemoteWebDriver capabilities.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @param profile     the user data directory of Chrome or Edge, may be null
+     * @return the ChromeOptions, FirefoxOptions or EdgeOptions
+     */
+    private MutableCapabilities buildOptions(String browserName, File profile) {
+        /*
+         * select the options based on the browser variable in the properties file and
+         * enable headless browsing if invoked with the 'headless' value
+         */
+        boolean headless = browserName.contains("headless");
+        if (browserName.contains("chrome")) {
             ChromeOptions options = new ChromeOptions();
-            if (browserName.contains("headless")) {
+            if (headless) {
                 options.addArguments("headless");
-                driver.set(ThreadGuard.protect(new ChromeDriver(options)));
-                driver.get().manage().window().setSize(new Dimension(1800, 1000)); // resize the window
-                                                                                   // for headless
-            } else {
-                driver.set(ThreadGuard.protect(new ChromeDriver()));
-                /* maximize the window so that elements get maximum visibilty */
-                driver.get().manage().window().maximize();
             }
-
+            addProfileArguments(options, profile);
+            return options;
         } else if (browserName.contains("firefox")) {
-            WebDriverManager.firefoxdriver().setup();
-            if (browserName.contains("headless")) {
-                FirefoxOptions options = new FirefoxOptions();
+            FirefoxOptions options = new FirefoxOptions();
+            if (headless) {
                 options.addArguments("-headless");
-                driver.set(ThreadGuard.protect(new FirefoxDriver(options)));
-                driver.get().manage().window().setSize(new Dimension(1900, 1200)); // resize the window
-            } else {
-                driver.set(ThreadGuard.protect(new FirefoxDriver()));
-                /* maximize the window so that elements get maximum visibilty */
-                driver.get().manage().window().maximize();
             }
+            return options;
         } else if (browserName.contains("edge")) {
-            WebDriverManager.edgedriver().setup();
-            if (browserName.contains("headless")) {
-                EdgeOptions options = new EdgeOptions();
+            EdgeOptions options = new EdgeOptions();
+            if (headless) {
                 options.addArguments("--headless");
-                driver.set(ThreadGuard.protect(new EdgeDriver(options)));
-                driver.get().manage().window().setSize(new Dimension(1900, 1200));
-            } else {
-                driver.set(ThreadGuard.protect(new EdgeDriver()));
-                /* maximize the window so that elements get maximum visibilty */
-                driver.get().manage().window().maximize();
             }
+            addProfileArguments(options, profile);
+            return options;
+        }
+
+        throw new IllegalArgumentException("unsupported browser: " + browserName);
+    }
+
+    /* start from the given profile without first-run work and without extensions */
+    private void addProfileArguments(ChromiumOptions<?> options, File profile) {
+        if (profile != null) {
+            options.addArguments("--user-data-dir=" + profile.getAbsolutePath(), "--no-first-run",
+                    "--no-default-browser-check", "--disable-extensions");
+        }
+    }
+
+    /**
+     * Resolves the local driver binary once per JVM. Remote sessions on a Grid do
+     * not need a local driver binary.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     */
+    private void resolveDriverBinary(String browserName) throws Exception {
+        String gridUrl = getProperty("gridUrl");
+        if (gridUrl != null && !gridUrl.trim().isEmpty()) {
+            return;
+        }
+
+        DriverManagerType type = browserName.contains("firefox") ? DriverManagerType.FIREFOX
+                : browserName.contains("edge") ? DriverManagerType.EDGE : DriverManagerType.CHROME;
+        DriverBinaryResolver.resolve(type, getProperty("driverCache"),
+                Boolean.parseBoolean(getProperty("driverOffline")));
+    }
+
+    /**
+     * Starts a local browser. The driver binary has already been resolved by
+     * resolveDriverBinary.
+     * 
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @param options     the options built by buildOptions
+     * @return the started local driver
+     */
+    private WebDriver launchLocalBrowser(String browserName, MutableCapabilities options) {
+        if (browserName.contains("chrome")) {
+            return new ChromeDriver((ChromeOptions) options);
+        } else if (browserName.contains("firefox")) {
+            return new FirefoxDriver((FirefoxOptions) options);
         }
+
+        return new EdgeDriver((EdgeOptions) options);
     }
 
     /*
      * Runs after each test ensuring that the Web Driver and the browser are closed.
+     * With session reuse enabled the browser of a passed test stays open for the
+     * next test of its browser. Sessions of failed tests are always closed since
+     * they may be stuck or blocked, and so are sessions above the limit of the
+     * ConcurrencyController after it backed off. Closing a session frees its
+     * slot for a waiting data-provider thread.
      */
     @AfterMethod
-    public void teardown() {
+    public void teardown(ITestResult result) throws Exception {
         log.info("After method thread ID: " + Thread.currentThread().getId());
-        closeBrowser();
+        TestCaseContext context = TestCaseContext.of(result);
+        if (!Boolean.parseBoolean(getProperty("sessionReuse")) || !result.isSuccess()
+                || ConcurrencyController.getInstance().isOverLimit()) {
+            closeBrowser(context);
+        } else if (context.getSession() != null) {
+            BrowserSession current = context.getSession();
+            idleSessions.computeIfAbsent(current.getBrowserName(), key -> new ConcurrentLinkedDeque<>())
+                    .addLast(current);
+        }
+    }
+
+    /**
+     * Closes the browser sessions that were kept open for reuse.
+     */
+    @AfterSuite(alwaysRun = true)
+    public void closeOpenSessions() {
+        SessionWarmer.getInstance().shutdown();
+        for (BrowserSession open : openSessions) {
+            try {
+                open.quit();
+            } catch (Exception e) {
+                log.warn("could not close browser session: " + e.getMessage());
+            }
+        }
+        openSessions.clear();
+        idleSessions.clear();
+
+        if (profileTemplate != null) {
+            profileTemplate.deleteAll();
+        }
     }
 }
@@ -0,0 +1,133 @@
+package sadilek.testcomponents;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sadilek.helpers.Constants.TestData;
+
+/**
+ * Runs every data provider row in several browsers within one suite run.
+ *
+ * The browsers are given with the browsers property as a comma separated list
+ * of browser property values, e.g. -Dbrowsers="chrome headless,firefox
+ * headless,edge headless". Each row is copied once per browser with the browser
+ * set in its facet map (TestData.BROWSER); BaseTest starts the session of the
+ * row's browser and the Listeners report it into the directory of that
+ * browser.
+ *
+ * The copies are interleaved row by row, so that all browsers run side by side
+ * from the start and the wall time approaches that of the slowest browser.
+ */
+public class BrowserMatrix {
+    private Logger log = LogManager.getLogger(BrowserMatrix.class);
+
+    private final List<String> browsers;
+
+    /**
+     * Constructs a BrowserMatrix.
+     *
+     * @param browsers the browser property values, e.g. "chrome headless"
+     */
+    public BrowserMatrix(List<String> browsers) {
+        if (browsers.isEmpty()) {
+            throw new IllegalArgumentException("a browser matrix needs at least one browser");
+        }
+        this.browsers = Collections.unmodifiableList(new ArrayList<>(browsers));
+    }
+
+    /**
+     * Parses a browsers property value like "chrome headless,firefox headless".
+     *
+     * @param browsers the property value, may be null or empty
+     * @return a BrowserMatrix or null if the matrix is not enabled
+     */
+    public static BrowserMatrix fromProperty(String browsers) {
+        if (browsers == null || browsers.trim().isEmpty()) {
+            return null;
+        }
+
+        Set<String> names = new LinkedHashSet<>();
+        for (String browser : browsers.split(",")) {
+            if (!browser.trim().isEmpty()) {
+                names.add(browser.trim());
+            }
+        }
+        return new BrowserMatrix(new ArrayList<>(names));
+    }
+
+    /**
+     * @return the browsers of the matrix in the order they were given
+     */
+    public List<String> getBrowsers() {
+        return browsers;
+    }
+
+    /**
+     * Copies every row once per browser.
+     *
+     * @param rows the data provider rows read from the spreadsheet
+     * @return the rows of all browsers, interleaved row by row
+     */
+    @SuppressWarnings("unchecked")
+    public Object[][] expand(Object[][] rows) {
+        Object[][] expanded = new Object[rows.length * browsers.size()][];
+        int i = 0;
+        for (Object[] row : rows) {
+            for (String browser : browsers) {
+                HashMap<String, String> facets = new HashMap<>((Map<String, String>) row[0]);
+                facets.put(TestData.BROWSER, browser);
+                expanded[i++] = new Object[] { facets };
+            }
+        }
+
+        log.info("MATRIX: " + rows.length + " test cases in " + browsers.size() + " browsers " + browsers);
+        return expanded;
+    }
+
+    /**
+     * Returns the browser a test runs in, taken from its row or from the first
+     * case of a trie group.
+     *
+     * @param parameters the parameters of the test
+     * @return the browser or null if the test does not belong to a matrix run
+     */
+    public static String getBrowser(Object[] parameters) {
+        if (parameters == null || parameters.length == 0) {
+            return null;
+        }
+
+        Object row = parameters[0];
+        if (row instanceof List && !((List<?>) row).isEmpty()) {
+            row = ((List<?>) row).get(0);
+        }
+        if (!(row instanceof Map)) {
+            return null;
+        }
+
+        Object browser = ((Map<?, ?>) row).get(TestData.BROWSER);
+        return browser instanceof String && !((String) browser).trim().isEmpty() ? ((String) browser).trim() : null;
+    }
+
+    /**
+     * Returns the browser of a FilterCase id.
+     *
+     * @param caseId the id, e.g. "browser=firefox headless|produktart=Parfum"
+     * @return the browser or null if the id has none
+     */
+    public static String getBrowser(String caseId) {
+        String prefix = TestData.BROWSER + "=";
+        if (!caseId.startsWith(prefix)) {
+            return null;
+        }
+        int end = caseId.indexOf('|');
+        return caseId.substring(prefix.length(), end >= 0 ? end : caseId.length());
+    }
+}
@@ -0,0 +1,180 @@
+package sadilek.testcomponents;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ThreadGuard;
+import org.openqa.selenium.support.events.EventFiringDecorator;
+
+import sadilek.helpers.ConcurrencyController;
+import sadilek.metrics.WireCallListener;
+
+/**
+ * A browser session used by one test at a time.
+ *
+ * With session reuse enabled a session outlives a single test, so it keeps
+ * track of whether the cookie consent modal has already been accepted. The
+ * unprotected driver is kept as well because ThreadGuard only allows the owning
+ * thread to use the protected driver, while the sessions are quit from the
+ * suite teardown.
+ *
+ * With wire metrics enabled the driver is wrapped in an EventFiringDecorator
+ * before it is protected, so that every command of the tests is timed.
+ *
+ * A session warmed up by the SessionWarmer is started on a warm-up thread and
+ * bound to the test thread that leases it. A reused session is bound to the
+ * thread of the next test that takes it.
+ */
+public class BrowserSession {
+    private final WebDriver rawDriver;
+    private final WebDriver decorated;
+    private volatile WebDriver driver;
+    private final String browserName;
+    private final WireCallListener wireCallListener;
+    private boolean consentHandled = false;
+    private int testsRun = 0;
+    private long driverResolutionMillis = 0;
+    private long launchMillis = 0;
+    private File profileDirectory;
+    private final AtomicBoolean slotHeld = new AtomicBoolean();
+
+    /**
+     * Constructs a BrowserSession and binds the driver to the current thread.
+     *
+     * @param rawDriver   the freshly started local or remote driver
+     * @param browserName the browser property value used to start it
+     */
+    public BrowserSession(WebDriver rawDriver, String browserName) {
+        this(rawDriver, browserName, null);
+    }
+
+    /**
+     * Constructs a BrowserSession whose commands are timed by a listener and
+     * binds the driver to the current thread.
+     *
+     * @param rawDriver        the freshly started local or remote driver
+     * @param browserName      the browser property value used to start it
+     * @param wireCallListener the listener timing the commands, null to not
+     *                         decorate the driver
+     */
+    public BrowserSession(WebDriver rawDriver, String browserName, WireCallListener wireCallListener) {
+        this.rawDriver = rawDriver;
+        this.wireCallListener = wireCallListener;
+        this.decorated = wireCallListener == null ? rawDriver
+                : new EventFiringDecorator<WebDriver>(wireCallListener).decorate(rawDriver);
+        this.driver = ThreadGuard.protect(decorated);
+        this.browserName = browserName;
+    }
+
+    /**
+     * Binds the driver to the current thread, e.g. when a warm session is leased
+     * by a test thread. The thread that bound it before can no longer use it.
+     */
+    public void bindToCurrentThread() {
+        this.driver = ThreadGuard.protect(decorated);
+    }
+
+    /**
+     * @return the thread-protected driver for use by the tests
+     */
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * @return the listener timing the commands, null if wire metrics are off
+     */
+    public WireCallListener getWireCallListener() {
+        return wireCallListener;
+    }
+
+    /**
+     * @return the browser property value the session was started with
+     */
+    public String getBrowserName() {
+        return browserName;
+    }
+
+    /**
+     * @return true if the cookie consent modal was already accepted in this
+     *         session
+     */
+    public boolean isConsentHandled() {
+        return consentHandled;
+    }
+
+    public void setConsentHandled(boolean consentHandled) {
+        this.consentHandled = consentHandled;
+    }
+
+    /**
+     * Stores how long the session took to start, split into the driver binary
+     * resolution and the browser launch.
+     *
+     * @param driverResolutionMillis time spent resolving the driver binary
+     * @param launchMillis           time spent launching the browser
+     */
+    public void setStartupMillis(long driverResolutionMillis, long launchMillis) {
+        this.driverResolutionMillis = driverResolutionMillis;
+        this.launchMillis = launchMillis;
+    }
+
+    public long getDriverResolutionMillis() {
+        return driverResolutionMillis;
+    }
+
+    public long getLaunchMillis() {
+        return launchMillis;
+    }
+
+    /**
+     * @return the number of tests that were started in this session
+     */
+    public int getTestsRun() {
+        return testsRun;
+    }
+
+    /**
+     * Counts a test that is about to run in this session.
+     */
+    public void startTest() {
+        testsRun++;
+    }
+
+    /**
+     * Sets the cloned user data directory the browser was started with, see
+     * ProfileTemplate. It is deleted when the session quits.
+     *
+     * @param profileDirectory the cloned profile, null for a fresh profile
+     */
+    public void setProfileDirectory(File profileDirectory) {
+        this.profileDirectory = profileDirectory;
+    }
+
+    /**
+     * Quits the browser. Uses the unprotected driver so that any thread can close
+     * the session.
+     */
+    public void quit() {
+        try {
+            rawDriver.quit();
+        } finally {
+            if (profileDirectory != null) {
+                FileUtils.deleteQuietly(profileDirectory);
+            }
+            if (slotHeld.compareAndSet(true, false)) {
+                ConcurrencyController.getInstance().release();
+            }
+        }
+    }
+
+    /**
+     * Makes the session hold the ConcurrencyController slot it was launched with
+     * until it quits.
+     */
+    public void holdSessionSlot() {
+        slotHeld.set(true);
+    }
+}
@@ -0,0 +1,116 @@
+package sadilek.testcomponents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.bonigarcia.wdm.WebDriverManager;
+import io.github.bonigarcia.wdm.config.DriverManagerType;
+
+/**
+ * Resolves the driver binary (chromedriver, geckodriver, msedgedriver) once per
+ * JVM instead of once per test.
+ *
+ * WebDriverManager.setup() detects the browser version, looks up its cache and
+ * may check online for new driver versions. The resolved path is exported as
+ * the webdriver.*.driver system property which is shared by all threads, so
+ * doing it once is enough.
+ *
+ * The resolved paths are also written to a cache file. In offline mode the
+ * pinned path from that file is used directly and WebDriverManager is skipped.
+ */
+public class DriverBinaryResolver {
+    private static Logger log = LogManager.getLogger(DriverBinaryResolver.class);
+    private static Map<DriverManagerType, String> resolved = new ConcurrentHashMap<>();
+
+    private DriverBinaryResolver() {
+    }
+
+    /**
+     * Makes sure the driver binary of a browser is resolved and exported. Only the
+     * first call per browser and JVM does any work.
+     *
+     * @param type      the browser type
+     * @param cachePath the file the resolved driver paths are pinned in
+     * @param offline   use the pinned path without running WebDriverManager
+     */
+    public static void resolve(DriverManagerType type, String cachePath, boolean offline) {
+        resolved.computeIfAbsent(type, key -> resolveOnce(key, cachePath, offline));
+    }
+
+    /* resolve the driver binary of a browser and export its system property */
+    private static String resolveOnce(DriverManagerType type, String cachePath, boolean offline) {
+        Properties cache = readCache(cachePath);
+        String pinned = cache.getProperty(type.name());
+
+        if (offline && pinned != null && new File(pinned).isFile()) {
+            log.info("DRIVER: using pinned " + type.getNameLowerCase() + " driver " + pinned);
+            System.setProperty(getSystemProperty(type), pinned);
+            return pinned;
+        }
+
+        if (offline) {
+            log.warn("DRIVER: no pinned " + type.getNameLowerCase()
+                    + " driver found in " + cachePath + ", resolving with WebDriverManager");
+        }
+
+        WebDriverManager manager = WebDriverManager.getInstance(type);
+        manager.setup();
+        String path = manager.getDownloadedDriverPath();
+        log.info("DRIVER: resolved " + type.getNameLowerCase() + " driver " + path);
+
+        if (path != null && !path.equals(pinned)) {
+            pin(cachePath, type, path);
+        }
+        return path != null ? path : "";
+    }
+
+    /* the system property selenium reads the driver binary from */
+    private static String getSystemProperty(DriverManagerType type) {
+        switch (type) {
+            case FIREFOX:
+                return "webdriver.gecko.driver";
+            case EDGE:
+                return "webdriver.edge.driver";
+            default:
+                return "webdriver.chrome.driver";
+        }
+    }
+
+    private static Properties readCache(String cachePath) {
+        Properties cache = new Properties();
+        File file = new File(cachePath);
+        if (file.isFile()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                cache.load(fis);
+            } catch (IOException e) {
+                log.warn("DRIVER: could not read the driver cache " + cachePath + ": " + e.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    /* re-read the cache before writing so other browsers' entries are kept */
+    private static synchronized void pin(String cachePath, DriverManagerType type, String path) {
+        Properties cache = readCache(cachePath);
+        cache.setProperty(type.name(), path);
+
+        File file = new File(cachePath);
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            cache.store(fos, "driver binaries resolved by WebDriverManager");
+        } catch (IOException e) {
+            log.warn("DRIVER: could not write the driver cache " + cachePath + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package sadilek.testcomponents;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the duration of every test case across runs so that the next run can
+ * start the slowest cases first (longest-processing-time-first). With the long
+ * cases started early all data-provider threads finish close together instead
+ * of waiting on a few slow cases that started last.
+ *
+ * Durations are keyed by the FilterCase id (the facet values of the row). The
+ * duration of a run includes all retries of the case. The stored value is an
+ * exponentially weighted average so a single slow run does not dominate.
+ */
+public class DurationHistory {
+    /* weight of the newest run in the stored average */
+    private static final double SMOOTHING = 0.5;
+
+    private Logger log = LogManager.getLogger(DurationHistory.class);
+    private final File file;
+    private final Map<String, Long> durations = new ConcurrentHashMap<>();
+    private final Map<String, Long> currentRun = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a DurationHistory and loads the durations of previous runs.
+     *
+     * @param path the properties file the durations are stored in
+     */
+    public DurationHistory(String path) {
+        this.file = new File(path);
+        durations.putAll(read());
+    }
+
+    /**
+     * @return the file the durations are stored in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Calculates a checksum of the loaded durations, independent of the order and
+     * formatting of the file. Shards partitioning by the same snapshot log the
+     * same checksum.
+     *
+     * @return the CRC32 of the sorted durations as hex
+     */
+    public String getChecksum() {
+        CRC32 crc = new CRC32();
+        for (Map.Entry<String, Long> entry : new TreeMap<>(durations).entrySet()) {
+            crc.update((entry.getKey() + "=" + entry.getValue() + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Adds the duration of a finished attempt to the current run. Retries of the
+     * same case are summed up.
+     *
+     * @param caseId the FilterCase id
+     * @param millis the duration of the attempt
+     */
+    public void add(String caseId, long millis) {
+        currentRun.merge(caseId, millis, Long::sum);
+    }
+
+    /**
+     * Estimates the duration of a test case. Cases without history are treated as
+     * longer than every known case so they start early and get measured.
+     *
+     * @param filterCase the test case
+     * @return the estimated duration in millis
+     */
+    public long estimate(FilterCase filterCase) {
+        Long duration = durations.get(filterCase.getId());
+        if (duration != null) {
+            return duration;
+        }
+
+        long longest = 0;
+        for (long known : durations.values()) {
+            longest = Math.max(longest, known);
+        }
+        return longest + FilterCase.FACET_ORDER.length - filterCase.getFacetCount();
+    }
+
+    /**
+     * Sorts the data provider rows by estimated duration, longest first.
+     *
+     * @param rows the data provider rows
+     * @return the sorted rows
+     */
+    public Object[][] orderLongestFirst(Object[][] rows) {
+        List<Object[]> sorted = new ArrayList<>();
+        Collections.addAll(sorted, rows);
+        Collections.sort(sorted, Comparator
+                .comparingLong((Object[] row) -> -estimate(FilterCase.fromRow(row)))
+                .thenComparing(row -> FilterCase.fromRow(row).getId()));
+
+        log.info("DURATIONS: ordered " + rows.length + " test cases longest first (" + durations.size()
+                + " cases with history)");
+        return sorted.toArray(new Object[0][]);
+    }
+
+    /**
+     * Merges the durations of the current run into the history file. The file is
+     * locked and re-read first so that shards running on the same machine do not
+     * overwrite each other's results.
+     */
+    public synchronized void save() {
+        if (currentRun.isEmpty()) {
+            return;
+        }
+
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+
+        File lockFile = new File(file.getPath() + ".lock");
+        try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw")) {
+            FileLock lock = lockAccess.getChannel().lock();
+            try {
+                Map<String, Long> stored = read();
+                for (Map.Entry<String, Long> entry : currentRun.entrySet()) {
+                    Long previous = stored.get(entry.getKey());
+                    long updated = previous == null ? entry.getValue()
+                            : Math.round(SMOOTHING * entry.getValue() + (1 - SMOOTHING) * previous);
+                    stored.put(entry.getKey(), updated);
+                }
+
+                Properties properties = new Properties();
+                for (Map.Entry<String, Long> entry : stored.entrySet()) {
+                    properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+                }
+                try (FileOutputStream fos = new FileOutputStream(file)) {
+                    properties.store(fos, "test case durations in millis (exponentially weighted)");
+                }
+            } finally {
+                lock.release();
+            }
+
+            log.info("DURATIONS: saved " + currentRun.size() + " test case durations to " + file);
+            currentRun.clear();
+        } catch (IOException e) {
+            log.error("DURATIONS: could not save the duration history: " + e.getMessage(), e);
+        }
+    }
+
+    /* read the stored durations, an unreadable file counts as no history */
+    private Map<String, Long> read() {
+        Map<String, Long> stored = new ConcurrentHashMap<>();
+        if (!file.exists()) {
+            return stored;
+        }
+
+        Properties properties = new Properties();
+        try (FileInputStream fis = new FileInputStream(file)) {
+            properties.load(fis);
+            for (String key : properties.stringPropertyNames()) {
+                stored.put(key, Long.parseLong(properties.getProperty(key).trim()));
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("DURATIONS: could not read the duration history " + file + ": " + e.getMessage());
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,125 @@
+package sadilek.testcomponents;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import sadilek.helpers.Constants.TestData;
+
+/**
+ * A FilterCase wraps one row of the Excel data provider (the HashMap of facet
+ * names) and gives it a stable identity.
+ *
+ * The id only depends on the facet values, so the same spreadsheet row gets the
+ * same id in every JVM, on every machine and in every run. Sharding, duration
+ * history and result indexes are keyed by it.
+ *
+ * In a browser matrix run the row also names its browser, which then prefixes
+ * the id (e.g. "browser=firefox headless|produktart=Parfum"), so that the same
+ * row in two browsers is two test cases.
+ */
+public class FilterCase {
+    /* the facets in the order the test applies them with the setFilter* calls */
+    public static final String[] FACET_ORDER = { TestData.PRODUKTART, TestData.MARKE, TestData.HIGHLIGHT,
+            TestData.GESCHENKFUR, TestData.FURWEN };
+
+    private final HashMap<String, String> facets;
+    private final String id;
+
+    /**
+     * Constructs a FilterCase from the facet map of a data provider row.
+     *
+     * @param facets the facet names keyed by the TestData constants
+     */
+    public FilterCase(Map<String, String> facets) {
+        this.facets = new HashMap<>(facets);
+        this.id = buildId();
+    }
+
+    /**
+     * Creates a FilterCase from a data provider row (Object[] with the facet
+     * HashMap as first parameter).
+     *
+     * @param row the data provider row
+     * @return the FilterCase for the row
+     */
+    @SuppressWarnings("unchecked")
+    public static FilterCase fromRow(Object[] row) {
+        return new FilterCase((Map<String, String>) row[0]);
+    }
+
+    /**
+     * @return the stable id of the test case, e.g.
+     *         "produktart=Parfum|marke=Dior|highlight=Sale"
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the browser of the row in a browser matrix run, otherwise an empty
+     *         string
+     */
+    public String getBrowser() {
+        return get(TestData.BROWSER).trim();
+    }
+
+    /**
+     * @param facet one of the TestData constants
+     * @return the facet value or an empty string if not set
+     */
+    public String get(String facet) {
+        String value = facets.get(facet);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * @return the number of facets that are set (non-empty) for this case
+     */
+    public int getFacetCount() {
+        int count = 0;
+        for (String facet : FACET_ORDER) {
+            if (!get(facet).isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return a copy of the facet map as consumed by the test method
+     */
+    public HashMap<String, String> getFacets() {
+        return new HashMap<>(facets);
+    }
+
+    /**
+     * @return a data provider row for this case
+     */
+    public Object[] toRow() {
+        return new Object[] { getFacets() };
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+
+    /* join the browser, if any, and the non-empty facets in FACET_ORDER */
+    private String buildId() {
+        StringBuilder builder = new StringBuilder();
+        if (!getBrowser().isEmpty()) {
+            builder.append(TestData.BROWSER).append("=").append(getBrowser());
+        }
+        for (String facet : FACET_ORDER) {
+            String value = get(facet).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append("|");
+            }
+            builder.append(facet).append("=").append(value);
+        }
+        return builder.toString();
+    }
+}
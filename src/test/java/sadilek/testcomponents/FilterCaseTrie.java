@@ -0,0 +1,117 @@
+package sadilek.testcomponents;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Arranges test cases into a trie ordered like the setFilter* calls
+ * (produktart, marke, highlight, geschenkFur, furWen).
+ *
+ * Walking the trie depth-first visits cases that share their first facets one
+ * after another, so a warm browser only has to remove and apply the facets that
+ * differ between two neighbouring cases instead of rebuilding every
+ * combination from the landing page.
+ *
+ * Each child of the root (one produktart value) becomes one group that is
+ * walked in a single browser session; groups can run in parallel.
+ */
+public class FilterCaseTrie {
+    private Logger log = LogManager.getLogger(FilterCaseTrie.class);
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Adds a test case to the trie. The insertion order of siblings is kept, so
+     * an ordered input (e.g. longest first) stays ordered within each level.
+     *
+     * @param filterCase the case to add
+     */
+    public void add(FilterCase filterCase) {
+        Node node = root;
+        for (String facet : FilterCase.FACET_ORDER) {
+            node = node.children.computeIfAbsent(filterCase.get(facet).trim().toLowerCase(), key -> new Node());
+        }
+        node.cases.add(filterCase);
+        size++;
+    }
+
+    /**
+     * Returns the cases grouped by their first facet, each group in depth-first
+     * order.
+     *
+     * @return one list of cases per child of the root
+     */
+    public List<List<FilterCase>> getGroups() {
+        List<List<FilterCase>> groups = new ArrayList<>();
+        for (Node child : root.children.values()) {
+            List<FilterCase> group = new ArrayList<>();
+            collect(child, group);
+            groups.add(group);
+        }
+
+        log.info("TRIE: " + size + " test cases in " + groups.size() + " groups need " + countFilterChanges(groups)
+                + " filter changes instead of " + countFilterApplications() + " from scratch");
+        return groups;
+    }
+
+    /**
+     * Counts the facets that have to be removed or applied to get from one case
+     * to the next within a group.
+     *
+     * @param previous the facets currently applied, null for a fresh page
+     * @param next     the case to transition to
+     * @return the number of single facet removals and applications
+     */
+    public static int countChanges(FilterCase previous, FilterCase next) {
+        int changes = 0;
+        for (String facet : FilterCase.FACET_ORDER) {
+            String from = previous == null ? "" : previous.get(facet);
+            String to = next.get(facet);
+            if (!from.equalsIgnoreCase(to)) {
+                changes += (from.isEmpty() ? 0 : 1) + (to.isEmpty() ? 0 : 1);
+            }
+        }
+        return changes;
+    }
+
+    /* depth-first collection of the cases below a node */
+    private void collect(Node node, List<FilterCase> group) {
+        group.addAll(node.cases);
+        for (Node child : node.children.values()) {
+            collect(child, group);
+        }
+    }
+
+    private int countFilterChanges(List<List<FilterCase>> groups) {
+        int changes = 0;
+        for (List<FilterCase> group : groups) {
+            FilterCase previous = null;
+            for (FilterCase next : group) {
+                changes += countChanges(previous, next);
+                previous = next;
+            }
+        }
+        return changes;
+    }
+
+    private int countFilterApplications() {
+        List<FilterCase> all = new ArrayList<>();
+        collect(root, all);
+        int applications = 0;
+        for (FilterCase filterCase : all) {
+            applications += filterCase.getFacetCount();
+        }
+        return applications;
+    }
+
+    /* a trie node keyed by the normalized facet value of its level */
+    private static class Node {
+        private final Map<String, Node> children = new LinkedHashMap<>();
+        private final List<FilterCase> cases = new ArrayList<>();
+    }
+}
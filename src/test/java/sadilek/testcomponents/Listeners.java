@@ -1,6 +1,19 @@
 package sadilek.testcomponents;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.logging.log4j.Logger;
 import org.openqa.selenium.WebDriver;
 import org.apache.logging.log4j.LogManager;
@@ -11,25 +24,158 @@ import org.testng.ITestResult;
 import com.aventstack.extentreports.ExtentReports;
 import com.aventstack.extentreports.ExtentTest;
 import com.aventstack.extentreports.Status;
+import com.aventstack.extentreports.markuputils.MarkupHelper;
 
+import sadilek.exceptions.FacetMismatchError;
+import sadilek.helpers.Constants.TestData;
+import sadilek.helpers.ConcurrencyController;
+import sadilek.helpers.SiteGuard;
+import sadilek.helpers.TaskExecutors;
+import sadilek.metrics.CommandMetrics;
+import sadilek.metrics.LatencyStats;
+import sadilek.metrics.ListenerEvent;
+import sadilek.metrics.MetricsRegistry;
+import sadilek.metrics.MetricsServer;
+import sadilek.metrics.PageTiming;
 import sadilek.resources.ExtentReporterNG;
+import sadilek.resources.ReportMerger;
+import sadilek.resources.ResultIndex;
+import sadilek.resources.RunJournal;
 import sadilek.resources.ScreenshotTaker;
+import sadilek.resources.TimingRecorder;
+import sadilek.verification.MismatchEstimate;
+import sadilek.verification.ProductMismatch;
+import sadilek.verification.VerificationLedger;
 
 /**
  * This class is responsible for listening to test events and logging them using
  * Extent Reports.
+ *
+ * Every browser of the run gets its own report, timings and result index in its
+ * report directory. A browser matrix run additionally merges them into one
+ * cross-browser report when the suite finishes.
  */
 public class Listeners implements ITestListener {
     private Logger log = LogManager.getLogger(Listeners.class);
 
-    ExtentTest test;
-    ExtentReports extent;
-    ThreadLocal<ExtentTest> extentTest = new ThreadLocal<>();
+    /* the outputs by browser, filled in onStart; the first one is the default */
+    Map<String, BrowserReport> reports = new LinkedHashMap<>();
+    List<String> matrixBrowsers;
+    String shardLabel;
+    DurationHistory durationHistory;
+    AtomicLong totalStartupMillis = new AtomicLong();
+    AtomicLong totalTestMillis = new AtomicLong();
+    File wireMetricsFile;
+    RunJournal runJournal;
+    CommandMetrics suiteWireMetrics = new CommandMetrics();
+    List<String> wireMetricsTests = Collections.synchronizedList(new ArrayList<>());
 
     @Override
     public void onStart(ITestContext context) {
         String browserName = (String) context.getAttribute("browserName");
-        extent = ExtentReporterNG.getReportObject(browserName);
+        shardLabel = (String) context.getAttribute("shardLabel");
+
+        @SuppressWarnings("unchecked") // set by BaseTest as a list of browser names
+        List<String> browsers = (List<String>) context.getAttribute("browserMatrix");
+        matrixBrowsers = browsers;
+        for (String browser : browsers != null ? browsers : Collections.singletonList(browserName)) {
+            reports.put(browser, new BrowserReport(browser, shardLabel));
+        }
+
+        String wireMetricsDirectory = browsers != null
+                ? ExtentReporterNG.getMatrixDirectory(ExtentReporterNG.getBuildNumber())
+                : ExtentReporterNG.getReportDirectory(browserName);
+        wireMetricsFile = new File(wireMetricsDirectory,
+                "wire-metrics" + (shardLabel != null ? "_" + shardLabel : "") + ".json");
+
+        String durationHistoryPath = (String) context.getAttribute("durationHistory");
+        if (durationHistoryPath != null) {
+            durationHistory = new DurationHistory(durationHistoryPath);
+        }
+
+        startMetricsServer((String) context.getAttribute("metricsPort"));
+
+        String runId = (String) context.getAttribute("runId");
+        if (runId != null) {
+            runJournal = new RunJournal(runId, shardLabel);
+            setSystemInfo("Run id", runId);
+            addResumedResults((String) context.getAttribute("resumedRunId"));
+        }
+
+        String sampleSeed = (String) context.getAttribute("sampleSeed");
+        if (sampleSeed != null) {
+            log.info("SAMPLE: seed " + sampleSeed);
+            setSystemInfo("Sample seed", sampleSeed);
+        }
+    }
+
+    /* the outputs of a browser, the default ones for tests outside a matrix run */
+    private BrowserReport getReport(String browser) {
+        BrowserReport report = browser != null ? reports.get(browser) : null;
+        return report != null ? report : reports.values().iterator().next();
+    }
+
+    /* the browser a test runs in */
+    private String getBrowser(ITestResult result) {
+        String browser = BrowserMatrix.getBrowser(result.getParameters());
+        return browser != null ? browser : (String) result.getTestContext().getAttribute("browserName");
+    }
+
+    private void setSystemInfo(String name, String value) {
+        for (BrowserReport report : reports.values()) {
+            report.extent.setSystemInfo(name, value);
+        }
+    }
+
+    /**
+     * Adds the test cases an earlier attempt of a resumed run completed to Extent
+     * Reports, so that the report of the resumed run covers the whole run. The
+     * interrupted attempt never flushed its report, so the outcomes are taken from
+     * the journal.
+     * 
+     * @param resumedRunId the id of the resumed run, may be null
+     */
+    private void addResumedResults(String resumedRunId) {
+        if (resumedRunId == null) {
+            return;
+        }
+
+        Map<String, RunJournal.Entry> completed = RunJournal.readCompleted(resumedRunId);
+        for (RunJournal.Entry entry : completed.values()) {
+            Status status = "PASS".equals(entry.getStatus()) ? Status.PASS
+                    : "FAIL".equals(entry.getStatus()) ? Status.FAIL : Status.SKIP;
+            getReport(BrowserMatrix.getBrowser(entry.getCaseId())).extent.createTest(entry.getCaseId())
+                    .assignCategory("resumed").log(status,
+                    "completed in an earlier attempt of run " + resumedRunId + " in " + entry.getDurationMillis()
+                            + "ms");
+        }
+        log.info("RESUME: resuming run " + resumedRunId + " with " + completed.size() + " completed test cases");
+    }
+
+    /**
+     * Starts the OpenMetrics endpoint if a metrics port is set, so that the run can
+     * be scraped live.
+     * 
+     * @param port the metricsPort property, may be null or empty
+     */
+    private void startMetricsServer(String port) {
+        if (port == null || port.trim().isEmpty()) {
+            return;
+        }
+
+        ConcurrencyController controller = ConcurrencyController.getInstance();
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        registry.registerGauge("browser_sessions_active", "Browser sessions running a test.",
+                controller::getActiveSessions);
+        registry.registerGauge("browser_sessions_limit", "Current limit of parallel browser sessions.",
+                controller::getLimit);
+        registry.registerGauge("site_circuit_state",
+                "Circuit breaker of the site guard (0 closed, 1 open, 2 half open).", () -> SiteGuard.getInstance().getState().ordinal());
+        try {
+            MetricsServer.start(Integer.parseInt(port.trim()));
+        } catch (IOException | NumberFormatException e) {
+            log.error("METRICS: could not start the metrics endpoint on port " + port + ": " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -39,12 +185,18 @@ public class Listeners implements ITestListener {
      */
     @Override
     public void onTestFailure(ITestResult result) {
+        ListenerEvent event = ListenerEvent.start("onTestFailure", getCaseId(result));
+        MetricsRegistry.getInstance().countTest("failed");
         ITestContext context = result.getTestContext();
-        WebDriver threadSafeDriver = ((BaseTest) result.getInstance()).getDriver();
+        TestCaseContext testCase = TestCaseContext.of(result);
+        ExtentTest extentTest = testCase.getExtentTest();
+        WebDriver threadSafeDriver = testCase.getDriver();
 
         /* Capture the failure reason so we can process the response */
         Throwable failureReason = result.getThrowable();
 
+        ConcurrencyController.getInstance().recordOutcome(failureReason);
+
         log.info("failure message: " + failureReason.getMessage());
         log.info("throwable: " + failureReason);
 
@@ -52,7 +204,7 @@ public class Listeners implements ITestListener {
          * Take a screenshot using our utility class from the utils folder.
          */
         ScreenshotTaker screenshotTaker = new ScreenshotTaker(threadSafeDriver);
-        String browser = (String) context.getAttribute("browserName");
+        String browser = getBrowser(result);
         screenshotTaker.setBrowser(browser);
 
         String filePath = null;
@@ -62,14 +214,107 @@ public class Listeners implements ITestListener {
             e.printStackTrace();
         }
 
-        extentTest.get().addScreenCaptureFromPath(filePath, result.getMethod().getMethodName());
+        extentTest.addScreenCaptureFromPath(filePath, result.getMethod().getMethodName());
         log.info("DEBUG: added screenshot: " + filePath);
 
-        extentTest.get().log(Status.FAIL, "FAILED");
-        extentTest.get().fail(failureReason.getMessage());
-        extentTest.get().fail(result.getThrowable());
+        extentTest.log(Status.FAIL, "FAILED");
+        extentTest.fail(failureReason.getMessage());
+        if (failureReason instanceof FacetMismatchError) {
+            logMismatchTable(extentTest, (FacetMismatchError) failureReason);
+        }
+        extentTest.fail(result.getThrowable());
 
         log.info("TEST CASED FAILED: " + result.getMethod().getMethodName());
+        recordTiming(result, "FAIL");
+        event.finish("FAIL");
+    }
+
+    /**
+     * Logs the WebDriver commands of a test by command and by calling page-object
+     * method and adds them to the suite totals. Only recorded when wireMetrics is
+     * enabled.
+     * 
+     * @param result the result of the test
+     * @param caseId the id of the test case
+     * @param status PASS, FAIL, SKIP or RETRY
+     */
+    private void recordWireMetrics(ITestResult result, String caseId, String status) {
+        Object attribute = result.getAttribute(CommandMetrics.ATTRIBUTE);
+        if (!(attribute instanceof CommandMetrics)) {
+            return;
+        }
+
+        CommandMetrics metrics = (CommandMetrics) attribute;
+        suiteWireMetrics.merge(metrics);
+        wireMetricsTests.add("{\"caseId\":" + CommandMetrics.quote(caseId) + ",\"status\":\"" + status
+                + "\",\"metrics\":" + metrics.toJson() + "}");
+
+        LatencyStats total = metrics.getTotal();
+        log.info("WIRE: " + caseId + " issued " + total.getCount() + " WebDriver commands taking "
+                + total.getTotalMillis() + "ms");
+        ExtentTest extentTest = TestCaseContext.of(result).getExtentTest();
+        if (extentTest != null) {
+            extentTest.info("WebDriver commands: " + total.getCount() + " taking " + total.getTotalMillis()
+                    + "ms");
+            extentTest.info(MarkupHelper.createTable(toRows("command", metrics.getByCommand())));
+            extentTest.info(MarkupHelper.createTable(toRows("caller", metrics.getByCaller())));
+        }
+    }
+
+    /* one table row per command or caller, slowest first */
+    private String[][] toRows(String name, Map<String, LatencyStats> stats) {
+        List<Map.Entry<String, LatencyStats>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().getTotalMillis(), a.getValue().getTotalMillis()));
+
+        String[][] rows = new String[entries.size() + 1][];
+        rows[0] = new String[] { name, "count", "total ms", "mean ms", "p50 ms", "p95 ms", "max ms" };
+        for (int i = 0; i < entries.size(); i++) {
+            LatencyStats stat = entries.get(i).getValue();
+            rows[i + 1] = new String[] { entries.get(i).getKey(), String.valueOf(stat.getCount()),
+                    String.valueOf(stat.getTotalMillis()), String.format("%.1f", stat.getMeanMillis()),
+                    String.valueOf(stat.getPercentileMillis(0.5)), String.valueOf(stat.getPercentileMillis(0.95)),
+                    String.valueOf(stat.getMaxMillis()) };
+        }
+        return rows;
+    }
+
+    /* write the suite totals and the metrics of every test to the JSON summary */
+    private void writeWireMetrics() {
+        StringBuilder json = new StringBuilder("{\"bucketBoundsMillis\":[");
+        for (int i = 0; i < LatencyStats.BUCKET_BOUNDS_MILLIS.length; i++) {
+            json.append(i == 0 ? "" : ",").append(LatencyStats.BUCKET_BOUNDS_MILLIS[i]);
+        }
+        json.append("],\"suite\":").append(suiteWireMetrics.toJson()).append(",\"tests\":[");
+        synchronized (wireMetricsTests) {
+            json.append(String.join(",", wireMetricsTests));
+        }
+        json.append("]}");
+
+        wireMetricsFile.getParentFile().mkdirs();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(wireMetricsFile))) {
+            writer.println(json);
+            log.info("WIRE: wrote " + wireMetricsFile);
+        } catch (IOException e) {
+            log.error("WIRE: could not write " + wireMetricsFile + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Logs all products collected by a soft verification pass as one table.
+     * 
+     * @param extentTest the Extent test of the failed test
+     * @param error      the error holding the mismatches
+     */
+    private void logMismatchTable(ExtentTest extentTest, FacetMismatchError error) {
+        List<ProductMismatch> mismatches = error.getMismatches();
+        String[][] rows = new String[mismatches.size() + 1][];
+        rows[0] = new String[] { "product", "facet", "expected", "actual" };
+        for (int i = 0; i < mismatches.size(); i++) {
+            ProductMismatch mismatch = mismatches.get(i);
+            rows[i + 1] = new String[] { mismatch.getProductUrl(), mismatch.getFacet(), mismatch.getExpected(),
+                    mismatch.getActual() };
+        }
+        extentTest.fail(MarkupHelper.createTable(rows));
     }
 
     /**
@@ -79,11 +324,19 @@ public class Listeners implements ITestListener {
      */
     @Override
     public void onTestSkipped(ITestResult result) {
-        extentTest.get().log(Status.SKIP, "SKIPPED");
-        extentTest.get().log(Status.SKIP, result.getThrowable().getMessage());
-        extentTest.get().log(Status.SKIP, result.getThrowable());
+        ListenerEvent event = ListenerEvent.start("onTestSkipped", getCaseId(result));
+        ConcurrencyController.getInstance().recordOutcome(result.getThrowable());
+
+        ExtentTest extentTest = TestCaseContext.of(result).getExtentTest();
+        extentTest.log(Status.SKIP, "SKIPPED");
+        extentTest.log(Status.SKIP, result.getThrowable().getMessage());
+        extentTest.log(Status.SKIP, result.getThrowable());
 
         log.info("TEST CASE SKIPPED" + result.getMethod().getMethodName());
+        String status = result.wasRetried() ? "RETRY" : "SKIP";
+        MetricsRegistry.getInstance().countTest(result.wasRetried() ? "retried" : "skipped");
+        recordTiming(result, status);
+        event.finish(status);
     }
 
     /**
@@ -93,8 +346,14 @@ public class Listeners implements ITestListener {
      */
     @Override
     public void onTestStart(ITestResult result) {
+        /* page objects attach the case id of their test context to their flight recorder events */
+        String caseId = getCaseId(result);
+        TestCaseContext.of(result).setCaseId(caseId);
+        ListenerEvent event = ListenerEvent.start("onTestStart", caseId);
+        MetricsRegistry.getInstance().countTest("started");
+
         ITestContext context = result.getTestContext();
-        String browserName = (String) context.getAttribute("browserName");
+        String browserName = getBrowser(result);
 
         /*
          * Retrieve the produktart, marke, highlight, etc variables from the test
@@ -114,6 +373,10 @@ public class Listeners implements ITestListener {
             int count = 1;
             testCaseName.append("[");
             for (String key : testParameters.keySet()) {
+                /* the browser already leads the title */
+                if (TestData.BROWSER.equals(key)) {
+                    continue;
+                }
                 if (testParameters.get(key) != null && !testParameters.get(key).isEmpty()) {
                     if (count > 1) {
                         testCaseName.append(", ");
@@ -123,18 +386,40 @@ public class Listeners implements ITestListener {
                 count++;
             }
             testCaseName.append("]");
+        } else if (parameters != null && parameters.length > 0 && parameters[0] instanceof List) {
+            /* a group of test cases walked as a prefix tree */
+            List<?> group = (List<?>) parameters[0];
+            testCaseName.append("[group of ").append(group.size()).append(" cases");
+            if (!group.isEmpty() && group.get(0) instanceof HashMap) {
+                @SuppressWarnings("unchecked") // Safe type-check was done using instanceof
+                HashMap<String, String> first = (HashMap<String, String>) group.get(0);
+                testCaseName.append(": ").append(new FilterCase(first).getId());
+            }
+            testCaseName.append("]");
         }
         log.info("TEST CASE STARTED : Thread #" + Thread.currentThread().getId() + " "
                 + result.getMethod().getMethodName() + " : " + testCaseName.toString());
 
         /* set up an Extent Report instance using the method name */
-        test = extent.createTest(result.getMethod().getMethodName() + " : " + testCaseName.toString());
+        ExtentTest extentTest = getReport(browserName).extent
+                .createTest(result.getMethod().getMethodName() + " : " + testCaseName.toString())
+                .assignCategory(browserName);
 
-        /* assign the test to a thread-local instance to enable parallel execution */
-        extentTest.set(test);
+        /* keep the Extent test in the context of the test to enable parallel execution */
+        TestCaseContext.of(result).setExtentTest(extentTest);
 
         /* log the browser being used in Extent Reports */
-        extentTest.get().log(Status.INFO, "browser used: " + browserName);
+        extentTest.log(Status.INFO, "browser used: " + browserName);
+        event.finish("STARTED");
+    }
+
+    /* the stable id of a test case, the method name for grouped test cases, which record each case on their own */
+    private String getCaseId(ITestResult result) {
+        Object[] parameters = result.getParameters();
+        if (parameters != null && parameters.length > 0 && parameters[0] instanceof HashMap) {
+            return FilterCase.fromRow(parameters).getId();
+        }
+        return result.getMethod().getMethodName();
     }
 
     /**
@@ -144,8 +429,169 @@ public class Listeners implements ITestListener {
      */
     @Override
     public void onTestSuccess(ITestResult result) {
+        ListenerEvent event = ListenerEvent.start("onTestSuccess", getCaseId(result));
+        MetricsRegistry.getInstance().countTest("passed");
         log.info("TEST CASE SUCESS: " + result.getMethod().getMethodName());
-        extentTest.get().log(Status.PASS, "PASSED");
+        ConcurrencyController.getInstance().recordOutcome(null);
+        TestCaseContext.of(result).getExtentTest().log(Status.PASS, "PASSED");
+        recordTiming(result, "PASS");
+        event.finish("PASS");
+    }
+
+    /**
+     * Writes the duration of a finished test case to the timings file of the run.
+     * The browser startup phase (driver resolution and browser launch) happens
+     * before the test method and is reported separately.
+     * 
+     * @param result the finished test
+     * @param status PASS, FAIL, SKIP or RETRY
+     */
+    private void recordTiming(ITestResult result, String status) {
+        long duration = result.getEndMillis() - result.getStartMillis();
+        long startup = 0;
+
+        /* the startup cost belongs to the first test of a session */
+        TestCaseContext testCase = TestCaseContext.of(result);
+        BrowserSession session = testCase.getSession();
+        if (session != null && session.getTestsRun() == 1) {
+            startup = session.getDriverResolutionMillis() + session.getLaunchMillis();
+            if (testCase.getExtentTest() != null) {
+                testCase.getExtentTest().log(Status.INFO, "startup: driver resolution " + session.getDriverResolutionMillis()
+                        + "ms, browser launch " + session.getLaunchMillis() + "ms");
+            }
+        }
+        logMismatchEstimates(result);
+        logPageTimings(result);
+        totalStartupMillis.addAndGet(startup);
+        totalTestMillis.addAndGet(duration);
+
+        Object[] parameters = result.getParameters();
+        BrowserReport report = getReport(getBrowser(result));
+        if (parameters != null && parameters.length > 0 && parameters[0] instanceof List) {
+            recordWireMetrics(result, result.getMethod().getMethodName(), status);
+            recordGroup(report, (List<?>) parameters[0], testCase, status, result);
+            return;
+        }
+        if (parameters == null || parameters.length == 0
+                || !(parameters[0] instanceof HashMap)) {
+            recordWireMetrics(result, result.getMethod().getMethodName(), status);
+            return;
+        }
+
+        String caseId = FilterCase.fromRow(parameters).getId();
+        recordOutcome(report, caseId, status, result.getStartMillis(), duration, result.getThrowable());
+        recordWireMetrics(result, caseId, status);
+        report.timings.record(caseId, status, result.getStartMillis(), duration, startup);
+
+        /* retries are added up so the history reflects the full cost of a case */
+        if (durationHistory != null) {
+            durationHistory.add(caseId, duration);
+        }
+    }
+
+    /**
+     * Records every case of a trie group with its own outcome and elapsed time, as
+     * recorded by the test in its context. A case the group did not get to, e.g.
+     * because the group was skipped, takes the outcome of the group.
+     * 
+     * @param report   the outputs of the browser the test ran in
+     * @param group    the rows of the group
+     * @param testCase the context of the test
+     * @param status   PASS, FAIL, SKIP or RETRY of the group
+     * @param result   the finished test
+     */
+    private void recordGroup(BrowserReport report, List<?> group, TestCaseContext testCase, String status,
+            ITestResult result) {
+        Map<String, TestCaseContext.CaseOutcome> outcomes = testCase.getCaseOutcomes();
+        for (Object row : group) {
+            if (!(row instanceof HashMap)) {
+                continue;
+            }
+
+            String caseId = FilterCase.fromRow(new Object[] { row }).getId();
+            TestCaseContext.CaseOutcome outcome = outcomes.get(caseId);
+            if (outcome == null) {
+                recordOutcome(report, caseId, status, result.getStartMillis(), 0, result.getThrowable());
+                continue;
+            }
+
+            recordOutcome(report, caseId, outcome.getStatus(), outcome.getStartMillis(), outcome.getDurationMillis(),
+                    outcome.getFailure());
+            report.timings.record(caseId, outcome.getStatus(), outcome.getStartMillis(),
+                    outcome.getDurationMillis(), 0);
+            if (durationHistory != null) {
+                durationHistory.add(caseId, outcome.getDurationMillis());
+            }
+        }
+    }
+
+    /**
+     * Adds the final outcome of a test case to the run journal and the result
+     * index.
+     * 
+     * @param report         the outputs of the browser the test ran in
+     * @param caseId         the id of the test case
+     * @param status         PASS, FAIL, SKIP or RETRY
+     * @param startMillis    the start time of the test case
+     * @param durationMillis the duration of the test case
+     * @param failure        the reason of a failure or skip, may be null
+     */
+    private void recordOutcome(BrowserReport report, String caseId, String status, long startMillis,
+            long durationMillis, Throwable failure) {
+        /* a retried attempt is not final, its case runs again */
+        if ("RETRY".equals(status)) {
+            return;
+        }
+
+        if (runJournal != null) {
+            runJournal.record(caseId, status, startMillis, durationMillis);
+        }
+        report.results.record(caseId, status, durationMillis, failure);
+    }
+
+    /**
+     * Logs the estimated mismatch rates of a test verified in sample mode to
+     * Extent Reports.
+     * 
+     * @param result the finished test
+     */
+    private void logMismatchEstimates(ITestResult result) {
+        TestCaseContext testCase = TestCaseContext.of(result);
+        ExtentTest extentTest = testCase.getExtentTest();
+        if (extentTest == null) {
+            return;
+        }
+
+        for (MismatchEstimate estimate : testCase.getMismatchEstimates()) {
+            extentTest.info("sample: " + estimate);
+        }
+    }
+
+    /* the page timings the page objects recorded into the context of a test, as one table */
+    private void logPageTimings(ITestResult result) {
+        List<PageTiming> timings = TestCaseContext.of(result).getTimings();
+        ExtentTest extentTest = TestCaseContext.of(result).getExtentTest();
+        if (timings.isEmpty() || extentTest == null) {
+            return;
+        }
+
+        String[] metrics = { "ttfb", "domContentLoaded", "load", "lcp", "duration", "transferSize", "resourceCount" };
+        String[][] rows = new String[timings.size() + 1][];
+        rows[0] = new String[metrics.length + 2];
+        rows[0][0] = "page";
+        rows[0][1] = "url";
+        System.arraycopy(metrics, 0, rows[0], 2, metrics.length);
+        for (int i = 0; i < timings.size(); i++) {
+            PageTiming timing = timings.get(i);
+            rows[i + 1] = new String[metrics.length + 2];
+            rows[i + 1][0] = timing.getPageType();
+            rows[i + 1][1] = timing.getUrl();
+            for (int j = 0; j < metrics.length; j++) {
+                Double value = timing.get(metrics[j]);
+                rows[i + 1][j + 2] = value != null ? PageTiming.format(value) : "";
+            }
+        }
+        extentTest.info(MarkupHelper.createTable(rows));
     }
 
     /**
@@ -156,8 +602,91 @@ public class Listeners implements ITestListener {
     @Override
     public void onFinish(ITestContext context) {
         log.info("TEST FINISHED ");
+        log.info("TIMINGS: browser startup " + totalStartupMillis.get() + "ms, test execution " + totalTestMillis.get()
+                + "ms");
+        setSystemInfo("Browser startup time", totalStartupMillis.get() + "ms");
+        setSystemInfo("Test execution time", totalTestMillis.get() + "ms");
+
+        if (!wireMetricsTests.isEmpty()) {
+            LatencyStats total = suiteWireMetrics.getTotal();
+            log.info("WIRE: " + total.getCount() + " WebDriver commands took " + total.getTotalMillis() + "ms");
+            setSystemInfo("WebDriver commands", total.getCount() + " in " + total.getTotalMillis() + "ms");
+            writeWireMetrics();
+        }
+
+        /* flush the Extent instances otherwise they won't write to file */
+        ScreenshotTaker.shutdown();
+        flushReports();
+        mergeBrowserReports();
+
+        if (durationHistory != null) {
+            durationHistory.save();
+        }
+
+        String ledgerPath = (String) context.getAttribute("verificationLedger");
+        if (ledgerPath != null && !ledgerPath.trim().isEmpty()) {
+            VerificationLedger.load(ledgerPath.trim()).save();
+        }
 
-        /* flush the Extent instance otherwise it won't write to file */
-        extent.flush();
+        MetricsServer.stop();
+    }
+
+    /* flush the report and save the result index of every browser at the same time */
+    private void flushReports() {
+        ExecutorService flusher = TaskExecutors.newTaskExecutor("report-flush");
+        List<Future<?>> flushes = new ArrayList<>();
+        for (BrowserReport report : reports.values()) {
+            flushes.add(flusher.submit(() -> {
+                report.extent.flush();
+                report.results.save();
+            }));
+        }
+        for (Future<?> flush : flushes) {
+            try {
+                flush.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("REPORT: could not flush a report: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        flusher.shutdown();
+    }
+
+    /**
+     * Merges the reports of the browsers of a matrix run into one cross-browser
+     * report, with the tests categorized by browser. Shards are merged by the
+     * ShardLauncher once all of them finished.
+     */
+    private void mergeBrowserReports() {
+        if (matrixBrowsers == null || matrixBrowsers.size() < 2 || shardLabel != null) {
+            return;
+        }
+
+        List<File> directories = new ArrayList<>();
+        for (String browser : matrixBrowsers) {
+            directories.add(new File(ExtentReporterNG.getReportDirectory(browser)));
+        }
+        try {
+            ReportMerger.mergeBrowsers(
+                    new File(ExtentReporterNG.getMatrixDirectory(ExtentReporterNG.getBuildNumber())), directories);
+        } catch (IOException e) {
+            log.error("MATRIX: could not merge the browser reports: " + e.getMessage(), e);
+        }
+    }
+
+    /* the report, timings and result index of one browser */
+    private static class BrowserReport {
+        private final ExtentReports extent;
+        private final TimingRecorder timings;
+        private final ResultIndex results;
+
+        private BrowserReport(String browserName, String shardLabel) {
+            String directory = ExtentReporterNG.getReportDirectory(browserName);
+            this.extent = ExtentReporterNG.getReportObject(browserName, shardLabel);
+            this.timings = new TimingRecorder(directory, shardLabel);
+            this.results = new ResultIndex(directory, shardLabel);
+        }
     }
 }
@@ -0,0 +1,174 @@
+package sadilek.testcomponents;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A browser profile prepared once per run and cloned for every session, so
+ * that a new browser starts with the cookie consent accepted and its caches
+ * primed instead of from a fresh profile.
+ *
+ * The template of a browser is built on its first launch by a browser that
+ * opens the shop, accepts the consent and quits. Every session then gets a
+ * copy of it as its user data directory, by default on the tmpfs /dev/shm so
+ * that copying is cheap, and the copy is deleted when the session quits.
+ *
+ * Only Chromium based browsers (Chrome and Edge) are supported since they take
+ * the profile as --user-data-dir; other browsers start with a fresh profile.
+ */
+public class ProfileTemplate {
+    /* files that tie a profile to the browser process that last used it */
+    private static final Set<String> LOCK_FILES = new HashSet<>(
+            Arrays.asList("SingletonLock", "SingletonSocket", "SingletonCookie", "lockfile"));
+
+    private Logger log = LogManager.getLogger(ProfileTemplate.class);
+
+    private final File root;
+    private final TemplateBuilder builder;
+    /* the template directory by browser family, null once building it failed */
+    private final Map<String, File> templates = new ConcurrentHashMap<>();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Prepares the template of a browser.
+     */
+    public interface TemplateBuilder {
+        /**
+         * Starts the browser with the given user data directory, accepts the
+         * cookie consent and quits it.
+         *
+         * @param browserName the browser property value, e.g. "chrome headless"
+         * @param profile     the empty template directory
+         * @throws Exception if the browser could not be started or prepared
+         */
+        void build(String browserName, File profile) throws Exception;
+    }
+
+    /**
+     * Constructs a ProfileTemplate.
+     *
+     * @param root    the directory the templates and clones are created in, null
+     *                for /dev/shm or else the temp directory
+     * @param builder prepares the templates
+     */
+    public ProfileTemplate(File root, TemplateBuilder builder) {
+        if (root == null) {
+            File shm = new File("/dev/shm");
+            root = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        }
+        this.root = new File(root, "douglas-profiles-" + UUID.randomUUID().toString().substring(0, 8));
+        this.builder = builder;
+    }
+
+    /**
+     * @param browserName the browser property value
+     * @return true if the browser can be started from a cloned profile
+     */
+    public static boolean supports(String browserName) {
+        return browserName.contains("chrome") || browserName.contains("edge");
+    }
+
+    /**
+     * Clones the template of a browser into a new user data directory, building
+     * the template first if this is the first session of the browser.
+     *
+     * @param browserName the browser property value, e.g. "chrome headless"
+     * @return the cloned directory or null if the browser has no template
+     */
+    public File createClone(String browserName) {
+        if (!supports(browserName)) {
+            return null;
+        }
+
+        File template = getTemplate(browserName);
+        if (template == null) {
+            return null;
+        }
+
+        long start = System.currentTimeMillis();
+        File clone = new File(root, "session-" + UUID.randomUUID());
+        try {
+            FileUtils.copyDirectory(template, clone, file -> !LOCK_FILES.contains(file.getName()));
+        } catch (IOException e) {
+            log.error("PROFILE: could not clone " + template + ": " + e.getMessage(), e);
+            delete(clone);
+            return null;
+        }
+        log.info("PROFILE: cloned the " + getFamily(browserName) + " template in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return clone;
+    }
+
+    /**
+     * Deletes a cloned profile after its browser quit.
+     *
+     * @param profile the cloned directory, may be null
+     */
+    public void delete(File profile) {
+        if (profile == null) {
+            return;
+        }
+        try {
+            FileUtils.deleteDirectory(profile);
+        } catch (IOException e) {
+            log.warn("PROFILE: could not delete " + profile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the templates and all clones that are left.
+     */
+    public void deleteAll() {
+        delete(root);
+    }
+
+    /* build the template of a browser family once, the first caller builds it */
+    private File getTemplate(String browserName) {
+        String family = getFamily(browserName);
+        if (failed.contains(family)) {
+            return null;
+        }
+
+        File template = templates.get(family);
+        if (template != null) {
+            return template;
+        }
+
+        synchronized (this) {
+            if (templates.containsKey(family) || failed.contains(family)) {
+                return templates.get(family);
+            }
+
+            long start = System.currentTimeMillis();
+            template = new File(root, "template-" + family);
+            try {
+                template.mkdirs();
+                builder.build(browserName, template);
+                templates.put(family, template);
+                log.info("PROFILE: built the " + family + " template in " + (System.currentTimeMillis() - start)
+                        + "ms");
+                return template;
+            } catch (Exception e) {
+                /* the sessions of this browser start from a fresh profile */
+                log.error("PROFILE: could not build the " + family + " template: " + e.getMessage(), e);
+                failed.add(family);
+                delete(template);
+                return null;
+            }
+        }
+    }
+
+    private static String getFamily(String browserName) {
+        return browserName.contains("edge") ? "edge" : "chrome";
+    }
+}
@@ -6,6 +6,10 @@ import java.util.Map;
 import org.testng.IRetryAnalyzer;
 import org.testng.ITestResult;
 
+import sadilek.exceptions.FacetMismatchError;
+import sadilek.exceptions.SiteBlockedException;
+import sadilek.metrics.MetricsRegistry;
+
 /**
  * The Retry class enables a test to be retried if it fails.
  * Implements IRetryAnalyzer that works nicely with TestNG
@@ -41,6 +45,25 @@ public class Retry extends BaseTest implements IRetryAnalyzer {
      */
     @Override
     public boolean retry(ITestResult result) {
+        /*
+         * products that hold a different value will not match on a rerun either, so
+         * do not spend another browser session on them
+         */
+        if (result.getThrowable() instanceof FacetMismatchError
+                && ((FacetMismatchError) result.getThrowable()).isDeterministic()) {
+            log.info("RETRY: not retrying " + result.getMethod().getMethodName()
+                    + " since its product mismatches are deterministic");
+            return false;
+        }
+
+        /* while the site denies access a rerun only prolongs the block */
+        for (Throwable cause = result.getThrowable(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof SiteBlockedException) {
+                log.info("RETRY: not retrying " + result.getMethod().getMethodName() + " since " + cause.getMessage());
+                return false;
+            }
+        }
+
         Object[] parameters = result.getParameters();
         String methodName = result.getMethod().getMethodName();
         String key = methodName;
@@ -57,6 +80,7 @@ public class Retry extends BaseTest implements IRetryAnalyzer {
 
         if (currentCount < maxRetry) {
             retryCountMap.put(key, currentCount + 1);
+            MetricsRegistry.getInstance().countRetry("Retry");
             return true;
         }
         return false;
@@ -0,0 +1,340 @@
+package sadilek.testcomponents;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import sadilek.helpers.TaskExecutors;
+
+/**
+ * Launches browser sessions in the background ahead of demand, so that a test
+ * thread leases a session that is already past navigation and the cookie
+ * consent instead of waiting for a browser to start.
+ *
+ * The data providers schedule their rows by browser. For every browser the
+ * warmer keeps as many sessions ready as the pending rows can still use,
+ * limited by the parallelism of the suite and by the number of idle warm
+ * sessions allowed. A session closed after a failure is replaced while there
+ * are rows left.
+ *
+ * Every test row counts once against the pending rows, however often it is
+ * retried. A warm session takes a ConcurrencyController slot when it is
+ * launched like any other session, so the warmer never opens more sessions
+ * than the controller allows.
+ *
+ * A warm session is bound to its test thread with ThreadGuard when it is
+ * leased. The warmer is a singleton because all data-provider threads of a
+ * suite share it; it does nothing until it is configured.
+ */
+public class SessionWarmer {
+    private static final SessionWarmer INSTANCE = new SessionWarmer();
+
+    private Logger log = LogManager.getLogger(SessionWarmer.class);
+
+    private boolean enabled = false;
+    private int parallelism;
+    private int maxWarmSessions;
+    private boolean sessionReuse;
+    private SessionFactory factory;
+    private ExecutorService launcher;
+
+    /* the state by browser, guarded by this */
+    private final Map<String, Deque<BrowserSession>> ready = new HashMap<>();
+    private final Map<String, Integer> launching = new HashMap<>();
+    private final Map<String, Integer> pending = new HashMap<>();
+    private final Map<String, Integer> inUse = new HashMap<>();
+    /* the rows that already took a session, so that retries are not counted again */
+    private final Set<String> startedRows = new HashSet<>();
+
+    private SessionWarmer() {
+    }
+
+    /**
+     * Returns the warmer shared by all threads of the suite.
+     *
+     * @return the SessionWarmer singleton
+     */
+    public static SessionWarmer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Launches and prepares a browser session on a warm-up thread.
+     */
+    public interface SessionFactory {
+        /**
+         * @param browserName the browser property value, e.g. "chrome headless"
+         * @return a session past navigation and the cookie consent
+         * @throws Exception if the browser could not be started or prepared
+         */
+        BrowserSession launch(String browserName) throws Exception;
+    }
+
+    /**
+     * Enables the warmer.
+     *
+     * @param parallelism     the number of tests running at the same time,
+     *                        usually the data-provider-thread-count
+     * @param maxWarmSessions the number of warm sessions that may be ready or
+     *                        starting at the same time
+     * @param sessionReuse    whether the threads keep their sessions between
+     *                        tests, so that a running session serves further
+     *                        rows
+     * @param factory         launches and prepares the sessions
+     */
+    public synchronized void configure(int parallelism, int maxWarmSessions, boolean sessionReuse,
+            SessionFactory factory) {
+        this.enabled = true;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxWarmSessions = Math.max(1, maxWarmSessions);
+        this.sessionReuse = sessionReuse;
+        this.factory = factory;
+        /* refill never has more than maxWarmSessions launches running */
+        this.launcher = TaskExecutors.newTaskExecutor("session-warmup");
+        log.info("WARMUP: keeping up to " + this.maxWarmSessions + " warm sessions for " + this.parallelism
+                + " parallel tests");
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Adds the rows of a data provider and starts warming sessions for them.
+     *
+     * @param browsers the browser of every scheduled test
+     */
+    public synchronized void schedule(List<String> browsers) {
+        if (!enabled) {
+            return;
+        }
+        for (String browser : browsers) {
+            pending.merge(browser, 1, Integer::sum);
+        }
+        refill();
+    }
+
+    /**
+     * Leases a warm session for a test that needs a new session. The session is
+     * bound to the calling thread.
+     *
+     * @param browserName the browser of the test
+     * @param row         identifies the data provider row of the test, the same
+     *                    for its retries
+     * @return the session or null if none is ready, the caller then starts its
+     *         own and reports it with opened
+     */
+    public BrowserSession lease(String browserName, String row) {
+        BrowserSession session;
+        synchronized (this) {
+            if (!enabled) {
+                return null;
+            }
+            start(browserName, row);
+            Deque<BrowserSession> sessions = ready.get(browserName);
+            session = sessions != null ? sessions.poll() : null;
+            if (session != null) {
+                inUse.merge(browserName, 1, Integer::sum);
+            }
+            refill();
+        }
+
+        if (session != null) {
+            session.bindToCurrentThread();
+        }
+        return session;
+    }
+
+    /**
+     * Counts a test that runs in a session its thread kept from an earlier test.
+     *
+     * @param browserName the browser of the test
+     * @param row         identifies the data provider row of the test, the same
+     *                    for its retries
+     */
+    public synchronized void reused(String browserName, String row) {
+        if (enabled) {
+            start(browserName, row);
+        }
+    }
+
+    /**
+     * Quits one warm session that is ready but not leased yet, to free its
+     * ConcurrencyController slot for a test that has to start its own session.
+     *
+     * @return true if a session was quit
+     */
+    public boolean discardReady() {
+        BrowserSession session = null;
+        synchronized (this) {
+            for (Deque<BrowserSession> sessions : ready.values()) {
+                session = sessions.poll();
+                if (session != null) {
+                    break;
+                }
+            }
+        }
+        if (session == null) {
+            return false;
+        }
+
+        log.info("WARMUP: closing a ready " + session.getBrowserName() + " session to free a session slot");
+        try {
+            session.quit();
+        } catch (Exception e) {
+            log.warn("WARMUP: could not close unused session: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Counts a session a test thread started itself because no warm session was
+     * ready.
+     *
+     * @param browserName the browser of the session
+     */
+    public synchronized void opened(String browserName) {
+        if (enabled) {
+            inUse.merge(browserName, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Counts a closed session and warms a replacement if rows are left.
+     *
+     * @param browserName the browser of the session
+     */
+    public synchronized void closed(String browserName) {
+        if (enabled) {
+            inUse.merge(browserName, -1, Integer::sum);
+            refill();
+        }
+    }
+
+    /**
+     * Stops warming and quits the sessions that were never leased.
+     */
+    public void shutdown() {
+        Deque<BrowserSession> unused = new ArrayDeque<>();
+        synchronized (this) {
+            if (!enabled) {
+                return;
+            }
+            enabled = false;
+            launcher.shutdownNow();
+            for (Deque<BrowserSession> sessions : ready.values()) {
+                unused.addAll(sessions);
+            }
+            ready.clear();
+        }
+
+        for (BrowserSession session : unused) {
+            try {
+                session.quit();
+            } catch (Exception e) {
+                log.warn("WARMUP: could not close unused session: " + e.getMessage());
+            }
+        }
+        if (!unused.isEmpty()) {
+            log.info("WARMUP: closed " + unused.size() + " unused warm sessions");
+        }
+    }
+
+    /* a row leaves the pending rows the first time it takes a session */
+    private void start(String browserName, String row) {
+        if (startedRows.add(browserName + "|" + row)) {
+            pending.merge(browserName, -1, (count, one) -> Math.max(0, count + one));
+        }
+    }
+
+    /*
+     * start launches for the browsers whose pending rows are not covered by the
+     * running, ready and starting sessions, neediest browser first
+     */
+    private void refill() {
+        while (enabled && getWarmCount() < maxWarmSessions) {
+            String neediest = null;
+            int largestDeficit = 0;
+            for (String browser : pending.keySet()) {
+                int deficit = getDeficit(browser);
+                if (deficit > largestDeficit) {
+                    neediest = browser;
+                    largestDeficit = deficit;
+                }
+            }
+            if (neediest == null) {
+                return;
+            }
+
+            launching.merge(neediest, 1, Integer::sum);
+            String browser = neediest;
+            launcher.execute(() -> warm(browser));
+        }
+    }
+
+    /*
+     * the sessions a browser still needs: a pending row takes a new session unless
+     * running sessions are reused, and no more rows than the suite runs in
+     * parallel can take one at the same time
+     */
+    private int getDeficit(String browser) {
+        int demand = Math.min(get(pending, browser), parallelism);
+        int covered = get(launching, browser) + countReady(browser) + (sessionReuse ? get(inUse, browser) : 0);
+        return demand - covered;
+    }
+
+    private int getWarmCount() {
+        int count = 0;
+        for (Integer starting : launching.values()) {
+            count += starting;
+        }
+        for (Deque<BrowserSession> sessions : ready.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    /* runs on a warm-up thread */
+    private void warm(String browser) {
+        long start = System.currentTimeMillis();
+        BrowserSession session = null;
+        try {
+            session = factory.launch(browser);
+        } catch (Exception e) {
+            /* the test threads start their own sessions, the next lease or close tries again */
+            log.error("WARMUP: could not warm a " + browser + " session: " + e.getMessage(), e);
+        }
+
+        boolean unused;
+        synchronized (this) {
+            launching.merge(browser, -1, Integer::sum);
+            unused = session != null && !enabled;
+            if (session != null && enabled) {
+                ready.computeIfAbsent(browser, key -> new ArrayDeque<>()).add(session);
+                log.info("WARMUP: " + browser + " session ready after " + (System.currentTimeMillis() - start)
+                        + "ms");
+            }
+        }
+        if (unused) {
+            session.quit();
+        }
+    }
+
+    private static int get(Map<String, Integer> counts, String browser) {
+        Integer count = counts.get(browser);
+        return count != null ? count : 0;
+    }
+
+    private int countReady(String browser) {
+        Deque<BrowserSession> deque = ready.get(browser);
+        return deque != null ? deque.size() : 0;
+    }
+}
@@ -0,0 +1,154 @@
+package sadilek.testcomponents;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Splits the data provider rows deterministically across N workers.
+ *
+ * The worker is selected with the shard property in the form i/N, where i is
+ * 1-based (e.g. -Dshard=2/4 runs the second of four shards). Every worker reads
+ * the same spreadsheet and keeps only its own rows, so no coordination between
+ * the JVMs or machines is needed.
+ *
+ * Two strategies are supported:
+ * - hash: a row belongs to the shard of the CRC32 of its FilterCase id.
+ * - duration: rows are sorted by estimated duration (longest first) and dealt
+ * round-robin, so every shard gets a similar amount of work.
+ *
+ * Every shard has to come to the same partition, so it may only depend on the
+ * spreadsheet and on input that all shards share. The duration strategy
+ * therefore needs a frozen history snapshot that is passed to all shards
+ * explicitly (shardHistory property), never the live duration history that
+ * finished shards keep writing to. Its checksum is logged so that the shards
+ * can be checked to have used the same snapshot. Without a snapshot the shards
+ * fall back to the hash strategy.
+ */
+public class ShardSelector {
+    private Logger log = LogManager.getLogger(ShardSelector.class);
+
+    private final int index;
+    private final int total;
+    private final String strategy;
+    private DurationHistory historySnapshot;
+
+    /**
+     * Constructs a ShardSelector.
+     *
+     * @param index    the 1-based index of this shard
+     * @param total    the total number of shards
+     * @param strategy "hash" or "duration"
+     */
+    public ShardSelector(int index, int total, String strategy) {
+        if (total < 1 || index < 1 || index > total) {
+            throw new IllegalArgumentException("invalid shard " + index + "/" + total);
+        }
+        this.index = index;
+        this.total = total;
+        this.strategy = strategy == null || strategy.isEmpty() ? "hash" : strategy.trim().toLowerCase();
+    }
+
+    /**
+     * Parses a shard property value like "2/4".
+     *
+     * @param shard    the property value, may be null or empty
+     * @param strategy the sharding strategy
+     * @return a ShardSelector or null if sharding is not enabled
+     */
+    public static ShardSelector fromProperty(String shard, String strategy) {
+        if (shard == null || shard.trim().isEmpty()) {
+            return null;
+        }
+
+        String[] parts = shard.trim().split("/");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("shard must be in the form i/N but was: " + shard);
+        }
+        return new ShardSelector(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()), strategy);
+    }
+
+    /**
+     * Keeps the rows of the data provider that belong to this shard.
+     *
+     * @param rows the rows of all shards
+     * @return the rows of this shard
+     */
+    public Object[][] select(Object[][] rows) {
+        List<Object[]> selected = new ArrayList<>();
+
+        String used = strategy;
+        if (used.equals("duration") && historySnapshot == null) {
+            log.warn("SHARD " + getLabel() + ": the duration strategy needs a shardHistory snapshot, using hash");
+            used = "hash";
+        }
+
+        if (used.equals("duration")) {
+            log.info("SHARD " + getLabel() + ": partitioning by history snapshot " + historySnapshot.getFile()
+                    + " (checksum " + historySnapshot.getChecksum() + ")");
+            /* sort the rows longest first and deal them out like cards */
+            List<Object[]> sorted = new ArrayList<>();
+            Collections.addAll(sorted, rows);
+            Collections.sort(sorted, Comparator
+                    .comparingLong((Object[] row) -> -estimateDuration(FilterCase.fromRow(row)))
+                    .thenComparing(row -> FilterCase.fromRow(row).getId()));
+
+            for (int i = 0; i < sorted.size(); i++) {
+                if (i % total == index - 1) {
+                    selected.add(sorted.get(i));
+                }
+            }
+        } else {
+            for (Object[] row : rows) {
+                if (hash(FilterCase.fromRow(row).getId()) % total == index - 1) {
+                    selected.add(row);
+                }
+            }
+        }
+
+        log.info("SHARD " + getLabel() + " (" + used + "): running " + selected.size() + " of " + rows.length
+                + " test cases");
+        return selected.toArray(new Object[0][]);
+    }
+
+    /**
+     * Sets the frozen duration history the duration strategy partitions by. All
+     * shards have to be given the same snapshot.
+     *
+     * @param historySnapshot a snapshot of the durations of previous runs, null
+     *                        to fall back to the hash strategy
+     */
+    public void setHistorySnapshot(DurationHistory historySnapshot) {
+        this.historySnapshot = historySnapshot;
+    }
+
+    /**
+     * @return the shard as a label for file names, e.g. "shard-2-of-4"
+     */
+    public String getLabel() {
+        return "shard-" + index + "-of-" + total;
+    }
+
+    /**
+     * Estimates how long a test case takes from the history snapshot.
+     *
+     * @param filterCase the case to estimate
+     * @return the estimated duration in millis
+     */
+    protected long estimateDuration(FilterCase filterCase) {
+        return historySnapshot.estimate(filterCase);
+    }
+
+    /* a hash that is stable across JVMs and platforms */
+    private long hash(String id) {
+        CRC32 crc = new CRC32();
+        crc.update(id.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,175 @@
+package sadilek.testcomponents;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.WebDriver;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+import com.aventstack.extentreports.ExtentTest;
+
+import sadilek.metrics.TestCaseState;
+import sadilek.verification.MismatchEstimate;
+
+/**
+ * The state of one test invocation: its browser session, its Extent test, the
+ * case id and page timings the page objects record into, the mismatch
+ * estimates of sample mode and the outcome of every case of a trie group.
+ *
+ * The context travels with the ITestResult of the test as an attribute, so
+ * BaseTest and the Listeners reach the state of a test through the test itself
+ * instead of through the thread it happens to run on. The test methods, which
+ * are not handed their result, get the context from BaseTest.getContext and
+ * pass it on to the page objects. A retried test gets a new result and with it
+ * a new context.
+ */
+public class TestCaseContext extends TestCaseState {
+    /* the ITestResult attribute holding the context of a test */
+    public static final String ATTRIBUTE = "testCaseContext";
+
+    private final ITestContext testContext;
+    private final List<MismatchEstimate> estimates = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, CaseOutcome> caseOutcomes = Collections.synchronizedMap(new LinkedHashMap<>());
+    private volatile BrowserSession session;
+    private volatile ExtentTest extentTest;
+
+    /**
+     * Returns the context of a test, creating it on first use.
+     *
+     * @param result the result of the test
+     * @return the context of the test
+     */
+    public static TestCaseContext of(ITestResult result) {
+        synchronized (result) {
+            Object context = result.getAttribute(ATTRIBUTE);
+            if (!(context instanceof TestCaseContext)) {
+                context = new TestCaseContext(result);
+                result.setAttribute(ATTRIBUTE, context);
+            }
+            return (TestCaseContext) context;
+        }
+    }
+
+    private TestCaseContext(ITestResult result) {
+        this.testContext = result.getTestContext();
+    }
+
+    /**
+     * @return the TestNG context of the test run the test belongs to
+     */
+    public ITestContext getTestContext() {
+        return testContext;
+    }
+
+    /**
+     * @param estimate the mismatch estimate of a test case verified in sample
+     *                 mode, a test in trie mode adds one per case
+     */
+    public void addMismatchEstimate(MismatchEstimate estimate) {
+        estimates.add(estimate);
+    }
+
+    /**
+     * @return the mismatch estimates added so far
+     */
+    public List<MismatchEstimate> getMismatchEstimates() {
+        synchronized (estimates) {
+            return new ArrayList<>(estimates);
+        }
+    }
+
+    /**
+     * Records the outcome of one case of a test that verifies several cases, e.g.
+     * a trie group, so that the Listeners report every case on its own.
+     *
+     * @param caseId         the id of the case
+     * @param startMillis    the time the case started
+     * @param durationMillis the time the case took
+     * @param failure        the reason the case failed, null if it passed
+     */
+    public void recordCase(String caseId, long startMillis, long durationMillis, Throwable failure) {
+        caseOutcomes.put(caseId, new CaseOutcome(startMillis, durationMillis, failure));
+    }
+
+    /**
+     * @return the outcomes recorded with recordCase by case id, empty for a test
+     *         of a single case
+     */
+    public Map<String, CaseOutcome> getCaseOutcomes() {
+        synchronized (caseOutcomes) {
+            return new LinkedHashMap<>(caseOutcomes);
+        }
+    }
+
+    /**
+     * @return the browser session of the test, null before it is started or after
+     *         it was closed
+     */
+    public BrowserSession getSession() {
+        return session;
+    }
+
+    public void setSession(BrowserSession session) {
+        this.session = session;
+    }
+
+    /**
+     * @return the thread-protected driver of the test or null without a session
+     */
+    public WebDriver getDriver() {
+        BrowserSession current = session;
+        return current != null ? current.getDriver() : null;
+    }
+
+    /**
+     * @return the Extent test of the test, null before the Listeners started it
+     */
+    public ExtentTest getExtentTest() {
+        return extentTest;
+    }
+
+    public void setExtentTest(ExtentTest extentTest) {
+        this.extentTest = extentTest;
+    }
+
+    /**
+     * The outcome of one case of a test that verifies several cases.
+     */
+    public static class CaseOutcome {
+        private final long startMillis;
+        private final long durationMillis;
+        private final Throwable failure;
+
+        CaseOutcome(long startMillis, long durationMillis, Throwable failure) {
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+            this.failure = failure;
+        }
+
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return the reason the case failed, null if it passed
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return PASS or FAIL
+         */
+        public String getStatus() {
+            return failure == null ? "PASS" : "FAIL";
+        }
+    }
+}
@@ -1,8 +1,16 @@
 package sadilek.tests;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
-import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 import org.testng.Assert;
@@ -11,11 +19,27 @@ import org.testng.annotations.Test;
 
 import sadilek.pageobjects.LandingPage;
 import sadilek.pageobjects.ParfumPage;
+import sadilek.pageobjects.ResultPage;
+import sadilek.pageobjects.ResultPagePipeline;
+import sadilek.resources.ExtentReporterNG;
+import sadilek.resources.ResultIndex;
+import sadilek.resources.RunJournal;
 import sadilek.testcomponents.BaseTest;
+import sadilek.testcomponents.BrowserMatrix;
+import sadilek.testcomponents.DurationHistory;
 import sadilek.testcomponents.ExcelDataProvider;
+import sadilek.testcomponents.FilterCase;
+import sadilek.testcomponents.FilterCaseTrie;
 import sadilek.testcomponents.Retry;
+import sadilek.testcomponents.TestCaseContext;
+import sadilek.testcomponents.ShardSelector;
 import sadilek.exceptions.ElementInteractionException;
 import sadilek.helpers.Constants.TestData;
+import sadilek.verification.FacetRuleEngine;
+import sadilek.verification.MismatchEstimate;
+import sadilek.verification.ProductDetails;
+import sadilek.verification.ProductSample;
+import sadilek.verification.VerificationLedger;
 
 /**
  * Test class for validating the functionality of product filters.
@@ -40,7 +64,7 @@ public class ProductFilterTest extends BaseTest {
      *                InterruptedException by Assert failing the test.
      */
     @Test(dataProvider = "getData", retryAnalyzer = Retry.class)
-    public void testProductFilters(HashMap<String, String> facetNames) {
+    public void testProductFilters(HashMap<String, String> facetNames) throws Exception {
 
         /* local variables populated from our Excel data provider */
         String highlight = facetNames.get(TestData.HIGHLIGHT);
@@ -53,12 +77,8 @@ public class ProductFilterTest extends BaseTest {
         int timeoutInSeconds = Integer.parseInt(getProperty("timeout"));
         int retries = Integer.parseInt(getProperty("retries"));
 
-        /* init the Landing Page and handle the modal popup */
-        LandingPage landingPage = new LandingPage(getDriver(), timeoutInSeconds, retries);
-        landingPage.gotoPage(getProperty("url"));
-        landingPage.handleModalPopup();
-
-        ParfumPage parfumPage = landingPage.gotoParfumPage();
+        TestCaseContext context = getContext(facetNames);
+        ParfumPage parfumPage = openParfumPage(context, timeoutInSeconds, retries);
 
         /* handle setting the filter for each search criteria */
         parfumPage.setFilterProdukart(produktart);
@@ -67,19 +87,233 @@ public class ProductFilterTest extends BaseTest {
         parfumPage.setFilterGeschenkFur(geschenkFur);
         parfumPage.setFilterFurWen(furWen);
 
+        verifyFilteredProducts(context, parfumPage, facetNames, retries);
+        assertPerformanceBudgets(context);
+    }
+
+    /**
+     * Test a group of filter combinations in one warm browser session.
+     * 
+     * The group holds the test cases that share the same first facet in the
+     * depth-first order of a FilterCaseTrie. Instead of rebuilding every
+     * combination from the landing page, only the facets that differ from the
+     * previous case are removed and applied. A failing case is reported and the
+     * walk continues from a fresh parfum page. Used when executionMode is "trie".
+     * 
+     * @param group the facet maps of the test cases in depth-first order
+     */
+    @Test(dataProvider = "getGroupedData")
+    public void testProductFilterGroups(List<HashMap<String, String>> group) throws Exception {
+        int timeoutInSeconds = Integer.parseInt(getProperty("timeout"));
+        int retries = Integer.parseInt(getProperty("retries"));
+
+        TestCaseContext context = getContext(group);
+        ParfumPage parfumPage = openParfumPage(context, timeoutInSeconds, retries);
+        FilterCase applied = null;
+        List<String> failures = new ArrayList<>();
+
+        for (HashMap<String, String> facetNames : group) {
+            FilterCase next = new FilterCase(facetNames);
+            context.setCaseId(next.getId());
+            long start = System.currentTimeMillis();
+            try {
+                applyFilterChanges(parfumPage, applied, next);
+                applied = next;
+                verifyFilteredProducts(context, parfumPage, facetNames, retries);
+                log.info("TRIE: verified " + next);
+                context.recordCase(next.getId(), start, System.currentTimeMillis() - start, null);
+            } catch (AssertionError | RuntimeException e) {
+                log.error("TRIE: " + next + " failed: " + e.getMessage());
+                failures.add(next + " - " + e.getMessage());
+                context.recordCase(next.getId(), start, System.currentTimeMillis() - start, e);
+
+                /* the applied filters are unknown after a failure so start over */
+                parfumPage = openParfumPage(context, timeoutInSeconds, retries);
+                applied = null;
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            Assert.fail(failures.size() + " of " + group.size() + " test cases failed:\n"
+                    + String.join("\n", failures));
+        }
+        assertPerformanceBudgets(context);
+    }
+
+    /**
+     * Opens the landing page, handles the cookie modal if needed and navigates to
+     * the parfum page. The page objects record into the context of the test.
+     * 
+     * @param context          the context of the test
+     * @param timeoutInSeconds the timeout for the WebDriverWaits of the POM classes
+     * @param retries          the number of retries for the recursive POM methods
+     * @return the ParfumPage without any filters set
+     */
+    private ParfumPage openParfumPage(TestCaseContext context, int timeoutInSeconds, int retries)
+            throws Exception {
+        /* init the Landing Page and handle the modal popup */
+        LandingPage landingPage = new LandingPage(context.getDriver(), timeoutInSeconds, retries);
+        landingPage.setTestCase(context);
+        landingPage.gotoPage(getProperty("url"));
+
+        /* a reused browser session has already accepted the cookie modal */
+        if (!context.getSession().isConsentHandled()) {
+            landingPage.handleModalPopup();
+            context.getSession().setConsentHandled(true);
+        }
+
+        return landingPage.gotoParfumPage();
+    }
+
+    /**
+     * Transitions the parfum page from the facets of one test case to those of the
+     * next. Facets that differ are removed deepest first and then applied in the
+     * setFilter* order.
+     * 
+     * @param parfumPage the parfum page with the previous case's facets applied
+     * @param applied    the previous case or null for a page without filters
+     * @param next       the case to transition to
+     */
+    private void applyFilterChanges(ParfumPage parfumPage, FilterCase applied, FilterCase next) {
+        String[] order = FilterCase.FACET_ORDER;
+        for (int i = order.length - 1; i >= 0; i--) {
+            String from = applied == null ? "" : applied.get(order[i]);
+            if (!from.isEmpty() && !from.equalsIgnoreCase(next.get(order[i]))) {
+                parfumPage.removeFilter(from);
+            }
+        }
+
+        for (String facet : order) {
+            String from = applied == null ? "" : applied.get(facet);
+            if (!next.get(facet).isEmpty() && !next.get(facet).equalsIgnoreCase(from)) {
+                parfumPage.setFilter(facet, next.get(facet));
+            }
+        }
+    }
+
+    /**
+     * Verifies the filters shown in the UI and the products listed on the parfum
+     * page against the facets of a test case.
+     * 
+     * @param context    the context of the test
+     * @param parfumPage the parfum page with the filters of the case applied
+     * @param facetNames the facet map of the test case
+     * @param retries    the number of retries for the recursive POM methods
+     */
+    private void verifyFilteredProducts(TestCaseContext context, ParfumPage parfumPage,
+            HashMap<String, String> facetNames, int retries) throws Exception {
+        String highlight = facetNames.get(TestData.HIGHLIGHT);
+        String produktart = facetNames.get(TestData.PRODUKTART);
+        String marke = facetNames.get(TestData.MARKE);
+        String geschenkFur = facetNames.get(TestData.GESCHENKFUR);
+        String furWen = facetNames.get(TestData.FURWEN);
+
         parfumPage.assertFacetsSetCorrectly(produktart, highlight, marke, geschenkFur, furWen);
 
         /* we refresh the page to ensure the right number of products are displayed */
-        getDriver().navigate().refresh();
+        parfumPage.refreshPage();
+
+        /* the rules define where each facet is read from, see facet-rules.properties */
+        FacetRuleEngine facetRules = FacetRuleEngine.load(getProperty("facetRules"));
+        boolean needsProductPage = facetRules.needsProduct(facetNames);
+
+        /* products verified in earlier runs are confirmed with a conditional request, see the ledger */
+        String ledgerPath = getProperty("verificationLedger");
+        if (needsProductPage && ledgerPath != null && !ledgerPath.trim().isEmpty()) {
+            parfumPage.setVerificationLedger(VerificationLedger.load(ledgerPath.trim()));
+        }
+
+        /* the product pages load in background tabs ahead of the verification, closed when the case is done */
+        if (needsProductPage) {
+            parfumPage.setProductTabs(Integer.parseInt(getProperty("productTabs")));
+        }
+        try {
+            verifyProducts(context, parfumPage, facetRules, facetNames, needsProductPage, retries);
+        } finally {
+            parfumPage.closeProductTabs();
+        }
+    }
+
+    /**
+     * Verifies the products of the result pages with the mode given by the
+     * verificationMode property.
+     * 
+     * @param context          the context of the test
+     * @param parfumPage       the parfum page with the filters of the test case set
+     * @param facetRules       the rules to verify the products with
+     * @param facetNames       the facet map of the test case
+     * @param needsProductPage whether the product pages have to be fetched
+     * @param retries          the number of retries for the recursive POM methods
+     */
+    private void verifyProducts(TestCaseContext context, ParfumPage parfumPage, FacetRuleEngine facetRules,
+            HashMap<String, String> facetNames, boolean needsProductPage, int retries) throws Exception {
+
+        /* in soft mode every product is checked and all mismatches are reported together */
+        String verificationMode = getProperty("verificationMode");
+        boolean softVerification = "soft".equalsIgnoreCase(verificationMode);
+        if (softVerification) {
+            parfumPage.enableSoftVerification();
+        }
+
+        int maxResultPages = Integer.parseInt(getProperty("maxResultPages"));
+        if ("sample".equalsIgnoreCase(verificationMode)) {
+            verifySampledProducts(context, parfumPage, facetRules, facetNames, needsProductPage, maxResultPages);
+            return;
+        }
 
         /*
-         * loop over the products on the current page so that we can assert the
-         * each one matches the facet/filter criteria. To limit duration of each test,
-         * only the products on the first result page are traversed. Pagintation support
-         * for multiple result page looping was avoided as a strategy since most
-         * combinations result in a single page of search results.
+         * the result pages after the first one are fetched in the background while
+         * the first page is verified in the browser. maxResultPages=1 verifies the
+         * first page only, maxProducts=0 verifies every product of those pages.
          */
+        int maxProducts = Integer.parseInt(getProperty("maxProducts"));
+        int verified = 0;
+
+        try (ResultPagePipeline nextPages = maxResultPages > 1
+                ? parfumPage.prefetchResultPages(maxResultPages, Integer.parseInt(getProperty("prefetchPages")))
+                : null) {
+            verified = verifyDisplayedProducts(parfumPage, facetRules, facetNames, needsProductPage, retries,
+                    maxProducts);
+
+            ResultPage page;
+            while (nextPages != null && !isCapReached(verified, maxProducts) && (page = nextPages.next()) != null) {
+                verified += verifyResultPage(parfumPage, page, facetRules, facetNames, needsProductPage,
+                        maxProducts - verified);
+            }
+        }
+        log.info("PAGINATION: verified " + verified + " products");
+
+        if (softVerification) {
+            parfumPage.assertNoMismatches();
+        }
+    }
+
+    /**
+     * Verifies the products of the result page displayed in the browser.
+     * 
+     * @param parfumPage       the parfum page with the filters of the test case set
+     * @param facetRules       the rules to verify the products with
+     * @param facetNames       the facet map of the test case
+     * @param needsProductPage whether the product pages have to be fetched
+     * @param retries          the number of retries for the recursive POM methods
+     * @param maxProducts      the maximum number of products to verify, 0 for all
+     * @return the number of products verified
+     */
+    private int verifyDisplayedProducts(ParfumPage parfumPage, FacetRuleEngine facetRules,
+            HashMap<String, String> facetNames, boolean needsProductPage, int retries, int maxProducts) {
+        int verified = 0;
+
+        /*
+         * collect the products to verify first, so that their product pages can
+         * start loading in the background tabs while the first ones are verified
+         */
+        List<WebElement> products = new ArrayList<>();
+        List<String> productPageUrls = new ArrayList<>();
         for (WebElement product : parfumPage.getProducts()) {
+            if (isCapReached(products.size(), maxProducts)) {
+                break;
+            }
+
             /* get the product page link from the WebElement */
             String productPageUrl = parfumPage.getProductLink(product, retries);
 
@@ -92,12 +326,30 @@ public class ProductFilterTest extends BaseTest {
                 log.info(productPageUrl + " product out of stock, skipping");
                 continue;
             }
+            products.add(product);
+            productPageUrls.add(productPageUrl);
+        }
+        if (needsProductPage) {
+            parfumPage.scheduleProductPages(facetRules, productPageUrls);
+        }
+
+        /*
+         * loop over the products on the current page so that we can assert the
+         * each one matches the facet/filter criteria.
+         */
+        for (int i = 0; i < products.size(); i++) {
+            WebElement product = products.get(i);
+            String productPageUrl = productPageUrls.get(i);
 
             /*
              * get the product page document via page source to speed up the execution since
-             * we do not need to test the product page UI
+             * we do not need to test the product page UI. Only needed if a facet rule
+             * reads from the product page. With a verification ledger unchanged
+             * products are confirmed without reading the page again.
              */
-            Document document = parfumPage.getDocument(product, productPageUrl);
+            ProductDetails details = needsProductPage
+                    ? parfumPage.getProductDetails(facetRules, product, productPageUrl)
+                    : null;
 
             /*
              * make sure each product is in view of the browser's viewport to avoid
@@ -108,17 +360,168 @@ public class ProductFilterTest extends BaseTest {
             parfumPage.actionMoveToElement(product);
 
             /*
-             * asserts to test the relevance of the products listed. These methods have been
-             * abstracted into the parfum page object class to keep the testProductFilters
-             * test clean.
+             * test the relevance of the products listed. The facets are read from a
+             * snapshot of the tile (taken once it is in view) and the product page
+             * document, as defined by the facet rules. furWen has no rule yet.
              */
-            parfumPage.assertEqualsProduktart(product, produktart, productPageUrl);
-            parfumPage.assertEqualsMarke(product, marke, productPageUrl);
-            parfumPage.assertEqualsHighlight(product, highlight, document, productPageUrl);
-            parfumPage.assertEqualsGeschenkFur(document, geschenkFur, productPageUrl);
-            // parfumPage.assertEqualsFurWen(document, furWen, productPageUrl);
+            Element tile = parfumPage.getTileSnapshot(product);
+            parfumPage.verifyProduct(facetRules, facetNames, tile, details, productPageUrl);
+            verified++;
+        }
+        return verified;
+    }
+
+    /**
+     * Verifies the products of a prefetched result page from its snapshot.
+     * 
+     * @param parfumPage       the parfum page used to fetch product pages
+     * @param page             the prefetched result page
+     * @param facetRules       the rules to verify the products with
+     * @param facetNames       the facet map of the test case
+     * @param needsProductPage whether the product pages have to be fetched
+     * @param maxProducts      the maximum number of products to verify, 0 or less
+     *                         for all
+     * @return the number of products verified
+     */
+    private int verifyResultPage(ParfumPage parfumPage, ResultPage page, FacetRuleEngine facetRules,
+            HashMap<String, String> facetNames, boolean needsProductPage, int maxProducts) {
+        List<Element> tiles = new ArrayList<>();
+        List<String> productPageUrls = new ArrayList<>();
+        for (Element tile : page.getTiles()) {
+            if (maxProducts > 0 && tiles.size() >= maxProducts) {
+                break;
+            }
+
+            String productPageUrl = page.getProductLink(tile);
+            if (page.isOutOfStock(tile)) {
+                log.info(productPageUrl + " product out of stock, skipping");
+                continue;
+            }
+            tiles.add(tile);
+            productPageUrls.add(productPageUrl);
+        }
+        if (needsProductPage) {
+            parfumPage.scheduleProductPages(facetRules, productPageUrls);
+        }
+
+        int verified = 0;
+        for (int i = 0; i < tiles.size(); i++) {
+            Element tile = tiles.get(i);
+            String productPageUrl = productPageUrls.get(i);
+            ProductDetails details = needsProductPage
+                    ? parfumPage.getProductDetails(facetRules, null, productPageUrl)
+                    : null;
+            parfumPage.verifyProduct(facetRules, facetNames, tile, details, productPageUrl);
+            verified++;
+        }
+        return verified;
+    }
+
+    /**
+     * Verifies a stratified random sample of the products and reports the
+     * estimated mismatch rate of all products of the test case.
+     * 
+     * The result pages are the strata, so all of them are collected first and the
+     * sample is spread across them in proportion to their sizes. The mismatches of
+     * the sampled products are collected like in soft mode and fail the test after
+     * the estimate has been reported. maxProducts caps the sample size.
+     * 
+     * @param context          the context of the test
+     * @param parfumPage       the parfum page with the filters of the test case set
+     * @param facetRules       the rules to verify the products with
+     * @param facetNames       the facet map of the test case
+     * @param needsProductPage whether the product pages have to be fetched
+     * @param maxResultPages   the number of result pages to sample from
+     */
+    private void verifySampledProducts(TestCaseContext context, ParfumPage parfumPage, FacetRuleEngine facetRules,
+            HashMap<String, String> facetNames, boolean needsProductPage, int maxResultPages) throws Exception {
+        parfumPage.enableSoftVerification();
+
+        List<ResultPage> pages = new ArrayList<>();
+        pages.add(parfumPage.getResultPageSnapshot());
+        if (maxResultPages > 1) {
+            try (ResultPagePipeline nextPages = parfumPage.prefetchResultPages(maxResultPages,
+                    Integer.parseInt(getProperty("prefetchPages")))) {
+                ResultPage page;
+                while ((page = nextPages.next()) != null) {
+                    pages.add(page);
+                }
+            }
+        }
+
+        /* out of stock products do not display highlights and are not part of the population */
+        List<List<Element>> strata = new ArrayList<>();
+        int[] stratumSizes = new int[pages.size()];
+        int population = 0;
+        for (int h = 0; h < pages.size(); h++) {
+            List<Element> tiles = new ArrayList<>();
+            for (Element tile : pages.get(h).getTiles()) {
+                if (!pages.get(h).isOutOfStock(tile)) {
+                    tiles.add(tile);
+                }
+            }
+            strata.add(tiles);
+            stratumSizes[h] = tiles.size();
+            population += tiles.size();
+        }
+
+        double confidence = Double.parseDouble(getProperty("sampleConfidence"));
+        int sampleSize = Integer.parseInt(getProperty("sampleSize"));
+        if (sampleSize <= 0) {
+            sampleSize = ProductSample.getRequiredSize(population, confidence,
+                    Double.parseDouble(getProperty("sampleMargin")));
+        }
+        int maxProducts = Integer.parseInt(getProperty("maxProducts"));
+        if (maxProducts > 0) {
+            sampleSize = Math.min(sampleSize, maxProducts);
+        }
+
+        /* the seed of a case is derived from the run seed so each case can be drawn again on its own */
+        String caseId = new FilterCase(facetNames).getId();
+        long seed = Long.parseLong((String) context.getTestContext().getAttribute("sampleSeed")) ^ caseId.hashCode();
+        int[][] sample = ProductSample.select(stratumSizes, sampleSize, new Random(seed));
+
+        if (needsProductPage) {
+            List<String> productPageUrls = new ArrayList<>();
+            for (int h = 0; h < pages.size(); h++) {
+                for (int index : sample[h]) {
+                    productPageUrls.add(pages.get(h).getProductLink(strata.get(h).get(index)));
+                }
+            }
+            parfumPage.scheduleProductPages(facetRules, productPageUrls);
+        }
+
+        int sampled = 0;
+        int mismatching = 0;
+        for (int h = 0; h < pages.size(); h++) {
+            ResultPage page = pages.get(h);
+            for (int index : sample[h]) {
+                Element tile = strata.get(h).get(index);
+                String productPageUrl = page.getProductLink(tile);
+                ProductDetails details = needsProductPage
+                    ? parfumPage.getProductDetails(facetRules, null, productPageUrl)
+                    : null;
+
+                int before = parfumPage.getMismatches().size();
+                parfumPage.verifyProduct(facetRules, facetNames, tile, details, productPageUrl);
+                if (parfumPage.getMismatches().size() > before) {
+                    mismatching++;
+                }
+                sampled++;
+            }
         }
 
+        MismatchEstimate estimate = new MismatchEstimate(population, sampled, mismatching, confidence, seed);
+        log.info("SAMPLE: " + caseId + " " + estimate);
+        /* a test in trie mode verifies several cases, each adds its estimate */
+        context.addMismatchEstimate(estimate);
+
+        parfumPage.assertNoMismatches();
+    }
+
+    /* whether the product cap is reached, a cap of 0 means no cap */
+    private boolean isCapReached(int verified, int maxProducts) {
+        return maxProducts > 0 && verified >= maxProducts;
     }
 
     /**
@@ -133,6 +536,138 @@ public class ProductFilterTest extends BaseTest {
      */
     @DataProvider(name = "getData", parallel = true)
     public Object[][] getData() throws Exception {
+        /* in trie mode the test cases run grouped via getGroupedData */
+        if (isTrieMode()) {
+            return new Object[0][];
+        }
+
+        Object[][] rows = getScheduledRows();
+        scheduleWarmup(rows);
+        return rows;
+    }
+
+    /**
+     * Data provider for the testProductFilterGroups method
+     * 
+     * Arranges the scheduled test cases into a FilterCaseTrie and returns one row
+     * per group. Only returns rows when executionMode is "trie".
+     * 
+     * @return Object[][] with one list of facet maps per group
+     * @throws Exception
+     */
+    @DataProvider(name = "getGroupedData", parallel = true)
+    public Object[][] getGroupedData() throws Exception {
+        if (!isTrieMode()) {
+            return new Object[0][];
+        }
+
+        /* a group is walked in one browser, so a browser matrix run gets one trie per browser */
+        Map<String, FilterCaseTrie> tries = new LinkedHashMap<>();
+        for (Object[] row : getScheduledRows()) {
+            FilterCase filterCase = FilterCase.fromRow(row);
+            tries.computeIfAbsent(filterCase.getBrowser(), key -> new FilterCaseTrie()).add(filterCase);
+        }
+
+        /* interleave the groups of the browsers so that they run side by side */
+        List<List<List<FilterCase>>> groupsByBrowser = new ArrayList<>();
+        int total = 0;
+        for (FilterCaseTrie trie : tries.values()) {
+            groupsByBrowser.add(trie.getGroups());
+            total += groupsByBrowser.get(groupsByBrowser.size() - 1).size();
+        }
+        List<List<FilterCase>> groups = new ArrayList<>();
+        for (int i = 0; groups.size() < total; i++) {
+            for (List<List<FilterCase>> browserGroups : groupsByBrowser) {
+                if (i < browserGroups.size()) {
+                    groups.add(browserGroups.get(i));
+                }
+            }
+        }
+
+        Object[][] rows = new Object[groups.size()][1];
+        for (int i = 0; i < groups.size(); i++) {
+            List<HashMap<String, String>> group = new ArrayList<>();
+            for (FilterCase filterCase : groups.get(i)) {
+                group.add(filterCase.getFacets());
+            }
+            rows[i][0] = group;
+        }
+        scheduleWarmup(rows);
+        return rows;
+    }
+
+    /**
+     * Removes the rows of the test cases that are already completed.
+     * 
+     * @param rows      the data provider rows
+     * @param completed the ids of the completed test cases
+     * @return the remaining rows
+     */
+    private Object[][] skipCompleted(Object[][] rows, Set<String> completed) {
+        List<Object[]> remaining = new ArrayList<>();
+        for (Object[] row : rows) {
+            if (!completed.contains(FilterCase.fromRow(row).getId())) {
+                remaining.add(row);
+            }
+        }
+
+        log.info("RESUME: skipping " + (rows.length - remaining.size()) + " completed of " + rows.length
+                + " test cases");
+        return remaining.toArray(new Object[0][]);
+    }
+
+    /**
+     * Keeps the rows of the test cases that failed or were skipped in an earlier
+     * build, as listed in the result index of that build.
+     * 
+     * @param rows        the data provider rows
+     * @param buildNumber the build to rerun the failures of
+     * @param matrix      the browser matrix of the run, may be null
+     * @return the rows to rerun
+     * @throws Exception if the build has no result index
+     */
+    private Object[][] selectFailed(Object[][] rows, String buildNumber, BrowserMatrix matrix) throws Exception {
+        Set<String> failed = new LinkedHashSet<>();
+        if (matrix == null) {
+            failed.addAll(ResultIndex.readFailed(ExtentReporterNG.getReportDirectory(getProperty("browser"),
+                    buildNumber)));
+        } else {
+            /* a browser missing from the build has nothing to rerun */
+            for (String browser : matrix.getBrowsers()) {
+                try {
+                    failed.addAll(ResultIndex.readFailed(ExtentReporterNG.getReportDirectory(browser, buildNumber)));
+                } catch (IOException e) {
+                    log.warn("RERUN: " + e.getMessage());
+                }
+            }
+        }
+
+        List<Object[]> selected = new ArrayList<>();
+        for (Object[] row : rows) {
+            if (failed.remove(FilterCase.fromRow(row).getId())) {
+                selected.add(row);
+            }
+        }
+
+        log.info("RERUN: rerunning " + selected.size() + " failed or skipped test cases of build " + buildNumber);
+        if (!failed.isEmpty()) {
+            log.warn("RERUN: " + failed.size() + " failed test cases are no longer in the data provider: " + failed);
+        }
+        return selected.toArray(new Object[0][]);
+    }
+
+    private boolean isTrieMode() throws Exception {
+        return "trie".equalsIgnoreCase(getProperty("executionMode"));
+    }
+
+    /**
+     * Reads the test cases from the Excel file, keeps the rows of this shard and
+     * orders them by their recorded duration.
+     * 
+     * @return the test case rows in execution order
+     * @throws Exception
+     */
+    private Object[][] getScheduledRows() throws Exception {
         /*
          * get the file path to the Excel sheet containing our test cases from the
          * properties file or from the mvn test cli variables
@@ -143,6 +678,50 @@ public class ProductFilterTest extends BaseTest {
          * our designated Excel file
          */
         ExcelDataProvider provider = new ExcelDataProvider(filePath);
-        return provider.getData();
+        Object[][] rows = provider.getData();
+
+        /* in a browser matrix run every row runs once per browser */
+        BrowserMatrix matrix = BrowserMatrix.fromProperty(getProperty("browsers"));
+        if (matrix != null) {
+            rows = matrix.expand(rows);
+        }
+
+        /* a rerun only executes the cases that failed or were skipped in the given build */
+        String rerunFailedFrom = getProperty("rerunFailedFrom");
+        if (rerunFailedFrom != null && !rerunFailedFrom.trim().isEmpty()) {
+            rows = selectFailed(rows, rerunFailedFrom.trim(), matrix);
+        }
+
+        /* the durations of previous runs are used to start the slowest cases first */
+        DurationHistory history = null;
+        if (Boolean.parseBoolean(getProperty("durationOrdering"))) {
+            history = new DurationHistory(getProperty("durationHistory"));
+        }
+
+        /*
+         * when running as one of several shards only keep the rows of this shard. The
+         * partition must not depend on the live history, which other shards write
+         * to, so only a frozen snapshot passed to every shard is used.
+         */
+        ShardSelector shard = ShardSelector.fromProperty(getProperty("shard"), getProperty("shardStrategy"));
+        if (shard != null) {
+            String shardHistory = getProperty("shardHistory");
+            if (shardHistory != null && !shardHistory.trim().isEmpty()) {
+                shard.setHistorySnapshot(new DurationHistory(shardHistory.trim()));
+            }
+            rows = shard.select(rows);
+        }
+
+        /* a resumed run only executes the rows its journal has no outcome for */
+        String resume = getProperty("resume");
+        if (resume != null && !resume.trim().isEmpty()) {
+            rows = skipCompleted(rows, RunJournal.readCompleted(resume.trim()).keySet());
+        }
+
+        if (history != null) {
+            rows = history.orderLongestFirst(rows);
+        }
+
+        return rows;
     }
 }